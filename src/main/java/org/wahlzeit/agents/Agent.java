@@ -42,6 +42,11 @@ public abstract class Agent implements Runnable {
 	 */
 	protected boolean isToStop = false;
 	
+	/**
+	 * 
+	 */
+	protected boolean isWakeUpRequested = false;
+	
 	/**
 	 * Full period after which task gets repeated
 	 */
@@ -73,9 +78,10 @@ public abstract class Agent implements Runnable {
 	 * @methodtype command
 	 */
 	public void run() {
+		Session agentSession = null;
 		synchronized(Agent.class) {
 			String agentName = "agent" + id++;
-			Session agentSession = new SysSession(agentName);
+			agentSession = new SysSession(agentName);
 			SessionManager.setThreadLocalSession(agentSession);
 			SysLog.logInfo("started new agent", agentName);
 		}
@@ -83,15 +89,37 @@ public abstract class Agent implements Runnable {
 		while(!isToStop) {
 			try {
 				SysLog.logSysInfo("going to sleep for: " + (period / 1000) + " seconds");
-				Thread.sleep(period);
+				waitForNextRun();
 			} catch (Exception ex) {
 				// do nothing
 			}
 			SysLog.logSysInfo("just woke up");
-			doRun();
+			try {
+				doRun();
+			} finally {
+				agentSession.returnDatabaseConnection();
+			}
 		}
 	}
 	
+	/**
+	 * Sleeps for one period or until woken up, whichever comes first.
+	 */
+	protected synchronized void waitForNextRun() throws InterruptedException {
+		if (!isWakeUpRequested) {
+			wait(period);
+		}
+		isWakeUpRequested = false;
+	}
+	
+	/**
+	 * Makes the agent run its task now instead of at the end of the current period.
+	 */
+	public synchronized void wakeUp() {
+		isWakeUpRequested = true;
+		notifyAll();
+	}
+	
 	/**
 	 * @methodproperty hook
 	 */
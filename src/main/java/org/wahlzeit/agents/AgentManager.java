@@ -22,6 +22,7 @@ package org.wahlzeit.agents;
 
 import java.util.*;
 
+import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.services.SysLog;
 
 /**
@@ -39,6 +40,11 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyAboutPraiseAgent());
+		getInstance().addAgent(new DatabaseConnectionPoolAgent());
+		getInstance().addAgent(new PraiseFlushAgent());
+		if (SysConfig.isWriteBehind()) {
+			getInstance().addAgent(new WriteBehindAgent());
+		}
 	}
 	
 	/**
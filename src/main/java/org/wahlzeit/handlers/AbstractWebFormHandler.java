@@ -60,6 +60,13 @@ public abstract class AbstractWebFormHandler extends AbstractWebPartHandler impl
 		return true;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isAcceptingPost(UserSession us) {
+		return true;
+	}
+	
 	/**
 	 * 
 	 */
@@ -20,6 +20,9 @@
 
 package org.wahlzeit.handlers;
 
+import java.security.*;
+import java.util.*;
+
 import org.wahlzeit.model.*;
 import org.wahlzeit.services.*;
 import org.wahlzeit.utils.HtmlUtil;
@@ -30,6 +33,17 @@ import org.wahlzeit.webparts.*;
  */
 public abstract class AbstractWebPageHandler extends AbstractWebPartHandler implements WebPageHandler {
 	
+	/**
+	 * Pages rendered by an earlier run may have been rendered by other code
+	 */
+	protected static final long STARTUP_TIME = System.currentTimeMillis();
+	
+	/**
+	 * 
+	 */
+	protected static final WebPartKey HEADING = WebPartKey.valueOf("heading");
+	protected static final WebPartKey FOOTER = WebPartKey.valueOf("footer");
+	
 	/**
 	 * 
 	 */
@@ -37,35 +51,105 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		return makeWebPage(us);
 	}
 	
+	/**
+	 * The ETag is weak, as the processing time in the footer differs from response to response.
+	 */
+	public String getWebPageETag(UserSession us) {
+		String pageState = getWebPageState(us);
+		if ((pageState == null) || hasSavedMessage(us)) {
+			return null;
+		}
+		
+		StringBuffer state = new StringBuffer(128);
+		state.append(STARTUP_TIME).append('#');
+		state.append(WebPartTemplateService.getInstance().getGeneration()).append('#');
+		state.append(tmplName).append('#');
+		state.append(us.cfg().getLanguageCode()).append('#');
+		state.append(us.getClient().getRights().asString()).append('#');
+		state.append(us.getClientName()).append('#');
+		state.append(us.getPhotoSize().asInt()).append('#');
+		state.append(us.getSiteUrl()).append('#');
+		state.append(pageState);
+		
+		return "W/\"" + asDigest(state.toString()) + "\"";
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Returns everything the page shows beyond the session state and templates, or null if the page
+	 * cannot be validated that way. Called after handleGet, instead of makeWebPart.
+	 */
+	protected String getWebPageState(UserSession us) {
+		return null;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static String asDigest(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+			StringBuffer result = new StringBuffer(2 * digest.length);
+			for (int i = 0; i < digest.length; i++) {
+				result.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				result.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return result.toString();
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex); // MD5 and UTF-8 are always available
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	public WebPart makeWebPage(UserSession us) {
-		WebPart result = createWebPart(us);
+		WebPart result = new WebPart(getWebPageTemplate(us));
 		
-		ConfigDir staticDir = SysConfig.getStaticDir();
-		String stylesheetUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.css"));
-		result.addString("stylesheet", stylesheetUrl);
-		String javascriptUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.js"));
-		result.addString("javascript", javascriptUrl);
-
 		makeWebPageFrame(us, result);
-		makeWebPageMenu(us, result);		
 		makeWebPageBody(us, result);
 		
 		return result;
 	}
+	
+	/**
+	 * Returns the page template with the parts filled in that only depend on language and access rights
+	 */
+	protected WebPartTemplate getWebPageTemplate(UserSession us) {
+		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
+		String langCode = us.cfg().getLanguageCode();
+		String variant = us.getClient().getRights().asString();
+		
+		WebPartTemplate result = wpts.getSpecializedTemplate(langCode, tmplName, variant);
+		if (result == null) {
+			Map<String, String> values = new HashMap<String, String>();
+			makeWebPageConstants(us, values);
+			result = wpts.putSpecializedTemplate(langCode, tmplName, variant, values);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Values must not depend on anything but language and access rights of the client
+	 */
+	protected void makeWebPageConstants(UserSession us, Map<String, String> values) {
+		values.put("stylesheet", getStaticResourceAsRelativePathString("wahlzeit.css"));
+		values.put("javascript", getStaticResourceAsRelativePathString("wahlzeit.js"));
+
+		values.put("title", us.cfg().getPageTitle());
+		values.put("mission", us.cfg().getPageMission());
+		values.put("menu", getWebPageMenu(us));
+	}
 
 	/**
 	 * 
 	 */
 	protected void makeWebPageFrame(UserSession us, WebPart page) {
-		page.addString("title", us.cfg().getPageTitle());
-		
 		makeWebPageHeading(us, page);
 		
-		page.addString("footer", us.cfg().getPageFooter(us.getPhotoSize()));
-		page.addString("mission", us.cfg().getPageMission());
+		page.addString(FOOTER, us.cfg().getPageFooter(us.getPhotoSize()));
 	}
 	
 	/**
@@ -75,7 +159,7 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		Language langValue = us.cfg().getLanguage();
 		String heading = HtmlUtil.asImg(getHeadingImageAsRelativeResourcePathString(langValue));
 		heading = HtmlUtil.asHref(us.getSiteUrl(), heading);
-		page.addString("heading", heading);
+		page.addString(HEADING, heading);
 	}
 	
 	/**
@@ -88,21 +172,18 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	/**
 	 * 
 	 */
-	protected void makeWebPageMenu(UserSession us, WebPart page) {
+	protected String getWebPageMenu(UserSession us) {
 		Client client = us.getClient();
-		String menu = "";
 		
 		if (client.hasAdministratorRights()) {
-			menu = us.cfg().getAdministratorMenu();
+			return us.cfg().getAdministratorMenu();
 		} else if (client.hasModeratorRights()) {
-			menu = us.cfg().getModeratorMenu();
+			return us.cfg().getModeratorMenu();
 		} else if (client.hasUserRights()) {
-			menu = us.cfg().getUserMenu();
+			return us.cfg().getUserMenu();
 		} else {
-			menu = us.cfg().getGuestMenu();
+			return us.cfg().getGuestMenu();
 		}
-		
-		page.addString("menu", menu.toString());
 	}
 	
 	/**
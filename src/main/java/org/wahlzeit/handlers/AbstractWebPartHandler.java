@@ -62,9 +62,58 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 * @methodtype factory
 	 */
 	protected final WebPart createWebPart(UserSession us, String name) {
+		return new WebPart(getTemplate(us, name));
+	}
+	
+	/**
+	 * 
+	 */
+	protected final WebPartTemplate getTemplate(UserSession us, String name) {
 		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
-		WebPartTemplate tmpl = wpts.getTemplate(us.cfg().getLanguageCode(), name);
-		return new WebPart(tmpl);
+		return wpts.getTemplate(us.cfg().getLanguageCode(), name);
+	}
+	
+	/**
+	 * Returns a part without values, rendered once per language and access rights
+	 * 
+	 * @methodtype factory
+	 */
+	protected final Writable createStaticWebPart(UserSession us, String name) {
+		Writable result = getCachedWebPart(us, name, "");
+		if (result == null) {
+			result = putCachedWebPart(us, createWebPart(us, name), "");
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the rendered part or null, in which case it is to be made and handed to putCachedWebPart.
+	 * The variant has to name all inputs of the part other than its template and the client's access rights.
+	 */
+	protected final Writable getCachedWebPart(UserSession us, String name, String variant) {
+		return WebPartCache.getInstance().get(getTemplate(us, name), asCacheVariant(us, variant));
+	}
+	
+	/**
+	 * 
+	 */
+	protected final Writable putCachedWebPart(UserSession us, WebPart part, String variant) {
+		return WebPartCache.getInstance().put(part.getTemplate(), asCacheVariant(us, variant), part);
+	}
+	
+	/**
+	 * 
+	 */
+	protected String asCacheVariant(UserSession us, String variant) {
+		return us.getClient().getRights().asString() + "#" + variant;
+	}
+	
+	/**
+	 * Changes whenever the photo is changed or loaded again
+	 */
+	protected String asCacheVariant(Photo photo) {
+		return photo.getId().asString() + "@" + photo.getVersion();
 	}
 		
 	/**
@@ -72,7 +121,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getPhotoThumb(UserSession us, Photo photo) {
 		String result = null;
-		if (photo != null) {
+		if ((photo != null) && !photo.getStatus().isProcessing()) { // no image files yet
 			String imageLink = getPhotoAsRelativeResourcePathString(photo, PhotoSize.THUMB);
 			result = HtmlUtil.asImg(HtmlUtil.asPath(imageLink), photo.getThumbWidth(), photo.getThumbHeight());
 		} else {
@@ -230,7 +279,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getEmptyImageAsRelativeResourcePathString(Language lang) {
 		String resName = lang.asIsoCode() + File.separator + "empty.png";
-		return HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeConfigFileName(resName));
+		return getStaticResourceAsRelativePathString(resName);
 	}
 
 	/**
@@ -238,7 +287,15 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getHeadingImageAsRelativeResourcePathString(Language lang) {
 		String resName = lang.asIsoCode() + File.separator + "heading.png";
-		return HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeConfigFileName(resName));
+		return getStaticResourceAsRelativePathString(resName);
+	}
+	
+	/**
+	 * Returns the path with the fingerprint of the file, so browsers can keep it
+	 */
+	protected String getStaticResourceAsRelativePathString(String resName) {
+		String path = HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeConfigFileName(resName));
+		return FileResourceManager.getInstance().asFingerprintedPath(path);
 	}
 	
 	/**
@@ -253,7 +310,8 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getPhotoAsRelativeResourcePathString(Photo photo, PhotoSize size) {
 		String resName = photo.getId().asString() + size.asInt() + ".jpg";
-		return SysConfig.getPhotosDir().getRelativeDir() + '/' + resName;
+		String path = HtmlUtil.asPath(SysConfig.getPhotosDir().getRelativeDir()) + '/' + resName;
+		return FileResourceManager.getInstance().asFingerprintedPath(path);
 	}
 
 }
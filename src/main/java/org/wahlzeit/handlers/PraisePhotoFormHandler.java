@@ -79,7 +79,7 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 		if (!StringUtil.isNullOrEmptyString(praise)) {
 			if (!us.hasPraisedPhoto(photo)) {
 				int value = Integer.parseInt(praise);
-				photo.addToPraise(value);
+				PhotoManager.getInstance().praisePhoto(photo, value);
 				us.addPraisedPhoto(photo);
 				wasPraised = true;
 				if (photo.getOwnerNotifyAboutPraise()) {
@@ -58,6 +58,24 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 			page.addStringFromArgs(args, "photoId");
 			page.addWritable("object", makeAdminUserPhoto(us));
 		}
+		
+		page.maskAndAddString("statistics", getStatisticsAsString());
+	}
+	
+	/**
+	 * 
+	 */
+	protected String getStatisticsAsString() {
+		StringBuffer result = new StringBuffer(1024);
+		result.append("Database connection pool: " + DatabaseConnection.getPool().getStatisticsAsString() + "\n");
+		result.append("Write-behind queue: " + WriteBehindQueue.getInstance().getStatisticsAsString() + "\n");
+		result.append("Photo cache: " + PhotoManager.getInstance().getPhotoCache().getStatisticsAsString() + "\n");
+		result.append("User cache: " + UserManager.getInstance().getUserCache().getStatisticsAsString() + "\n");
+		result.append("Photo misses: " + PhotoManager.getInstance().getMissStatistics() + "\n");
+		result.append("User misses: " + UserManager.getInstance().getMissStatistics() + "\n");
+		result.append("Web part cache: " + WebPartCache.getInstance().getStatistics() + "\n\n");
+		result.append(QueryStatistics.getInstance().getStatisticsAsString());
+		return result.toString();
 	}
 	
 	/**
@@ -90,6 +108,13 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 		return handler.makeWebPart(us);
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isAcceptingPost(UserSession us) {
+		return true;
+	}
+	
 	/**
 	 * 
 	 */
@@ -47,7 +47,14 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 	 * 
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		page.addWritable("info", createStaticWebPart(us, infoTmplName));
+	}
+	
+	/**
+	 * Info pages only depend on their templates
+	 */
+	protected String getWebPageState(UserSession us) {
+		return infoTmplName;
 	}
 
 }
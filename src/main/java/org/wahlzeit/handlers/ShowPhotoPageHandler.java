@@ -31,6 +31,22 @@ import org.wahlzeit.webparts.*;
  */
 public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebFormHandler {
 	
+	/**
+	 * 
+	 */
+	protected static final WebPartKey ID = WebPartKey.valueOf(Photo.ID);
+	protected static final WebPartKey DESCRIPTION = WebPartKey.valueOf(Photo.DESCRIPTION);
+	protected static final WebPartKey KEYWORDS = WebPartKey.valueOf(Photo.KEYWORDS);
+	protected static final WebPartKey IMAGE = WebPartKey.valueOf(Photo.IMAGE);
+	protected static final WebPartKey CAPTION = WebPartKey.valueOf(Photo.CAPTION);
+	protected static final WebPartKey LINK = WebPartKey.valueOf(Photo.LINK);
+	protected static final WebPartKey PRAISE = WebPartKey.valueOf(Photo.PRAISE);
+	protected static final WebPartKey THUMB = WebPartKey.valueOf(Photo.THUMB);
+	protected static final WebPartKey SIDEBAR = WebPartKey.valueOf("sidebar");
+	protected static final WebPartKey MAIN_WIDTH = WebPartKey.valueOf("mainWidth");
+	protected static final WebPartKey ENGAGE_GUEST = WebPartKey.valueOf("engageGuest");
+	protected static final WebPartKey PRAISE_PHOTO = WebPartKey.valueOf("praisePhoto");
+	
 	/**
 	 * 
 	 */
@@ -63,6 +79,9 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		}
 
 		us.setPhoto(photo);
+		if ((photo != null) && photo.isVisible()) {
+			us.addDisplayedPhoto(photo); // also if the page is not made again
+		}
 		
 		return link;
 	}
@@ -89,18 +108,35 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 			makeEngageGuest(us, page);
 
 			String photoId = photo.getId().asString();
-			page.addString(Photo.ID, photoId);
+			page.addString(ID, photoId);
 
 			Tags tags = photo.getTags();
-			page.addString(Photo.DESCRIPTION, getPhotoSummary(us, photo));
-			page.addString(Photo.KEYWORDS, tags.asString(false, ','));
-
-			us.addDisplayedPhoto(photo);
+			page.addString(DESCRIPTION, getPhotoSummary(us, photo));
+			page.addString(KEYWORDS, tags.asString(false, ','));
 		}
 		
 		makeRightSidebar(us, page);
 	}
 	
+	/**
+	 * The prior photo is shown only once, so that page is never the same again
+	 */
+	protected String getWebPageState(UserSession us) {
+		Photo photo = us.getPhoto();
+		if ((photo == null) || (us.getPriorPhoto() != null)) {
+			return null;
+		}
+		
+		PhotoFilter filter = us.getPhotoFilter();
+		StringBuffer result = new StringBuffer(64);
+		result.append(asCacheVariant(photo)).append('#');
+		result.append(photo.getPraiseAsString(us.cfg())).append('#');
+		result.append(us.isPhotoOwner(photo)).append('#');
+		result.append(filter.getUserName()).append('#');
+		result.append(filter.getTags().asString());
+		return result.toString();
+	}
+	
 	/**
 	 * 
 	 */
@@ -111,16 +147,16 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (photo != null) {
 			parts.append(makePriorPhotoInfo(us));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createStaticWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createStaticWebPart(us, PartUtil.LINKS_INFO_FILE));
 		
-		page.addWritable("sidebar", parts);
+		page.addWritable(SIDEBAR, parts);
 	}
 	
 	/**
@@ -131,24 +167,23 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 
 		Photo photo = us.getPhoto();
 		if (photo == null) {
-			page.addString("mainWidth", String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
-			WebPart done = createWebPart(us, PartUtil.DONE_INFO_FILE);
-			page.addWritable(Photo.IMAGE, done);
+			page.addString(MAIN_WIDTH, String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
+			page.addWritable(IMAGE, createStaticWebPart(us, PartUtil.DONE_INFO_FILE));
 			return;
 		}
 		
 		Client client = us.getClient();
-		if (!photo.isVisible() && !client.hasModeratorRights() && !us.isPhotoOwner(photo)) {
-			page.addString("mainWidth", String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
-			WebPart done = createWebPart(us, PartUtil.HIDDEN_INFO_FILE);
-			page.addWritable(Photo.IMAGE, done);
+		boolean hasImageFiles = !photo.getStatus().isProcessing();
+		if (!hasImageFiles || (!photo.isVisible() && !client.hasModeratorRights() && !us.isPhotoOwner(photo))) {
+			page.addString(MAIN_WIDTH, String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
+			page.addWritable(IMAGE, createStaticWebPart(us, PartUtil.HIDDEN_INFO_FILE));
 			return;
 		}
 		
 		PhotoSize maxPhotoSize = photo.getMaxPhotoSize();
 		PhotoSize photoSize = (maxPhotoSize.isSmaller(pagePhotoSize)) ? maxPhotoSize : pagePhotoSize;
 		String imageLink = getPhotoAsRelativeResourcePathString(photo, photoSize);
-		page.addString(Photo.IMAGE, HtmlUtil.asImg(HtmlUtil.asPath(imageLink)));
+		page.addString(IMAGE, HtmlUtil.asImg(HtmlUtil.asPath(imageLink)));
 	}
 	
 	/**
@@ -156,11 +191,15 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	 */
 	protected void makePhotoCaption(UserSession us, WebPart page) {
 		Photo photo = us.getPhoto();
-		// String photoId = photo.getId().asString();
-			
-		WebPart caption = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
-		caption.addString(Photo.CAPTION, getPhotoCaption(us, photo));
-		page.addWritable(Photo.CAPTION, caption);
+		String variant = asCacheVariant(photo);
+		
+		Writable caption = getCachedWebPart(us, PartUtil.CAPTION_INFO_FILE, variant);
+		if (caption == null) {
+			WebPart part = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
+			part.addString(CAPTION, getPhotoCaption(us, photo));
+			caption = putCachedWebPart(us, part, variant);
+		}
+		page.addWritable(CAPTION, caption);
 	}
 
 	/**
@@ -171,10 +210,10 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		String photoId = photo.getId().asString();
 
 		WebPart engageGuest = createWebPart(us, PartUtil.ENGAGE_GUEST_FORM_FILE);
-		engageGuest.addString(Photo.LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(photoId)));
-		engageGuest.addString(Photo.ID, photoId);
+		engageGuest.addString(LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(photoId)));
+		engageGuest.addString(ID, photoId);
 
-		page.addWritable("engageGuest", engageGuest);
+		page.addWritable(ENGAGE_GUEST, engageGuest);
 	}
 	
 	/**
@@ -189,28 +228,39 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 
 		WebFormHandler handler = getFormHandler(handlerName);
 		Writable praisePhotoForm = handler.makeWebPart(us);
-		page.addWritable("praisePhoto", praisePhotoForm);
+		page.addWritable(PRAISE_PHOTO, praisePhotoForm);
 	}
 
 	
 	/**
 	 * 
 	 */
-	protected WebPart makePriorPhotoInfo(UserSession us) {
-		WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
-
+	protected Writable makePriorPhotoInfo(UserSession us) {
 		Photo photo = us.getPriorPhoto();
-		// String id = photo.getId().asString();
+		String praise = photo.getPraiseAsString(us.cfg()); // praise does not change the photo's version
+		String variant = asCacheVariant(photo) + "#" + praise;
 
-		result.addString(Photo.PRAISE, photo.getPraiseAsString(us.cfg()));
-		result.addString(Photo.THUMB, getPhotoThumb(us, photo));
-		result.addString(Photo.CAPTION, getPhotoCaption(us, photo));
+		Writable result = getCachedWebPart(us, PartUtil.PHOTO_INFO_FILE, variant);
+		if (result == null) {
+			WebPart part = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
+			part.addString(PRAISE, praise);
+			part.addString(THUMB, getPhotoThumb(us, photo));
+			part.addString(CAPTION, getPhotoCaption(us, photo));
+			result = putCachedWebPart(us, part, variant);
+		}
 			
 		us.setPriorPhoto(null); // reset so you don't get repeats
 
 		return result;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isAcceptingPost(UserSession us) {
+		return true;
+	}
+	
 	/**
 	 * 
 	 */
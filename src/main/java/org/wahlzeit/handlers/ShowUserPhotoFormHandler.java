@@ -54,12 +54,30 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 		part.maskAndAddString(Photo.TAGS, tags);
 		
 		String photoStatus = us.cfg().asValueString(photo.getStatus());
+		if (photo.getStatus().isProcessing()) {
+			photoStatus = getProcessingStatus(us, photo);
+		}
 		part.addString(Photo.STATUS, photoStatus);
 
 		part.addString(Photo.UPLOADED_ON, us.cfg().asDateString(photo.getCreationTime()));
 		part.addString(Photo.LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(id)));
 	}
 	
+	/**
+	 * Tells how far the PhotoIngestionQueue is with the photo
+	 */
+	protected String getProcessingStatus(UserSession us, Photo photo) {
+		PhotoIngestionQueue queue = PhotoIngestionQueue.getInstance();
+		int noPhotosAhead = queue.getNoPhotosAhead(photo.getId());
+		if (noPhotosAhead >= 0) {
+			return us.cfg().getPhotoIsWaiting() + " " + noPhotosAhead;
+		} else if (queue.isBeingProcessed(photo.getId())) {
+			return us.cfg().getPhotoIsBeingProcessed();
+		} else {
+			return us.cfg().asValueString(photo.getStatus());
+		}
+	}
+	
 	/**
 	 * 
 	 */
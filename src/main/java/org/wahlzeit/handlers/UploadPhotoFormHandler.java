@@ -22,6 +22,7 @@ package org.wahlzeit.handlers;
 
 import java.util.*;
 import java.io.*;
+import java.awt.Dimension;
 
 import org.wahlzeit.model.*;
 import org.wahlzeit.services.*;
@@ -51,7 +52,17 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 	}
 	
 	/**
+	 * Uploads beyond the size of the PhotoIngestionQueue are rejected before the file is received
 	 * 
+	 * @methodtype boolean-query
+	 */
+	public boolean isAcceptingPost(UserSession us) {
+		Client client = us.getClient();
+		return !(client instanceof User) || PhotoIngestionQueue.getInstance().hasCapacity(((User) client).getId());
+	}
+	
+	/**
+	 * Only stores the uploaded file; the PhotoIngestionQueue creates the image files
 	 */
 	protected String doHandlePost(UserSession us, Map args) {
 		String tags = us.getAndSaveAsString(args, Photo.TAGS);
@@ -61,48 +72,47 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
 		}
 
+		User user = (User) us.getClient();
+		PhotoIngestionQueue queue = PhotoIngestionQueue.getInstance();
+		if (!queue.reserve(user.getId())) { // before anything is stored, so nothing is left behind
+			us.setMessage(us.cfg().getPhotoUploadQueueIsFull());
+			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
+		}
+
+		boolean isQueued = false;
 		try {
 			PhotoManager pm = PhotoManager.getInstance();
 			String sourceFileName = us.getAsString(args, "fileName");
-			File file = new File(sourceFileName);
-			Photo photo = pm.createPhoto(file);
-
-			String targetFileName = SysConfig.getBackupDir().asString() + photo.getId().asString();
-			createBackup(sourceFileName, targetFileName);
+			Dimension size = PhotoUtil.readImageSize(new File(sourceFileName)); // rejects bad files before they are queued
+			Photo photo = pm.createProcessingPhoto();
+			photo.setWidthAndHeight(size.width, size.height);
+			
+			// the upload file is reused by the next upload on this thread
+			File source = PhotoIngestionQueue.storeSourceFile(photo.getId(), new File(sourceFileName));
 		
-			User user = (User) us.getClient();
 			user.addPhoto(photo); 
 			
 			photo.setTags(new Tags(tags));
 
 			pm.savePhoto(photo);
 
+			queue.addReserved(photo, source);
+			isQueued = true;
+
 			StringBuffer sb = UserLog.createActionEntry("UploadPhoto");
 			UserLog.addCreatedObject(sb, "Photo", photo.getId().asString());
 			UserLog.log(sb);
 			
-			us.setTwoLineMessage(us.cfg().getPhotoUploadSucceeded(), us.cfg().getKeepGoing());
+			us.setTwoLineMessage(us.cfg().getPhotoUploadQueued(), us.cfg().getKeepGoing());
 		} catch (Exception ex) {
 			SysLog.logThrowable(ex);
 			us.setMessage(us.cfg().getPhotoUploadFailed());
+		} finally {
+			if (!isQueued) {
+				queue.cancel(user.getId());
+			}
 		}
 		
 		return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
 	}
-	
-	/**
-	 * 
-	 */
-	protected void createBackup(String sourceName, String targetName) {
-		try {
-			File sourceFile = new File(sourceName);
-			InputStream inputStream = new FileInputStream(sourceFile);
-			File targetFile = new File(targetName);
-			OutputStream outputStream = new FileOutputStream(targetFile);
-			// @FIXME IO.copy(inputStream, outputStream);
-		} catch (Exception ex) {
-			SysLog.logSysInfo("could not create backup file of photo");
-			SysLog.logThrowable(ex);			
-		}
-	}
 }
@@ -34,4 +34,9 @@ public interface WebFormHandler extends WebPartHandler {
 	 */
 	public String handlePost(UserSession us, Map args);
 	
+	/**
+	 * @return whether a POST can be handled now; if not, it is rejected before its arguments are read
+	 */
+	public boolean isAcceptingPost(UserSession us);
+	
 }
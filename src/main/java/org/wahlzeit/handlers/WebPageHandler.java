@@ -34,5 +34,9 @@ public interface WebPageHandler extends WebPartHandler {
 	 */
 	public WebPart makeWebPart(UserSession us);
 	
+	/**
+	 * Returns a validator for the page makeWebPart would make, or null if the page is not to be validated
+	 */
+	public String getWebPageETag(UserSession us);
 	
 }
@@ -48,6 +48,7 @@ public abstract class AbstractMain {
 	 */
 	protected void startUp(String rootDir) throws Exception {
 		SysConfig.setInstance(new SysConfig(rootDir, DB_HOST));
+		SysLog.setLoggingQueries(SysConfig.isDbLogAllQueries());
 		
 		boolean dbAvailable = DatabaseConnection.waitForDatabaseIsReady(30, 1000);
 		if (!dbAvailable) {
@@ -62,6 +63,11 @@ public abstract class AbstractMain {
 	 * 
 	 */
 	protected void shutDown() throws Exception {
+		if (mainSession != null) {
+			mainSession.returnDatabaseConnection();
+		}
+		DatabaseConnection.dropPool();
+
 		SysConfig.dropInstance();
 	}
 	
@@ -23,6 +23,7 @@ package org.wahlzeit.main;
 import java.io.File;
 import java.io.FileFilter;
 import java.sql.*;
+import java.util.*;
 
 import org.wahlzeit.model.*;
 import org.wahlzeit.services.*;
@@ -33,6 +34,11 @@ import org.wahlzeit.servlets.AbstractServlet;
  */
 public abstract class ModelMain extends AbstractMain {
 	
+	/**
+	 * Allocators of the global ids, each with a database connection of its own
+	 */
+	protected List<IdBlockAllocator> idAllocators = new ArrayList<IdBlockAllocator>();
+	
 	/**
 	 * 
 	 */
@@ -42,12 +48,31 @@ public abstract class ModelMain extends AbstractMain {
 		if (!hasGlobals()) {
 			tearDownDatabase();
 			setUpDatabase();
+		} else {
+			migrateDatabase();
 		}
 		
  		loadGlobals();
 
 		RestaurantPhotoFactory.initialize();
 		RestaurantPhotoManager.initialize();
+		
+		if (SysConfig.isDbPreload()) {
+			loadAll();
+		}
+		
+		if (SysConfig.isBloomFilters()) {
+			PhotoManager.getInstance().loadPhotoIdFilter();
+			UserManager.getInstance().loadTagFilter();
+		}
+	}
+	
+	/**
+	 * Warms up the caches; photos first, as users are wired up with cached photos.
+	 */
+	public void loadAll() {
+		PhotoManager.getInstance().loadAllPhotos();
+		UserManager.getInstance().loadAllUsers();
 	}
 	
 	/**
@@ -65,7 +90,13 @@ public abstract class ModelMain extends AbstractMain {
 	 * 
 	 */
 	protected void shutDown() throws Exception {
+		SessionManager.setThreadLocalSession(mainSession); // shutdown may run on any thread
 		saveAll();
+		
+		for (IdBlockAllocator allocator : idAllocators) {
+			allocator.close();
+		}
+		idAllocators.clear();
 
 		super.shutDown();
 	}
@@ -75,6 +106,18 @@ public abstract class ModelMain extends AbstractMain {
 	 */
 	public void setUpDatabase() throws SQLException {
 		runScript("CreateTables.sql");
+		migrateDatabase();
+	}
+	
+	/**
+	 * Upgrades the schema in place to Version.DATA_VERSION.
+	 */
+	public void migrateDatabase() throws SQLException {
+		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
+		Connection conn = dbc.getRdbmsConnection();
+		
+		SchemaMigrator migrator = new SchemaMigrator(SysConfig.getScriptsDir());
+		migrator.migrate(conn);
 	}
 	
 	/**
@@ -139,35 +182,51 @@ public abstract class ModelMain extends AbstractMain {
 		}
 		
 		stmt.close();
+		
+		int blockSize = SysConfig.getDbIdBlockSize();
+		User.setIdAllocator(createIdAllocator("last_user_id", blockSize));
+		PhotoId.setIdAllocator(createIdAllocator("last_photo_id", blockSize));
+		Case.setIdAllocator(createIdAllocator("last_case_id", blockSize));
+		AbstractServlet.setSessionIdAllocator(createIdAllocator("last_session_id", blockSize));
+	}
+	
+	/**
+	 * 
+	 */
+	protected IdBlockAllocator createIdAllocator(String columnName, int blockSize) {
+		IdBlockAllocator result = new IdBlockAllocator(columnName, blockSize);
+		idAllocators.add(result);
+		return result;
 	}
 
 	/**
-	 *
+	 * Ids are reserved in the globals table block by block as they are handed out, so the counters there
+	 * are normally ahead already. They are never lowered, as other nodes may have reserved further ids.
 	 */
 	public synchronized void saveGlobals() throws SQLException {
 		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
 		Connection conn = dbc.getRdbmsConnection();
 
-		String query = "SELECT * FROM globals";
-		SysLog.logQuery(query);
+		PreparedStatement stmt = conn.prepareStatement(
+			"UPDATE globals SET last_user_id = GREATEST(last_user_id, ?), last_photo_id = GREATEST(last_photo_id, ?), " + 
+			"last_case_id = GREATEST(last_case_id, ?), last_session_id = GREATEST(last_session_id, ?) WHERE id = 0"
+		);
 
-		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-		ResultSet rset = stmt.executeQuery(query);
-		if (rset.next()) {
-			int lastUserId = User.getLastUserId();
-			rset.updateInt("last_user_id", lastUserId);
-			SysLog.logSysInfo("saved global variable lastUserId: " + lastUserId);
-			int lastPhotoId = PhotoId.getCurrentIdAsInt();
-			rset.updateInt("last_photo_id", lastPhotoId);
-			SysLog.logSysInfo("saved global variable lastPhotoId: " + lastPhotoId);
-			int lastCaseId = Case.getLastCaseId().asInt();
-			rset.updateInt("last_case_id", lastCaseId);
-			SysLog.logSysInfo("saved global variable lastCaseId: " + lastCaseId);
-			int lastSessionId = AbstractServlet.getLastSessionId();
-			rset.updateInt("last_session_id", lastSessionId);
-			SysLog.logSysInfo("saved global variable lastSessionId: " + lastSessionId);
-			rset.updateRow();
-		} else {
+		int lastUserId = User.getLastUserId();
+		stmt.setInt(1, lastUserId);
+		SysLog.logSysInfo("saved global variable lastUserId: " + lastUserId);
+		int lastPhotoId = PhotoId.getCurrentIdAsInt();
+		stmt.setInt(2, lastPhotoId);
+		SysLog.logSysInfo("saved global variable lastPhotoId: " + lastPhotoId);
+		int lastCaseId = Case.getLastCaseId().asInt();
+		stmt.setInt(3, lastCaseId);
+		SysLog.logSysInfo("saved global variable lastCaseId: " + lastCaseId);
+		int lastSessionId = AbstractServlet.getLastSessionId();
+		stmt.setInt(4, lastSessionId);
+		SysLog.logSysInfo("saved global variable lastSessionId: " + lastSessionId);
+
+		SysLog.logQuery(stmt);
+		if (stmt.executeUpdate() != 1) {
 			SysLog.logSysError("Could not save globals!");
 		}
 		
@@ -178,6 +237,9 @@ public abstract class ModelMain extends AbstractMain {
 	 * 
 	 */
 	public void saveAll() throws SQLException {
+		WriteBehindQueue.getInstance().flush();
+		PhotoManager.getInstance().flushPraise();
+
 		PhotoCaseManager.getInstance().savePhotoCases();
 		PhotoManager.getInstance().savePhotos();			
 		UserManager.getInstance().saveUsers();
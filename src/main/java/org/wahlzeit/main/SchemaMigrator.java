@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * The SchemaMigrator brings an existing database schema up to Version.DATA_VERSION.
+ * Migrations are scripts named "Migrate-<version>.sql" in the scripts directory; each is applied
+ * once, in version order, in its own transaction, and recorded in the schema_version table.
+ * A database without a schema_version table is taken to be at BASE_VERSION, the schema of CreateTables.sql.
+ */
+public class SchemaMigrator {
+	
+	/**
+	 * 
+	 */
+	public static final String BASE_VERSION = "2.0.0";
+	
+	/**
+	 * 
+	 */
+	protected static final Pattern MIGRATION_PATTERN = Pattern.compile("Migrate-(\\d+\\.\\d+\\.\\d+)\\.sql");
+	
+	/**
+	 * 
+	 */
+	protected ConfigDir scriptsDir;
+	
+	/**
+	 * 
+	 */
+	public SchemaMigrator(ConfigDir newScriptsDir) {
+		scriptsDir = newScriptsDir;
+	}
+	
+	/**
+	 * 
+	 */
+	public void migrate(Connection conn) throws SQLException {
+		ensureSchemaVersionTable(conn);
+		
+		int currentVersion = getSchemaVersion(conn);
+		int targetVersion = Version.getDataVersionAsInt();
+		if (currentVersion > targetVersion) {
+			SysLog.logSysError("database schema version " + currentVersion + " is newer than data version " + targetVersion);
+			return;
+		}
+		
+		SortedMap<Integer, String> migrations = getPendingMigrations(scriptsDir.getFileNames(), currentVersion, targetVersion);
+		for (Map.Entry<Integer, String> migration : migrations.entrySet()) {
+			applyMigration(conn, migration.getKey(), migration.getValue());
+		}
+		
+		SysLog.logSysInfo("database schema is at version " + Version.DATA_VERSION);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void ensureSchemaVersionTable(Connection conn) throws SQLException {
+		String query = "CREATE TABLE IF NOT EXISTS schema_version (version integer PRIMARY KEY, script text, applied_at bigint)";
+		SysLog.logQuery(query);
+		
+		Statement stmt = conn.createStatement();
+		stmt.execute(query);
+		stmt.close();
+	}
+	
+	/**
+	 * 
+	 */
+	public int getSchemaVersion(Connection conn) throws SQLException {
+		int result = Version.getVersionAsInt(BASE_VERSION);
+		
+		String query = "SELECT max(version) FROM schema_version";
+		SysLog.logQuery(query);
+
+		Statement stmt = conn.createStatement();
+		ResultSet rset = stmt.executeQuery(query);
+		if (rset.next() && (rset.getInt(1) != 0)) {
+			result = rset.getInt(1);
+		}
+		
+		stmt.close();
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void applyMigration(Connection conn, int version, String scriptName) throws SQLException {
+		SysLog.logSysInfo("applying schema migration " + scriptName);
+
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			runScript(conn, scriptName);
+			
+			PreparedStatement stmt = conn.prepareStatement("INSERT INTO schema_version VALUES(?, ?, ?)");
+			stmt.setInt(1, version);
+			stmt.setString(2, scriptName);
+			stmt.setLong(3, System.currentTimeMillis());
+			SysLog.logQuery(stmt);
+			stmt.executeUpdate();
+			stmt.close();
+			
+			conn.commit();
+		} catch (SQLException ex) {
+			conn.rollback();
+			throw ex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * Runs the default script, then the custom one, if present.
+	 */
+	protected void runScript(Connection conn, String scriptName) throws SQLException {
+		if (scriptsDir.hasDefaultFile(scriptName)) {
+			runScriptFile(conn, scriptsDir.getAbsoluteDefaultConfigFileName(scriptName));
+		}
+		
+		if (scriptsDir.hasCustomFile(scriptName)) {
+			runScriptFile(conn, scriptsDir.getAbsoluteCustomConfigFileName(scriptName));
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void runScriptFile(Connection conn, String fullFileName) throws SQLException {
+		String query = FileUtil.safelyReadFileAsString(fullFileName);
+		SysLog.logQuery(query);
+
+		Statement stmt = conn.createStatement();
+		stmt.execute(query);
+		stmt.close();
+	}
+	
+	/**
+	 * Returns the migration scripts with currentVersion < version <= targetVersion, keyed and ordered by version.
+	 */
+	public static SortedMap<Integer, String> getPendingMigrations(Collection<String> fileNames, int currentVersion, int targetVersion) {
+		SortedMap<Integer, String> result = new TreeMap<Integer, String>();
+		for (String fileName : fileNames) {
+			int version = getMigrationVersion(fileName);
+			if ((version > currentVersion) && (version <= targetVersion)) {
+				result.put(version, fileName);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the version a migration script leads to, or -1 if fileName is not a migration script.
+	 */
+	public static int getMigrationVersion(String fileName) {
+		Matcher matcher = MIGRATION_PATTERN.matcher(fileName);
+		if (!matcher.matches()) {
+			return -1;
+		}
+		
+		return Version.getVersionAsInt(matcher.group(1));
+	}
+	
+}
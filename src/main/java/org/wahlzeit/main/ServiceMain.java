@@ -20,11 +20,15 @@
 
 package org.wahlzeit.main;
 
+import java.io.*;
+import java.util.*;
+
 import org.wahlzeit.agents.AgentManager;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.*;
 import org.wahlzeit.webparts.*;
 import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
 
 /**
  * A Main class that runs a Wahlzeit web server.
@@ -87,21 +91,57 @@ public class ServiceMain extends ModelMain {
 		configureWebPartTemplateService();
 		configureWebPartHandlers();
 		configureLanguageModels();
+		prepareStaticFiles();
 
 		AgentManager am = AgentManager.getInstance();
 		am.startAllThreads();
+		
+		startPhotoIngestion();
+		
+		mainSession.returnDatabaseConnection(); // borrowed again on demand
 	}
 	
 	/**
 	 * 
 	 */
 	public void shutDown() throws Exception {
+		PhotoIngestionQueue.getInstance().stop();
+		
 		AgentManager am = AgentManager.getInstance();
 		am.stopAllThreads();
 				
 		super.shutDown();
 	}
 	
+	/**
+	 * Photos still processing lost their place in the queue when Wahlzeit was stopped
+	 */
+	public void startPhotoIngestion() {
+		PhotoIngestionQueue queue = PhotoIngestionQueue.getInstance();
+		Set<Photo> photos = PhotoManager.getInstance().findProcessingPhotos();
+		if (!photos.isEmpty()) {
+			queue.resume(photos);
+			SysLog.logSysInfo("resumed processing photos", String.valueOf(photos.size()));
+		}
+		queue.start();
+	}
+	
+	/**
+	 * Writes .gz siblings of the static files, which the ResourceServlet sends as they are,
+	 * and fingerprints all static files before pages link to them
+	 */
+	public void prepareStaticFiles() {
+		File staticDir = new File(SysConfig.getStaticDir().asString());
+		try {
+			int noFiles = GzipUtil.compressFiles(staticDir);
+			SysLog.logSysInfo("compressed static files", String.valueOf(noFiles));
+			noFiles = FileResourceManager.getInstance().addResources(staticDir);
+			SysLog.logSysInfo("fingerprinted static files", String.valueOf(noFiles));
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex); // files are then sent uncompressed and fingerprinted on demand
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -508,6 +508,20 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("NoTags"); 
 	}
 
+	/**
+	 * 
+	 */
+	public String getPhotoIsWaiting() {
+		return doGetValue("PhotoIsWaiting"); 
+	}
+
+	/**
+	 * 
+	 */
+	public String getPhotoIsBeingProcessed() {
+		return doGetValue("PhotoIsBeingProcessed"); 
+	}
+
 	/**
 	 * 
 	 */
@@ -543,6 +557,20 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("PhotoUploadSucceeded"); 
 	}
 
+	/**
+	 * 
+	 */
+	public String getPhotoUploadQueued() {
+		return doGetValue("PhotoUploadQueued"); 
+	}
+
+	/**
+	 * 
+	 */
+	public String getPhotoUploadQueueIsFull() {
+		return doGetValue("PhotoUploadQueueIsFull"); 
+	}
+
 	/**
 	 * 
 	 */
@@ -33,6 +33,11 @@ public abstract class Case extends DataObject {
 	 */
 	protected static CaseId lastCaseId = CaseId.NULL_ID;
 	
+	/**
+	 * Reserves blocks of ids in the database; if null, ids are counted up locally
+	 */
+	protected static IdBlockAllocator idAllocator = null;
+	
 	/**
 	 * @methodtype get
 	 */
@@ -51,7 +56,22 @@ public abstract class Case extends DataObject {
 	 * @methodtype idiom
 	 */
 	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+		if (idAllocator == null) {
+			return lastCaseId = lastCaseId.getNextId();
+		}
+		
+		CaseId result = new CaseId(idAllocator.getNextId());
+		if (idAllocator.getHighestReservedId() > lastCaseId.asInt()) {
+			lastCaseId = new CaseId(idAllocator.getHighestReservedId());
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setIdAllocator(IdBlockAllocator newIdAllocator) {
+		idAllocator = newIdAllocator;
 	}
 
 }
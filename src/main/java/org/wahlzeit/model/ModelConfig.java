@@ -130,6 +130,8 @@ public interface ModelConfig extends Configuration {
 	public String getNoCharacterName();
 	public String getNoSeriesName();
 	public String getNoTags();
+	public String getPhotoIsWaiting();
+	public String getPhotoIsBeingProcessed();
 
 	// EDIT_USER_PROFILE_FORM
 	public String getProfileUpdateSucceeded();
@@ -143,6 +145,8 @@ public interface ModelConfig extends Configuration {
 	// UPLOAD_PHOTO_FORM
 	public String getPhotoUploadFailed();
 	public String getPhotoUploadSucceeded();
+	public String getPhotoUploadQueued();
+	public String getPhotoUploadQueueIsFull();
 
 	// LOGOUT_PAGE
 	public String getLogoutSucceeded();
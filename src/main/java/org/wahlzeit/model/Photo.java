@@ -22,6 +22,8 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.wahlzeit.services.*;
 import org.wahlzeit.utils.*;
@@ -112,9 +114,21 @@ public class Photo extends DataObject {
 	/**
 	 * 
 	 */
-	protected int praiseSum = 10;
+	protected int praiseSum = 10; // as read; same as the column defaults of the photos table
 	protected int noVotes = 1;
 	
+	/**
+	 * Praise added since the photo was read; striped counters, so concurrent praise is neither lost nor contended
+	 */
+	protected transient LongAdder addedPraiseSum = new LongAdder();
+	protected transient LongAdder addedNoVotes = new LongAdder();
+	
+	/**
+	 * Part of the added praise that has been written to the database; only used by PhotoManager.flushPraise
+	 */
+	protected transient long writtenPraiseSum = 0;
+	protected transient long writtenNoVotes = 0;
+	
 	/**
 	 * 
 	 */
@@ -123,6 +137,11 @@ public class Photo extends DataObject {
 	protected Location location = new Location(
 			CartesianCoordinate.fromValues(Math.random(), Math.random(), Math.random()));
 
+	/**
+	 * Tags as last written to the tags table; null if unknown
+	 */
+	protected transient Set<String> persistedTagSet = null;
+
 	/**
 	 * 
 	 */
@@ -171,7 +190,7 @@ public class Photo extends DataObject {
 		if(rset == null)
 			ExceptionHelper.ThrowNullArgumentExceptionMessage("rset");
 
-		id = PhotoId.getIdFromInt(rset.getInt("id"));
+		id = PhotoId.getIdFromStoredInt(rset.getInt("id"));
 
 		ownerId = rset.getInt("owner_id");
 		ownerName = rset.getString("owner_name");
@@ -236,8 +255,7 @@ public class Photo extends DataObject {
 		rset.updateInt("height", height);
 		rset.updateString("tags", tags.asString());
 		rset.updateInt("status", status.asInt());
-		rset.updateInt("praise_sum", praiseSum);
-		rset.updateInt("no_votes", noVotes);
+		// praise_sum and no_votes are only ever incremented, see PhotoManager.flushPraise
 		rset.updateLong("creation_time", creationTime);
 
 		// Store location
@@ -465,7 +483,7 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public double getPraise() {
-		return (double) praiseSum / noVotes;
+		return (double) (praiseSum + addedPraiseSum.sum()) / (noVotes + addedNoVotes.sum());
 	}
 	
 	/**
@@ -480,9 +498,32 @@ public class Photo extends DataObject {
 	 * 
 	 */
 	public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
-		incWriteCount();
+		addedPraiseSum.add(value);
+		addedNoVotes.increment();
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public long getUnwrittenPraiseSum() {
+		return addedPraiseSum.sum() - writtenPraiseSum;
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public long getUnwrittenNoVotes() {
+		return addedNoVotes.sum() - writtenNoVotes;
+	}
+	
+	/**
+	 * 
+	 */
+	public void praiseWasWritten(long praiseSumDelta, long noVotesDelta) {
+		writtenPraiseSum += praiseSumDelta;
+		writtenNoVotes += noVotesDelta;
 	}
 	
 	/**
@@ -562,5 +603,22 @@ public class Photo extends DataObject {
 		location = newLocation;
 		incWriteCount();
 	}
+
+	/**
+	 *
+	 * @methodtype get
+	 */
+	public Set<String> getPersistedTagSet() {
+		return persistedTagSet;
+	}
+
+	/**
+	 * Records what the tags table holds for this photo; not a change of the photo itself.
+	 * 
+	 * @methodtype set
+	 */
+	public void setPersistedTagSet(Set<String> newPersistedTagSet) {
+		persistedTagSet = newPersistedTagSet;
+	}
 	
 }
@@ -103,8 +103,7 @@ public class PhotoCaseManager extends ObjectManager {
 		try {
 			PreparedStatement stmt1 = getReadingStatement("INSERT INTO cases(id) VALUES(?)");
 			createObject(myCase, stmt1, myCase.getId().asInt());
-			PreparedStatement stmt2 = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt2);
+			updateObject(myCase, "cases");
 			// @FIXME Main.saveGlobals();
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
@@ -118,8 +117,7 @@ public class PhotoCaseManager extends ObjectManager {
 	public void removePhotoCase(PhotoCase myCase) {
 		openPhotoCases.remove(myCase.getId());
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt);
+			updateObject(myCase, "cases");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -146,8 +144,7 @@ public class PhotoCaseManager extends ObjectManager {
 	 */
 	public void savePhotoCases() {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObjects(openPhotoCases.values(), stmt);
+			updateObjects(openPhotoCases.values(), "cases");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The PhotoDerivativeCache creates the photo sizes that are not created on upload, see
+ * PhotoUtil.isCreatedOnUpload, when they are first requested. Concurrent requests for the same
+ * file wait for one creation. The files are kept in the derivatives directory; once it holds more
+ * than the configured number of bytes, the least recently requested files are deleted. Files that are
+ * being served are pinned and not deleted until they are released.
+ */
+public class PhotoDerivativeCache {
+	
+	/**
+	 * 
+	 */
+	protected static final PhotoDerivativeCache instance = new PhotoDerivativeCache();
+	
+	/**
+	 * 
+	 */
+	public static PhotoDerivativeCache getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * How often getFile creates a file that is evicted before it could be pinned
+	 */
+	protected static final int MAX_CREATIONS = 3;
+	
+	/**
+	 * File lengths by file name, least recently requested first; guarded by this
+	 */
+	protected LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	protected long size = 0;
+	protected boolean isLoaded = false;
+	
+	/**
+	 * Pin counts by file name of files being served; guarded by this
+	 */
+	protected Map<String, Integer> pins = new HashMap<String, Integer>();
+	
+	/**
+	 * Creations in progress by file name
+	 */
+	protected ConcurrentMap<String, FutureTask<File>> creations = new ConcurrentHashMap<String, FutureTask<File>>();
+	
+	/**
+	 * Statistics
+	 */
+	protected AtomicLong hitCount = new AtomicLong(0);
+	protected AtomicLong createdCount = new AtomicLong(0);
+	protected AtomicLong sharedCount = new AtomicLong(0);
+	protected AtomicLong failedCount = new AtomicLong(0);
+	protected AtomicLong evictedCount = new AtomicLong(0);
+	
+	/**
+	 * 
+	 */
+	protected PhotoDerivativeCache() {
+		// do nothing
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public File getDir() {
+		return new File(SysConfig.getDerivativesDir().asString());
+	}
+	
+	/**
+	 * Returns the file of the given name, creating it first if needed. The file is pinned, so the caller
+	 * must release it when done with it.
+	 * 
+	 * @return the file, or null if the name is not that of a size created on first request, or the size cannot be created
+	 */
+	public File getFile(String name) {
+		if (!name.endsWith(".jpg") || (name.length() < 6)) {
+			return null;
+		}
+		
+		String idString = name.substring(0, name.length() - 5);
+		char sizeDigit = name.charAt(name.length() - 5);
+		PhotoId id = PhotoId.getIdFromString(idString);
+		if (id.isNullId() || !id.asString().equals(idString) || !Character.isDigit(sizeDigit)) {
+			return null;
+		}
+		
+		PhotoSize size = null;
+		try {
+			size = PhotoSize.getFromInt(sizeDigit - '0');
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+		
+		if (PhotoUtil.isCreatedOnUpload(size)) {
+			return null;
+		}
+		
+		ensureIsLoaded();
+		if (pin(name)) {
+			hitCount.incrementAndGet();
+			return new File(getDir(), name);
+		}
+		
+		for (int i = 0; i < MAX_CREATIONS; i++) {
+			File result = create(id, size, name);
+			if ((result == null) || pin(name)) {
+				return result;
+			}
+		}
+		
+		return null; // evicted again and again right after its creation
+	}
+	
+	/**
+	 * @return whether the file is in the cache
+	 */
+	protected synchronized boolean touch(String name) {
+		return files.get(name) != null;
+	}
+	
+	/**
+	 * Pins the file, if it is in the cache
+	 * 
+	 * @return whether the file is in the cache
+	 */
+	protected synchronized boolean pin(String name) {
+		if (!touch(name)) {
+			return false;
+		}
+		
+		Integer noPins = pins.get(name);
+		pins.put(name, (noPins != null) ? noPins + 1 : 1);
+		return true;
+	}
+	
+	/**
+	 * Releases a file returned by getFile; evicts what eviction had to skip while it was pinned
+	 */
+	public synchronized void release(String name) {
+		Integer noPins = pins.get(name);
+		if (noPins == null) {
+			return;
+		}
+		
+		if (noPins > 1) {
+			pins.put(name, noPins - 1);
+		} else {
+			pins.remove(name);
+			evict();
+		}
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isCacheFile(File file) {
+		return getDir().equals(file.getParentFile());
+	}
+	
+	/**
+	 * Creates the file, or waits for the creation already in progress
+	 */
+	protected File create(final PhotoId id, final PhotoSize size, final String name) {
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			public File call() throws Exception {
+				return doCreate(id, size, name);
+			}
+		});
+		
+		FutureTask<File> creation = creations.putIfAbsent(name, task);
+		if (creation == null) {
+			creation = task;
+			try {
+				task.run();
+			} finally {
+				creations.remove(name, task);
+			}
+		} else {
+			sharedCount.incrementAndGet();
+		}
+		
+		try {
+			return creation.get();
+		} catch (ExecutionException ex) {
+			SysLog.logThrowable(ex.getCause());
+			failedCount.incrementAndGet();
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected File doCreate(PhotoId id, PhotoSize size, String name) throws Exception {
+		File result = new File(getDir(), name);
+		if (touch(name)) { // created since the caller looked
+			return result;
+		}
+		
+		File source = PhotoUtil.getSourceFile(id);
+		if (!source.exists()) {
+			return null;
+		}
+		
+		result.getParentFile().mkdirs();
+		if (!PhotoUtil.createImageFile(source, size, result)) {
+			return null;
+		}
+		
+		createdCount.incrementAndGet();
+		SysLog.logSysInfo("created image file for id: " + id.asString() + " of size: " + size.asString());
+		add(name, result.length());
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void add(String name, long length) {
+		Long oldLength = files.put(name, length);
+		size += length - ((oldLength != null) ? oldLength : 0);
+		evict();
+	}
+	
+	/**
+	 * Deletes the least recently requested files until the cache fits, but keeps the newest and the pinned files
+	 */
+	protected synchronized void evict() {
+		long maxSize = SysConfig.getDerivativeCacheSize();
+		Iterator<Map.Entry<String, Long>> i = files.entrySet().iterator();
+		while ((size > maxSize) && i.hasNext()) {
+			Map.Entry<String, Long> eldest = i.next();
+			if (!i.hasNext()) {
+				break; // the newest
+			} else if (pins.containsKey(eldest.getKey())) {
+				continue;
+			}
+			
+			i.remove();
+			size -= eldest.getValue();
+			new File(getDir(), eldest.getKey()).delete();
+			evictedCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Takes over the files of an earlier run, the most recently modified as the most recently requested
+	 */
+	protected synchronized void ensureIsLoaded() {
+		if (isLoaded) {
+			return;
+		}
+		
+		File[] existing = getDir().listFiles();
+		if (existing != null) {
+			Arrays.sort(existing, new Comparator<File>() {
+				public int compare(File f1, File f2) {
+					return Long.compare(f1.lastModified(), f2.lastModified());
+				}
+			});
+			
+			for (File file : existing) {
+				if (file.getName().endsWith(".jpg")) {
+					files.put(file.getName(), file.length());
+					size += file.length();
+				} else {
+					file.delete(); // left over from an interrupted creation
+				}
+			}
+			evict();
+		}
+		
+		isLoaded = true;
+	}
+	
+	/**
+	 * Forgets the files, but leaves them on disk
+	 */
+	public synchronized void clear() {
+		files.clear();
+		size = 0;
+		isLoaded = false;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		synchronized(this) {
+			result.put("files", (long) files.size());
+			result.put("bytes", size);
+		}
+		result.put("hits", hitCount.get());
+		result.put("created", createdCount.get());
+		result.put("shared", sharedCount.get());
+		result.put("failed", failedCount.get());
+		result.put("evicted", evictedCount.get());
+		return result;
+	}
+	
+}
@@ -20,7 +20,13 @@
 
 package org.wahlzeit.model;
 
+import java.sql.SQLException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wahlzeit.services.IdBlockAllocator;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.SysLog;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -32,7 +38,17 @@ public class PhotoId {
 	/**
 	 * 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static volatile int currentId = 0;
+	
+	/**
+	 * Reserves blocks of ids in the database; if null, ids are counted up locally
+	 */
+	protected static IdBlockAllocator idAllocator = null;
+	
+	/**
+	 * The highest id reserved by other nodes is read from the database no earlier than this
+	 */
+	protected static final AtomicLong nextIdRefreshTime = new AtomicLong(0);
 	
 	/**
 	 * 
@@ -47,7 +63,7 @@ public class PhotoId {
 	/**
 	 * 
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static volatile PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
 	
 	/**
 	 * What a hack :-)
@@ -78,28 +94,90 @@ public class PhotoId {
 	/**
 	 * 
 	 */
+	public static synchronized void setIdAllocator(IdBlockAllocator newIdAllocator) {
+		idAllocator = newIdAllocator;
+		nextIdRefreshTime.set(0);
+	}
+	
+	/**
+	 * currentId follows the highest id reserved by any node, so that their photos' ids are valid here too.
+	 */
 	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
+		int result = currentId + 1;
+		int highestId = result;
+		if (idAllocator != null) {
+			result = idAllocator.getNextId();
+			highestId = Math.max(result, idAllocator.getHighestReservedId());
 		}
-		return currentId;
+		
+		ensureCurrentIdIsAtLeast(highestId);
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static synchronized void ensureCurrentIdIsAtLeast(int id) {
+		if (id > currentId) {
+			if (id >= ids.length) {
+				PhotoId[] nids = new PhotoId[id + BUFFER_SIZE_INCREMENT];
+				System.arraycopy(ids, 0, nids, 0, ids.length);
+				ids = nids;
+			}
+			currentId = id;
+		}
+	}
+	
+	/**
+	 * Other nodes hand out ids beyond currentId; asks the database whether id is one of them, but at most
+	 * once per DB_ID_REFRESH_INTERVAL, so that made-up ids cannot keep the database busy. Until then, or
+	 * while another thread asks, ids beyond currentId are answered as misses.
+	 * 
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isReservedElsewhere(int id) {
+		IdBlockAllocator allocator = idAllocator;
+		if (allocator == null) {
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		long refreshTime = nextIdRefreshTime.get();
+		if ((now < refreshTime) || !nextIdRefreshTime.compareAndSet(refreshTime, now + SysConfig.getDbIdRefreshInterval())) {
+			return false;
+		}
+		
+		try {
+			ensureCurrentIdIsAtLeast(allocator.readHighestReservedId());
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		return id <= currentId;
+	}
+
+	/**
+	 * For ids read from the database, which are valid even if another node handed them out after the
+	 * last refresh of currentId.
+	 */
+	public static PhotoId getIdFromStoredInt(int id) {
+		ensureCurrentIdIsAtLeast(id);
+		return getIdFromInt(id);
 	}
 
 	/**
 	 * 
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if ((id < 0) || ((id > currentId) && !isReservedElsewhere(id))) {
 			return NULL_ID;
 		}
 		
 		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
 		PhotoId result = ids[id];
 		if (result == null) {
-			synchronized(ids) {
+			synchronized(PhotoId.class) {
 				result = ids[id];
 				if (result == null) {
 					result = new PhotoId(id);
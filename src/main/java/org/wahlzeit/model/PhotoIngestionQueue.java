@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The PhotoIngestionQueue creates the image files of uploaded photos in the background, so the
+ * upload request only stores the original file. Photos are processing until their files exist.
+ * Each owner has a queue of its own, and the workers take from the owners in turn, so one user
+ * uploading many photos does not hold up the others. Uploads beyond the configured size of the
+ * queue, all together or per owner, are rejected rather than queued.
+ */
+public class PhotoIngestionQueue {
+	
+	/**
+	 * 
+	 */
+	protected static final PhotoIngestionQueue instance = new PhotoIngestionQueue();
+	
+	/**
+	 * 
+	 */
+	public static PhotoIngestionQueue getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Moves the uploaded file to where the original file of the photo is kept
+	 */
+	public static File storeSourceFile(PhotoId id, File upload) throws IOException {
+		File result = PhotoUtil.getSourceFile(id);
+		result.getParentFile().mkdirs();
+		Files.move(upload.toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return result;
+	}
+	
+	/**
+	 * A photo waiting for its image files
+	 */
+	protected static class Job {
+		
+		protected final Photo photo;
+		protected final File source;
+		
+		protected Job(Photo myPhoto, File mySource) {
+			photo = myPhoto;
+			source = mySource;
+		}
+		
+	}
+	
+	/**
+	 * Waiting jobs by owner id, and the owners in the order they are served; guarded by this
+	 */
+	protected Map<Integer, LinkedList<Job>> waitingJobs = new HashMap<Integer, LinkedList<Job>>();
+	protected LinkedList<Integer> waitingOwnerIds = new LinkedList<Integer>();
+	protected int size = 0;
+	
+	/**
+	 * Slots reserved for uploads that are still being stored, by owner id; guarded by this
+	 */
+	protected Map<Integer, Integer> reservedSlots = new HashMap<Integer, Integer>();
+	protected int noReservedSlots = 0;
+	
+	/**
+	 * Photos the workers are creating the image files of; guarded by this
+	 */
+	protected Set<PhotoId> processingIds = new HashSet<PhotoId>();
+
+	/**
+	 * 
+	 */
+	protected List<Thread> workers = new ArrayList<Thread>();
+	protected boolean isToStop = false;
+	
+	/**
+	 * Statistics
+	 */
+	protected AtomicLong queuedCount = new AtomicLong(0);
+	protected AtomicLong rejectedCount = new AtomicLong(0);
+	protected AtomicLong processedCount = new AtomicLong(0);
+	protected AtomicLong failedCount = new AtomicLong(0);
+	protected AtomicLong totalProcessingTime = new AtomicLong(0);
+	
+	/**
+	 * 
+	 */
+	protected PhotoIngestionQueue() {
+		// do nothing
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean hasCapacity(int ownerId) {
+		if (size + noReservedSlots >= SysConfig.getIngestionQueueSize()) {
+			return false;
+		}
+		
+		LinkedList<Job> jobs = waitingJobs.get(ownerId);
+		int noJobs = ((jobs != null) ? jobs.size() : 0) + getNoReservedSlots(ownerId);
+		return noJobs < SysConfig.getIngestionUserQueueSize();
+	}
+	
+	/**
+	 * Queues the photo unless the queue is full; then the caller must dispose of the photo.
+	 * 
+	 * @return whether the photo was queued
+	 */
+	public synchronized boolean add(Photo photo, File source) {
+		if (!reserve(photo.getOwnerId())) {
+			return false;
+		}
+		
+		addReserved(photo, source);
+		return true;
+	}
+	
+	/**
+	 * Reserves a slot for a photo of the owner before it is stored, so that a stored photo is never rejected.
+	 * The caller must either add the photo with addReserved or release the slot with cancel.
+	 * 
+	 * @return whether a slot was reserved
+	 */
+	public synchronized boolean reserve(int ownerId) {
+		if (!hasCapacity(ownerId)) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		
+		reservedSlots.put(ownerId, getNoReservedSlots(ownerId) + 1);
+		noReservedSlots++;
+		return true;
+	}
+	
+	/**
+	 * Queues the photo in a slot reserved for its owner
+	 */
+	public synchronized void addReserved(Photo photo, File source) {
+		int ownerId = photo.getOwnerId();
+		cancel(ownerId);
+		doAdd(ownerId, new Job(photo, source));
+	}
+	
+	/**
+	 * Releases a slot reserved for the owner
+	 */
+	public synchronized void cancel(int ownerId) {
+		int noSlots = getNoReservedSlots(ownerId);
+		if (noSlots == 0) {
+			return;
+		}
+		
+		if (noSlots == 1) {
+			reservedSlots.remove(ownerId);
+		} else {
+			reservedSlots.put(ownerId, noSlots - 1);
+		}
+		noReservedSlots--;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	protected synchronized int getNoReservedSlots(int ownerId) {
+		Integer result = reservedSlots.get(ownerId);
+		return (result != null) ? result : 0;
+	}
+	
+	/**
+	 * Queues photos whose processing was cut short, e.g. by a restart, regardless of the size of the queue
+	 */
+	public void resume(Collection<Photo> photos) {
+		for (Photo photo : photos) {
+			synchronized(this) {
+				doAdd(photo.getOwnerId(), new Job(photo, PhotoUtil.getSourceFile(photo.getId())));
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void doAdd(int ownerId, Job job) {
+		LinkedList<Job> jobs = waitingJobs.get(ownerId);
+		if (jobs == null) {
+			jobs = new LinkedList<Job>();
+			waitingJobs.put(ownerId, jobs);
+			waitingOwnerIds.addLast(ownerId);
+		}
+		
+		jobs.addLast(job);
+		size++;
+		queuedCount.incrementAndGet();
+		notify();
+	}
+	
+	/**
+	 * Takes the next job of the owner whose turn it is; blocks while there is none.
+	 * 
+	 * @return the job, or null if the queue is stopping
+	 */
+	protected synchronized Job take() throws InterruptedException {
+		while ((size == 0) && !isToStop) {
+			wait();
+		}
+		
+		if (isToStop) {
+			return null; // still processing in the database, so resumed after the restart
+		}
+		
+		Integer ownerId = waitingOwnerIds.removeFirst();
+		LinkedList<Job> jobs = waitingJobs.get(ownerId);
+		Job result = jobs.removeFirst();
+		if (jobs.isEmpty()) {
+			waitingJobs.remove(ownerId);
+		} else {
+			waitingOwnerIds.addLast(ownerId);
+		}
+		
+		size--;
+		processingIds.add(result.photo.getId());
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void done(Job job) {
+		processingIds.remove(job.photo.getId());
+	}
+	
+	/**
+	 * Starts the configured number of workers
+	 */
+	public synchronized void start() {
+		isToStop = false;
+		for (int i = workers.size(); i < SysConfig.getIngestionThreads(); i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					runWorker();
+				}
+			}, "photo-ingestion-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+	
+	/**
+	 * Lets the workers finish their current photo, and waits for them
+	 */
+	public void stop() {
+		List<Thread> stopping = null;
+		synchronized(this) {
+			isToStop = true;
+			notifyAll();
+			stopping = new ArrayList<Thread>(workers);
+			workers.clear();
+		}
+		
+		for (Thread worker : stopping) {
+			try {
+				worker.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void runWorker() {
+		Session session = new SysSession(Thread.currentThread().getName());
+		SessionManager.setThreadLocalSession(session);
+		try {
+			for (Job job = take(); job != null; job = take()) {
+				try {
+					process(job);
+				} catch (Throwable t) {
+					SysLog.logThrowable(t); // keep the worker alive; the photo is resumed after a restart
+				} finally {
+					done(job);
+					session.returnDatabaseConnection();
+				}
+			}
+		} catch (InterruptedException ex) {
+			// stop
+		} finally {
+			SessionManager.dropThreadLocalSession();
+		}
+	}
+	
+	/**
+	 * Creates the image files and makes the photo visible; a photo without image files is deleted
+	 */
+	protected void process(Job job) {
+		Photo photo = job.photo;
+		long startTime = System.currentTimeMillis();
+		try {
+			Dimension size = PhotoUtil.createImageFiles(job.source, photo.getId());
+			photo.setWidthAndHeight(size.width, size.height);
+			photo.setStatus(photo.getStatus().asProcessing(false));
+			processedCount.incrementAndGet();
+		} catch (Throwable t) { // e.g. an OutOfMemoryError on a huge image
+			SysLog.logSysInfo("could not create image files of photo: " + photo.getId().asString());
+			SysLog.logThrowable(t);
+			photo.setStatus(photo.getStatus().asProcessing(false).asDeleted(true));
+			failedCount.incrementAndGet();
+		}
+		
+		totalProcessingTime.addAndGet(System.currentTimeMillis() - startTime);
+		PhotoManager.getInstance().savePhoto(photo);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isBeingProcessed(PhotoId id) {
+		return processingIds.contains(id);
+	}
+	
+	/**
+	 * Counts the photos that will be processed before the given one if no other uploads come in;
+	 * the owners take turns, so these are at most as many photos of each other owner as are ahead in its own queue.
+	 * 
+	 * @return the number of photos ahead, or -1 if the photo is not waiting
+	 */
+	public synchronized int getNoPhotosAhead(PhotoId id) {
+		int noOwnersAhead = 0;
+		for (Integer ownerId : waitingOwnerIds) {
+			int position = 0;
+			for (Job job : waitingJobs.get(ownerId)) {
+				if (job.photo.getId().equals(id)) {
+					return countPhotosAhead(ownerId, position, noOwnersAhead);
+				}
+				position++;
+			}
+			noOwnersAhead++;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * 
+	 */
+	protected int countPhotosAhead(Integer ownerId, int position, int noOwnersAhead) {
+		int result = position;
+		int i = 0;
+		for (Integer otherOwnerId : waitingOwnerIds) {
+			if (!otherOwnerId.equals(ownerId)) {
+				int turns = (i < noOwnersAhead) ? (position + 1) : position;
+				result += Math.min(waitingJobs.get(otherOwnerId).size(), turns);
+			}
+			i++;
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getQueueDepth() {
+		return size;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getAverageProcessingTime() {
+		long count = processedCount.get() + failedCount.get();
+		return (count == 0) ? 0 : totalProcessingTime.get() / count;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("depth", (long) getQueueDepth());
+		synchronized(this) {
+			result.put("processing", (long) processingIds.size());
+		}
+		result.put("queued", queuedCount.get());
+		result.put("rejected", rejectedCount.get());
+		result.put("processed", processedCount.get());
+		result.put("failed", failedCount.get());
+		result.put("avgProcessingMillis", getAverageProcessingTime());
+		return result;
+	}
+	
+}
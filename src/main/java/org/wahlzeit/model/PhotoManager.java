@@ -23,8 +23,9 @@ package org.wahlzeit.model;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.wahlzeit.main.*;
 import org.wahlzeit.services.*;
 
 /**
@@ -48,14 +49,42 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * In-memory cache for photos
+	 * Photo ids read at a time for an unfiltered PhotoFilter
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected static final int UNFILTERED_BATCH_SIZE = 100;
+	
+	/**
+	 * 
+	 */
+	protected static Random randomNumber = new Random(System.currentTimeMillis());
+	
+	/**
+	 * In-memory cache for photos; photos with unwritten changes or praise are pinned
+	 */
+	protected ObjectCache<PhotoId, Photo> photoCache = null;
+	
+	/**
+	 * Photo ids that were looked up but do not exist; the filter is null until loaded
+	 */
+	protected NegativeCache<PhotoId> missingPhotoIds = null;
+	protected volatile BloomFilter photoIdFilter = null;
+	protected LongAdder noFilteredLookups = new LongAdder();
+	
+	/**
+	 * Whether the cache held every photo after loadAllPhotos
+	 */
+	protected volatile boolean hasLoadedAllPhotos = false;
 	
 	/**
 	 * 
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
+	
+	/**
+	 * Photos with praise that has not been written yet
+	 */
+	protected Set<Photo> praisedPhotos = Collections.newSetFromMap(new ConcurrentHashMap<Photo, Boolean>());
+	protected Object praiseLock = new Object();
 
 	/**
 	 *
@@ -90,6 +119,15 @@ public class PhotoManager extends ObjectManager {
 	 */
 	public PhotoManager() {
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		photoCache = new ObjectCache<PhotoId, Photo>("photos", SysConfig.getPhotoCacheSize()) {
+			protected boolean isPinned(Photo photo) {
+				return photo.isDirty() || (photo.getUnwrittenNoVotes() != 0);
+			}
+			protected void evicted(PhotoId id, Photo photo) {
+				hasLoadedAllPhotos = false;
+			}
+		};
+		missingPhotoIds = new NegativeCache<PhotoId>(SysConfig.getNegativeCacheTtl(), SysConfig.getNegativeCacheSize());
 	}
 	
 	/**
@@ -97,7 +135,7 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperties primitive
 	 */
 	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+		return photoCache.contains(id);
 	}
 	
 	/**
@@ -110,21 +148,63 @@ public class PhotoManager extends ObjectManager {
 
 		Photo result = doGetPhotoFromId(id);
 		
-		if (result == null) {
+		if ((result == null) && !isMissingPhoto(id)) {
 			try {
 				PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE id = ?");
 				result = (Photo) readObject(stmt, id.asInt());
+				if (result == null) {
+					missingPhotoIds.addMissing(id);
+				}
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
 			}
 			if (result != null) {
-				doAddPhoto(result);
+				result = doAddPhotoIfAbsent(result);
 			}
 		}
 		
 		return result;
 	}
 		
+	/**
+	 * Answers definite misses from memory, without asking the database
+	 * 
+	 * @methodtype boolean-query
+	 */
+	protected boolean isMissingPhoto(PhotoId id) {
+		BloomFilter filter = photoIdFilter;
+		if ((filter != null) && !filter.mightContain(id.asInt())) {
+			noFilteredLookups.increment();
+			return true;
+		}
+		
+		return missingPhotoIds.isMissing(id);
+	}
+	
+	/**
+	 * Loads the ids of all persisted photos into a Bloom filter. Executed on startup.
+	 */
+	public void loadPhotoIdFilter() {
+		try {
+			photoIdFilter = readBloomFilter("photos", "id");
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getMissStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		BloomFilter filter = photoIdFilter;
+		result.put("filterKeys", (filter != null) ? filter.getNoKeys() : 0L);
+		result.put("filteredLookups", noFilteredLookups.sum());
+		result.put("negativeHits", missingPhotoIds.getNoHits());
+		result.put("negativeSize", (long) missingPhotoIds.getSize());
+		return result;
+	}
+	
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
@@ -137,7 +217,9 @@ public class PhotoManager extends ObjectManager {
 	 * 
 	 */
 	protected Photo createObject(ResultSet rset) throws SQLException {
-		return PhotoFactory.getInstance().createPhoto(rset);
+		Photo result = PhotoFactory.getInstance().createPhoto(rset);
+		result.setPersistedTagSet(collectTags(result)); // tags table matches photos table
+		return result;
 	}
 	
 	/**
@@ -149,16 +231,28 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
+		photoWasAdded(id);
 
 		try {
 			PreparedStatement stmt = getReadingStatement("INSERT INTO photos(id) VALUES(?)");
 			createObject(photo, stmt, id.asInt());
-			ServiceMain.getInstance().saveGlobals();
+			photo.setPersistedTagSet(new HashSet<String>());
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 	}
 	
+	/**
+	 * The lookup in assertIsNewPhoto has just recorded the id as missing
+	 */
+	protected void photoWasAdded(PhotoId id) {
+		BloomFilter filter = photoIdFilter;
+		if (filter != null) {
+			filter.add(id.asInt());
+		}
+		missingPhotoIds.remove(id);
+	}
+	
 	/**
 	 * @methodtype command
 	 * @methodproperties primitive
@@ -166,6 +260,17 @@ public class PhotoManager extends ObjectManager {
 	protected void doAddPhoto(Photo myPhoto) {
 		photoCache.put(myPhoto.getId(), myPhoto);
 	}
+	
+	/**
+	 * Another thread may have read the same photo in the meantime; its copy wins.
+	 * 
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doAddPhotoIfAbsent(Photo myPhoto) {
+		Photo result = photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+		return (result != null) ? result : myPhoto;
+	}
 
 	/**
 	 * @methodtype command
@@ -189,13 +294,157 @@ public class PhotoManager extends ObjectManager {
 		SysLog.logSysInfo("loaded all photos");
 	}
 	
+	/**
+	 * @methodtype command
+	 *
+	 * Loads persisted photos into the cache, streaming them in parallel range scans, until the cache is full.
+	 * Executed on startup.
+	 */
+	public void loadAllPhotos() {
+		hasLoadedAllPhotos = true; // until a photo does not fit
+		try {
+			loadObjectsInRanges("photos", 0, PhotoId.getCurrentIdAsInt());
+		} catch (SQLException sex) {
+			hasLoadedAllPhotos = false;
+			SysLog.logThrowable(sex);
+		}
+		
+		if (!hasLoadedAllPhotos) {
+			SysLog.logSysInfo("photo cache is full, not all photos were loaded");
+		}
+	}
+	
+	/**
+	 * Called from loader threads; does not evict photos to make room.
+	 */
+	protected void loadObject(Persistent obj) {
+		Photo photo = (Photo) obj;
+		if (photoCache.isFull()) {
+			hasLoadedAllPhotos = false;
+		} else {
+			photoCache.putIfAbsent(photo.getId(), photo);
+		}
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasLoadedAllPhotos() {
+		return hasLoadedAllPhotos;
+	}
+	
+	/**
+	 * Groups the cached photos by owner id, in one pass over the cache.
+	 */
+	public Map<Integer, Set<Photo>> getCachedPhotosByOwnerIds() {
+		Map<Integer, Set<Photo>> result = new HashMap<Integer, Set<Photo>>();
+		for (Photo photo : photoCache.getValues()) {
+			Set<Photo> photos = result.get(photo.getOwnerId());
+			if (photos == null) {
+				photos = new HashSet<Photo>();
+				result.put(photo.getOwnerId(), photos);
+			}
+			photos.add(photo);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public ObjectCache<PhotoId, Photo> getPhotoCache() {
+		return photoCache;
+	}
+	
+	/**
+	 * The praise is written later, by flushPraise.
+	 */
+	public void praisePhoto(Photo photo, int value) {
+		photo.addToPraise(value);
+		praisedPhotos.add(photo);
+	}
+	
+	/**
+	 * Writes the praise added since the last flush, as one increment per photo however often it was praised.
+	 * Returns the number of photos written.
+	 */
+	public int flushPraise() {
+		synchronized(praiseLock) {
+			List<Photo> photos = new ArrayList<Photo>();
+			for (Iterator<Photo> i = praisedPhotos.iterator(); i.hasNext(); ) {
+				photos.add(i.next());
+				i.remove(); // praise arriving from now on re-adds the photo
+			}
+			
+			if (photos.isEmpty()) {
+				return 0;
+			}
+			
+			long[] praiseSumDeltas = new long[photos.size()];
+			long[] noVotesDeltas = new long[photos.size()];
+			for (int i = 0; i < photos.size(); i++) {
+				praiseSumDeltas[i] = photos.get(i).getUnwrittenPraiseSum();
+				noVotesDeltas[i] = photos.get(i).getUnwrittenNoVotes();
+			}
+			
+			try {
+				writePraise(photos, praiseSumDeltas, noVotesDeltas);
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				praisedPhotos.addAll(photos);
+				return 0;
+			}
+			
+			for (int i = 0; i < photos.size(); i++) {
+				photos.get(i).praiseWasWritten(praiseSumDeltas[i], noVotesDeltas[i]);
+			}
+			
+			return photos.size();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writePraise(List<Photo> photos, long[] praiseSumDeltas, long[] noVotesDeltas) throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean isOwnTransaction = conn.getAutoCommit();
+		if (isOwnTransaction) {
+			conn.setAutoCommit(false);
+		}
+		
+		try {
+			PreparedStatement stmt = getReadingStatement("UPDATE photos SET praise_sum = praise_sum + ?, no_votes = no_votes + ? WHERE id = ?");
+			for (int i = 0; i < photos.size(); i++) {
+				stmt.setLong(1, praiseSumDeltas[i]);
+				stmt.setLong(2, noVotesDeltas[i]);
+				stmt.setInt(3, photos.get(i).getId().asInt());
+				stmt.addBatch();
+			}
+			executeBatch(stmt, photos.size());
+			
+			if (isOwnTransaction) {
+				conn.commit();
+			}
+		} catch (SQLException ex) {
+			if (isOwnTransaction) {
+				conn.rollback();
+			}
+			throw ex;
+		} finally {
+			if (isOwnTransaction) {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	public void savePhoto(Photo photo) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObject(photo, stmt);
+			saveObject(photo, "photos");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -206,8 +455,7 @@ public class PhotoManager extends ObjectManager {
 	 */
 	public void savePhotos() {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObjects(photoCache.values(), stmt);
+			updateObjects(photoCache.getValues(), "photos");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -220,21 +468,78 @@ public class PhotoManager extends ObjectManager {
 	 * the Datastore, it is simply not persisted.
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
-		Set<Photo> result = new HashSet<Photo>();
+		Set<Photo> readPhotos = new HashSet<Photo>();
 		try {
 			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE owner_name = ?");
-			readObjects(result, stmt, ownerName);
+			readObjects(readPhotos, stmt, ownerName);
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		Set<Photo> result = new HashSet<Photo>();
+		for (Iterator<Photo> i = readPhotos.iterator(); i.hasNext(); ) {
+			result.add(doAddPhotoIfAbsent(i.next()));
+		}
+
+		return result;
+	}
+	
+	/**
+	 * Reads the photos whose image files were not created yet, e.g. because Wahlzeit was stopped while they were processing
+	 */
+	public Set<Photo> findProcessingPhotos() {
+		Set<Photo> readPhotos = new HashSet<Photo>();
+		try {
+			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE status >= " + PhotoStatus.PROCESSING.asInt());
+			readObjects(readPhotos, stmt);
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		Set<Photo> result = new HashSet<Photo>();
+		for (Photo photo : readPhotos) {
+			result.add(doAddPhotoIfAbsent(photo));
 		}
 
 		return result;
 	}
 	
+	/**
+	 * Reads the photos of all given owners in one query; photos already in the cache are taken from there.
+	 * Returns a map from owner id to that owner's photos; owners without photos are not contained.
+	 */
+	public Map<Integer, Set<Photo>> findPhotosByOwnerIds(Collection<Integer> ownerIds) {
+		Map<Integer, Set<Photo>> result = new HashMap<Integer, Set<Photo>>();
+		if (ownerIds.isEmpty()) {
+			return result;
+		}
+		
+		try {
+			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE owner_id = ANY(?)");
+			stmt.setArray(1, stmt.getConnection().createArrayOf("integer", ownerIds.toArray()));
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			while (rset.next()) {
+				Photo photo = doGetPhotoFromId(PhotoId.getIdFromStoredInt(rset.getInt("id")));
+				if (photo == null) {
+					photo = doAddPhotoIfAbsent(createObject(rset));
+				}
+				
+				Set<Photo> photos = result.get(photo.getOwnerId());
+				if (photos == null) {
+					photos = new HashSet<Photo>();
+					result.put(photo.getOwnerId(), photos);
+				}
+				photos.add(photo);
+			}
+			rset.close();
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * 
 	 */
@@ -268,37 +573,50 @@ public class PhotoManager extends ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * The database computes the intersection of the filter conditions and leaves out the processed
+	 * and the hidden photos, so only the ids of displayable matching photos are transferred. Without
+	 * conditions, a batch of at most twice UNFILTERED_BATCH_SIZE ids is read from a random position,
+	 * so that the cost does not grow with the number of photos.
 	 */
 	protected java.util.List<PhotoId> getFilteredPhotoIds(PhotoFilter filter) {
 		java.util.List<PhotoId> result = new LinkedList<PhotoId>();
 
 		try {
-			java.util.List<String> filterConditions = filter.getFilterConditions();
-
+			java.util.List<String> filterConditions = new ArrayList<String>(new LinkedHashSet<String>(filter.getFilterConditions()));
 			int noFilterConditions = filterConditions.size();
-			PreparedStatement stmt = getUpdatingStatementFromConditions(noFilterConditions);
+
+			PreparedStatement stmt = getFilteringStatement(noFilterConditions);
+			int pos = 1;
 			for (int i = 0; i < noFilterConditions; i++) {
-				stmt.setString(i + 1, filterConditions.get(i));
+				stmt.setString(pos++, filterConditions.get(i));
+			}
+			
+			java.util.List<PhotoId> processedIds = filter.getProcessedPhotoIds();
+			Integer[] processed = new Integer[processedIds.size()];
+			int i = 0;
+			for (PhotoId processedId : processedIds) {
+				processed[i++] = processedId.asInt();
+			}
+			Array processedArray = stmt.getConnection().createArrayOf("integer", processed);
+			
+			if (noFilterConditions > 0) {
+				stmt.setArray(pos++, processedArray);
+				stmt.setInt(pos++, noFilterConditions);
+			} else {
+				int startId = 1 + randomNumber.nextInt(Math.max(1, PhotoId.getCurrentIdAsInt()));
+				for (int j = 0; j < 2; j++) { // from startId on, then from the first id on
+					stmt.setInt(pos++, startId);
+					stmt.setArray(pos++, processedArray);
+					stmt.setInt(pos++, UNFILTERED_BATCH_SIZE);
+				}
 			}
 			
 			SysLog.logQuery(stmt);
 			ResultSet rset = stmt.executeQuery();
-
-			if (noFilterConditions == 0) {
-				noFilterConditions++;
-			}
-
-			int[] ids = new int[PhotoId.getCurrentIdAsInt() + 1];
 			while(rset.next()) {
-				int id = rset.getInt("photo_id");
-				if (++ids[id] == noFilterConditions) {
-					PhotoId photoId = PhotoId.getIdFromInt(id);
-					if (!filter.isProcessedPhotoId(photoId)) {
-						result.add(photoId);
-					}
-				}
+				result.add(PhotoId.getIdFromStoredInt(rset.getInt(1)));
 			}
+			rset.close();
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -307,44 +625,114 @@ public class PhotoManager extends ObjectManager {
 	}
 		
 	/**
-	 * 
+	 * Without conditions, the tags table is not consulted, and the primary key index yields the batch
 	 */
-	protected PreparedStatement getUpdatingStatementFromConditions(int no) throws SQLException {
-		String query = "SELECT * FROM tags";
-		if (no > 0) {
-			query += " WHERE";
-		}
-
-		for (int i = 0; i < no; i++) {
-			if (i > 0) {
-				query += " OR";
+	protected PreparedStatement getFilteringStatement(int no) throws SQLException {
+		String visible = String.valueOf(PhotoStatus.VISIBLE.asInt());
+		String query = null;
+		if (no == 0) {
+			query = "(SELECT id FROM photos WHERE id >= ? AND status = " + visible + " AND id <> ALL(?) ORDER BY id LIMIT ?)"
+				+ " UNION ALL (SELECT id FROM photos WHERE id < ? AND status = " + visible + " AND id <> ALL(?) ORDER BY id LIMIT ?)";
+		} else {
+			query = "SELECT t.photo_id FROM tags t JOIN photos p ON p.id = t.photo_id WHERE t.tag IN (";
+			for (int i = 0; i < no; i++) {
+				query += (i > 0) ? ", ?" : "?";
 			}
-			query += " (tag = ?)";
+			query += ") AND p.status = " + visible + " AND t.photo_id <> ALL(?) GROUP BY t.photo_id HAVING count(DISTINCT t.tag) = ?";
 		}
 		
-		return getUpdatingStatement(query);
+		return getReadingStatement(query);
 	}
 	
 	/**
 	 * 
 	 */
 	protected void updateDependents(Persistent obj) throws SQLException {
-		Photo photo = (Photo) obj;
-		
-		PreparedStatement stmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ?");
-		deleteObject(obj, stmt);
+		List<Persistent> objs = new ArrayList<Persistent>(1);
+		objs.add(obj);
+		updateAllDependents(objs);
+	}
+	
+	/**
+	 * Brings the tags table in line with the photos' current tags. Only rows that differ from
+	 * the last written tag set are touched; photos whose tag set did not change are skipped.
+	 * If the last written tag set is unknown, all of the photo's rows are replaced.
+	 */
+	protected void updateAllDependents(List<Persistent> objs) throws SQLException {
+		PreparedStatement deleteAllStmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ?");
+		PreparedStatement deleteStmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ? AND tag = ?");
+		PreparedStatement insertStmt = getReadingStatement("INSERT INTO tags VALUES(?, ?)");
+		int noDeleteAlls = 0;
+		int noDeletes = 0;
+		int noInserts = 0;
+
+		for (Persistent obj : objs) {
+			Photo photo = (Photo) obj;
+			int id = photo.getId().asInt();
+			Set<String> tags = collectTags(photo);
+			Set<String> persistedTags = photo.getPersistedTagSet();
+			if (tags.equals(persistedTags)) {
+				continue;
+			}
+			
+			if (persistedTags == null) {
+				deleteAllStmt.setInt(1, id);
+				deleteAllStmt.addBatch();
+				noDeleteAlls++;
+				persistedTags = Collections.emptySet();
+			}
+			
+			for (String tag : persistedTags) {
+				if (!tags.contains(tag)) {
+					deleteStmt.setInt(1, id);
+					deleteStmt.setString(2, tag);
+					deleteStmt.addBatch();
+					noDeletes++;
+				}
+			}
+			
+			for (String tag : tags) {
+				if (!persistedTags.contains(tag)) {
+					insertStmt.setString(1, tag);
+					insertStmt.setInt(2, id);
+					insertStmt.addBatch();
+					noInserts++;
+				}
+			}
+			
+			photo.setPersistedTagSet(tags);
+		}
 		
-		stmt = getReadingStatement("INSERT INTO tags VALUES(?, ?)");
-		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			String tag = i.next();
-			stmt.setString(1, tag);
-			stmt.setInt(2, photo.getId().asInt());
-			SysLog.logQuery(stmt);
-			stmt.executeUpdate();					
+		executeBatch(deleteAllStmt, noDeleteAlls);
+		executeBatch(deleteStmt, noDeletes);
+		executeBatch(insertStmt, noInserts);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void executeBatch(PreparedStatement stmt, int noStatements) throws SQLException {
+		if (noStatements > 0) {
+			SysLog.logQuery(stmt.toString() + " [batch of " + noStatements + "]");
+			stmt.executeBatch();
 		}
 	}
+	
+	/**
+	 * The tags table may not have received what updateAllDependents assumed; start over next time.
+	 */
+	protected void rollbackDependents(Persistent obj) {
+		((Photo) obj).setPersistedTagSet(null);
+	}
+	
+	/**
+	 * 
+	 */
+	protected Set<String> collectTags(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		photoTagCollector.collect(result, photo);
+		return result;
+	}
 		
 	/**
 	 * 
@@ -356,6 +744,17 @@ public class PhotoManager extends ObjectManager {
 		return result;
 	}
 	
+	/**
+	 * Creates a photo without image files; it is processing until the PhotoIngestionQueue has created them
+	 */
+	public Photo createProcessingPhoto() {
+		PhotoId id = PhotoId.getNextId();
+		Photo result = PhotoFactory.getInstance().createPhoto(id);
+		result.setStatus(result.getStatus().asProcessing(true));
+		addPhoto(result);
+		return result;
+	}
+	
 	/**
 	 * @methodtype assertion
 	 */
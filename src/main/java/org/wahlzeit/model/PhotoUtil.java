@@ -21,9 +21,15 @@
 package org.wahlzeit.model;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.awt.*;
 import java.awt.image.*;
 import javax.imageio.*;
+import javax.imageio.stream.*;
 
 import org.wahlzeit.services.*;
 
@@ -39,62 +45,345 @@ public class PhotoUtil {
 	public static Photo createPhoto(File source, PhotoId id) throws Exception {
 		Photo result = PhotoFactory.getInstance().createPhoto(id);
 		
-		Image sourceImage = createImageFiles(source, id);
+		Dimension sourceSize = createImageFiles(source, id);
+		if (SysConfig.isLazyPhotoSizes()) {
+			keepSourceFile(source, id); // the other sizes are created from it later
+		}
 
-		int sourceWidth = sourceImage.getWidth(null);
-		int sourceHeight = sourceImage.getHeight(null);
-		result.setWidthAndHeight(sourceWidth, sourceHeight);
+		result.setWidthAndHeight(sourceSize.width, sourceSize.height);
 
 		return result;
 	}
 	
+	/**
+	 * Where the original file of a photo is kept
+	 */
+	public static File getSourceFile(PhotoId id) {
+		return new File(SysConfig.getBackupDir().asString(), id.asString());
+	}
+	
 	/**
 	 * 
 	 */
-	public static Image createImageFiles(File source, PhotoId id) throws Exception {
-		Image sourceImage = ImageIO.read(source);
-		assertIsValidImage(sourceImage);
-
-		int sourceWidth = sourceImage.getWidth(null);
-		int sourceHeight = sourceImage.getHeight(null);
-		assertHasValidSize(sourceWidth, sourceHeight);
+	protected static void keepSourceFile(File source, PhotoId id) throws IOException {
+		File target = getSourceFile(id);
+		if (!target.equals(source)) {
+			target.getParentFile().mkdirs();
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * With lazy photo sizes, the thumbs and the medium size of the photo pages are created on upload only
+	 * 
+	 * @methodtype boolean-query
+	 */
+	public static boolean isCreatedOnUpload(PhotoSize size) {
+		return !SysConfig.isLazyPhotoSizes() || (size == PhotoSize.THUMB) || (size == PhotoSize.MEDIUM);
+	}
+	
+	/**
+	 * Writes the image files in parallel; when all workers are busy, the caller writes the file itself
+	 */
+	protected static final ExecutorService imageWriters = createImageWriters();
+	
+	/**
+	 * 
+	 */
+	protected static ExecutorService createImageWriters() {
+		int noThreads = Math.min(Runtime.getRuntime().availableProcessors(), PhotoSize.values().length);
+		ThreadFactory threadFactory = new ThreadFactory() {
+			protected final AtomicInteger lastId = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "image-writer-" + lastId.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		};
 		
+		BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(2 * noThreads);
+		ThreadPoolExecutor result = new ThreadPoolExecutor(noThreads, noThreads, 60, TimeUnit.SECONDS, queue, threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+	
+	/**
+	 * Scales from the largest size down, each size from the next larger one, and writes each size as soon as it is scaled
+	 * (skipping the sizes created on first request only)
+	 * 
+	 * @return the size of the source image
+	 */
+	public static Dimension createImageFiles(File source, PhotoId id) throws Exception {
+		Dimension sourceSize = readImageSize(source);
+		int sourceWidth = sourceSize.width;
+		int sourceHeight = sourceSize.height;
+		
+		List<PhotoSize> sizes = new ArrayList<PhotoSize>();
 		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				createImageFile(sourceImage, id, size);
+			if (!size.isWiderAndHigher(sourceWidth, sourceHeight) && isCreatedOnUpload(size)) {
+				sizes.add(0, size); // largest first
+			}
+		}
+		
+		PhotoSize largestSize = sizes.get(0); // at least THUMB, as the size is valid
+		int subsampling = getSubsampling(sourceSize, largestSize);
+		int permits = acquireDecodeMemory(sourceSize, subsampling);
+		try {
+			List<Future<?>> writes = new ArrayList<Future<?>>();
+			BufferedImage image = asOpaqueImage(readImage(source, subsampling));
+			for (final PhotoSize size : sizes) {
+				int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+				int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+				
+				final BufferedImage targetImage = scaleImage(image, targetWidth, targetHeight);
+				final PhotoId photoId = id;
+				writes.add(imageWriters.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						createImageFile(targetImage, photoId, size);
+						return null;
+					}
+				}));
+				
+				image = targetImage;
 			}
+			
+			awaitAll(writes);
+		} finally {
+			releaseDecodeMemory(permits);
 		}
 		
-		return sourceImage;
+		return sourceSize;
+	}
+	
+	/**
+	 * Reads the width and height from the header of the file, so that files which are no images,
+	 * or whose images are too small or too large, are rejected without decoding them
+	 */
+	public static Dimension readImageSize(File source) throws IOException {
+		ImageInputStream input = openImageInputStream(source);
+		try {
+			ImageReader reader = getImageReader(input);
+			try {
+				Dimension result = new Dimension(reader.getWidth(0), reader.getHeight(0));
+				assertHasValidSize(result.width, result.height);
+				return result;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Decodes only every subsampling-th pixel of every subsampling-th row
+	 */
+	protected static BufferedImage readImage(File source, int subsampling) throws IOException {
+		ImageInputStream input = openImageInputStream(source);
+		try {
+			ImageReader reader = getImageReader(input);
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				BufferedImage result = reader.read(0, param);
+				assertIsValidImage(result);
+				return result;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static ImageInputStream openImageInputStream(File source) throws IOException {
+		ImageInputStream result = ImageIO.createImageInputStream(source);
+		if (result == null) {
+			throw new FileNotFoundException("could not read photo: " + source.getPath());
+		}
+		return result;
 	}
 	
 	/**
 	 * 
 	 */
-	protected static void createImageFile(Image source, PhotoId id, PhotoSize size) throws Exception {	
-		int sourceWidth = source.getWidth(null);
-		int sourceHeight = source.getHeight(null);
+	protected static ImageReader getImageReader(ImageInputStream input) {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+		if (!readers.hasNext()) {
+			throw new IllegalArgumentException("Not a valid photo!");
+		}
 		
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
-
-		BufferedImage targetImage = scaleImage(source, targetWidth, targetHeight);
+		ImageReader result = readers.next();
+		result.setInput(input, true, true);
+		return result;
+	}
+	
+	/**
+	 * Subsampling discards pixels rather than averaging them, so the decoded image stays at least
+	 * twice as large as the target size, and scaleImage does the smoothing
+	 */
+	protected static int getSubsampling(Dimension sourceSize, PhotoSize targetSize) {
+		int targetWidth = targetSize.calcAdjustedWidth(sourceSize.width, sourceSize.height);
+		int targetHeight = targetSize.calcAdjustedHeight(sourceSize.width, sourceSize.height);
+		int result = Math.min(sourceSize.width / (2 * targetWidth), sourceSize.height / (2 * targetHeight));
+		return Math.max(result, 1);
+	}
+	
+	/**
+	 * Memory needed per decoded pixel: the decoded image (3 or 4 bytes), its opaque copy (4),
+	 * the first halving (1), and some headroom for the decoder
+	 */
+	protected static final int DECODE_BYTES_PER_PIXEL = 10;
+	
+	/**
+	 * The memory budget of all decodes, in permits of a KB each; guarded by PhotoUtil.class
+	 */
+	protected static Semaphore decodeMemory = null;
+	protected static int decodeMemoryPermits = 0;
+	
+	/**
+	 * 
+	 */
+	protected static synchronized Semaphore getDecodeMemory() {
+		if (decodeMemory == null) {
+			decodeMemoryPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, SysConfig.getImageDecodeMemory() / 1024));
+			decodeMemory = new Semaphore(decodeMemoryPermits, true);
+		}
+		return decodeMemory;
+	}
+	
+	/**
+	 * Waits until the decode fits into the memory budget; a decode larger than the budget waits for all others
+	 * 
+	 * @return the permits to release after the decode
+	 */
+	protected static int acquireDecodeMemory(Dimension sourceSize, int subsampling) throws InterruptedException {
+		long decodedWidth = (sourceSize.width + subsampling - 1) / subsampling;
+		long decodedHeight = (sourceSize.height + subsampling - 1) / subsampling;
+		long bytes = decodedWidth * decodedHeight * DECODE_BYTES_PER_PIXEL;
+		
+		Semaphore memory = getDecodeMemory();
+		int result = (int) Math.max(1, Math.min(decodeMemoryPermits, bytes / 1024));
+		memory.acquire(result);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void releaseDecodeMemory(int permits) {
+		getDecodeMemory().release(permits);
+	}
+	
+	/**
+	 * Waits for all, so no file is written after the upload failed, and throws the first failure
+	 */
+	protected static void awaitAll(List<Future<?>> futures) throws Exception {
+		Exception failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+				}
+			}
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void createImageFile(BufferedImage image, PhotoId id, PhotoSize size) throws Exception {	
 		File target = new File(SysConfig.getPhotosDir().asString() + File.separator + id.asString() + size.asInt() + ".jpg");
-		ImageIO.write(targetImage, "jpg", target);
+		ImageIO.write(image, "jpg", target);
+		FileResourceManager.getInstance().getResource(target); // fingerprint before the first page links to it
 
 		SysLog.logSysInfo("created image file for id: " + id.asString() + " of size: " + size.asString());
 	}
 
+	/**
+	 * Creates one size from the original file; the target appears complete or not at all
+	 * 
+	 * @return false if the original is smaller than the size
+	 */
+	public static boolean createImageFile(File source, PhotoSize size, File target) throws Exception {
+		Dimension sourceSize = readImageSize(source);
+		if (size.isWiderAndHigher(sourceSize.width, sourceSize.height)) {
+			return false;
+		}
+		
+		int targetWidth = size.calcAdjustedWidth(sourceSize.width, sourceSize.height);
+		int targetHeight = size.calcAdjustedHeight(sourceSize.width, sourceSize.height);
+		int subsampling = getSubsampling(sourceSize, size);
+		int permits = acquireDecodeMemory(sourceSize, subsampling);
+		try {
+			BufferedImage sourceImage = readImage(source, subsampling);
+			BufferedImage targetImage = scaleImage(asOpaqueImage(sourceImage), targetWidth, targetHeight);
+			
+			File tempFile = new File(target.getPath() + ".tmp");
+			ImageIO.write(targetImage, "jpg", tempFile);
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			releaseDecodeMemory(permits);
+		}
+		return true;
+	}
+
+	/**
+	 * Halves the size with bilinear interpolation while it is more than twice the target size,
+	 * then takes the last step with bicubic interpolation; this is as smooth as area averaging, but much faster
+	 */
+	protected static BufferedImage scaleImage(BufferedImage source, int width, int height) {
+		BufferedImage result = source;
+		int currentWidth = source.getWidth();
+		int currentHeight = source.getHeight();
+		
+		while ((currentWidth != width) || (currentHeight != height)) {
+			currentWidth = (currentWidth > width) ? Math.max(currentWidth / 2, width) : width;
+			currentHeight = (currentHeight > height) ? Math.max(currentHeight / 2, height) : height;
+			
+			boolean isLastStep = (currentWidth == width) && (currentHeight == height);
+			Object interpolation = isLastStep ? RenderingHints.VALUE_INTERPOLATION_BICUBIC : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+			result = drawImage(result, currentWidth, currentHeight, interpolation);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * JPEG has no transparency, so transparent parts become white
+	 */
+	protected static BufferedImage asOpaqueImage(BufferedImage source) {
+		if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+			return source;
+		}
+		
+		return drawImage(source, source.getWidth(), source.getHeight(), RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+	}
+	
 	/**
 	 * 
 	 */
-	protected static BufferedImage scaleImage(Image source, int width, int height) {
-		source = source.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+	protected static BufferedImage drawImage(BufferedImage source, int width, int height, Object interpolation) {
 		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		Graphics2D g2d = result.createGraphics();
-		g2d.setBackground(Color.WHITE);
-		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-		g2d.drawImage(source, 0, 0, null);
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, width, height);
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+			g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g2d.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			g2d.dispose();
+		}
 		return result;
 	}
 	
@@ -114,6 +403,10 @@ public class PhotoUtil {
 		if (PhotoSize.THUMB.isWiderAndHigher(cw, ch)) {
 			throw new IllegalArgumentException("Photo too small!");
 		}
+		
+		if (((long) cw * ch) > SysConfig.getImageMaxPixels()) {
+			throw new IllegalArgumentException("Photo too large!");
+		}
 	}
 
 }
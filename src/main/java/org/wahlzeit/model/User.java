@@ -62,6 +62,11 @@ public class User extends Client implements Persistent {
 	 */
 	protected static int lastUserId = 0;
 	
+	/**
+	 * Reserves blocks of ids in the database; if null, ids are counted up locally
+	 */
+	protected static IdBlockAllocator idAllocator = null;
+	
 	/**
 	 * 
 	 */
@@ -76,11 +81,24 @@ public class User extends Client implements Persistent {
 		lastUserId = newId;
 	}
 	
+	/**
+	 * 
+	 */
+	public static synchronized void setIdAllocator(IdBlockAllocator newIdAllocator) {
+		idAllocator = newIdAllocator;
+	}
+	
 	/**
 	 * 
 	 */
 	public static synchronized int getNextUserId() {
-		return ++lastUserId;
+		if (idAllocator == null) {
+			return ++lastUserId;
+		}
+		
+		int result = idAllocator.getNextId();
+		lastUserId = Math.max(lastUserId, idAllocator.getHighestReservedId());
+		return result;
 	}
 
 	/**
@@ -88,6 +106,11 @@ public class User extends Client implements Persistent {
 	 */
 	protected transient int writeCount = 0;
 	
+	/**
+	 * Number of sessions the user is logged in with
+	 */
+	protected transient int noSessions = 0;
+	
 	/**
 	 * 
 	 */
@@ -192,6 +215,29 @@ public class User extends Client implements Persistent {
 		writeCount = 0;
 	}
 	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isLoggedIn() {
+		return noSessions > 0;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void addSession() {
+		noSessions++;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void removeSession() {
+		if (noSessions > 0) {
+			noSessions--;
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -216,11 +262,20 @@ public class User extends Client implements Persistent {
 		gender = Gender.getFromInt(rset.getInt("gender"));
 		status = UserStatus.getFromInt(rset.getInt("status"));
 		confirmationCode = rset.getLong("confirmation_code");
-		photos = PhotoManager.getInstance().findPhotosByOwner(name);
-		userPhoto = PhotoManager.getPhoto(PhotoId.getIdFromInt(rset.getInt("photo")));
 		creationTime = rset.getLong("creation_time");
 	}
 	
+	/**
+	 * Photos are read separately (and for many users at once) by the UserManager.
+	 * Wiring them up is not a change of the user.
+	 * 
+	 * @methodtype initialization
+	 */
+	protected void initializePhotos(Set<Photo> newPhotos, Photo newUserPhoto) {
+		photos = newPhotos;
+		userPhoto = newUserPhoto;
+	}
+	
 	/**
 	 * 
 	 */
@@ -252,8 +307,10 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public void setEmailAddress(EmailAddress myEmailAddress) {
+		EmailAddress oldEmailAddress = emailAddress;
 		super.setEmailAddress(myEmailAddress);
 		incWriteCount();
+		UserManager.getInstance().emailAddressChanged(this, oldEmailAddress);
 		
 		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
 			Photo photo = i.next();
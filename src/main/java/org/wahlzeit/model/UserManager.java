@@ -21,6 +21,8 @@
 package org.wahlzeit.model;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.sql.*;
 
 import org.wahlzeit.services.*;
@@ -54,9 +56,40 @@ public class UserManager extends ObjectManager {
 	}
 	
 	/**
-	 * Maps nameAsTag to user of that name (as tag)
+	 * Maps nameAsTag to user of that name (as tag); users who are logged in or have unwritten changes are pinned
 	 */
-	protected Map<String, User> users = new HashMap<String, User>();
+	protected ObjectCache<String, User> users = new ObjectCache<String, User>("users", SysConfig.getUserCacheSize()) {
+		protected boolean isPinned(User user) {
+			return user.isDirty() || user.isLoggedIn();
+		}
+		protected void added(String tag, User user) {
+			addToIndexes(tag, user);
+		}
+		protected void removed(String tag, User user) {
+			removeFromIndexes(tag, user);
+		}
+		protected void evicted(String tag, User user) {
+			removeFromIndexes(tag, user);
+		}
+	};
+	
+	/**
+	 * Secondary indexes of the cached users, mapping to nameAsTag
+	 */
+	protected ConcurrentMap<String, String> tagsByEmailAddress = new ConcurrentHashMap<String, String>();
+	protected ConcurrentMap<Integer, String> tagsByUserId = new ConcurrentHashMap<Integer, String>();
+	
+	/**
+	 * Name tags that were looked up but are not taken; the filter is null until loaded
+	 */
+	protected NegativeCache<String> missingTags = new NegativeCache<String>(SysConfig.getNegativeCacheTtl(), SysConfig.getNegativeCacheSize());
+	protected volatile BloomFilter tagFilter = null;
+	protected LongAdder noFilteredLookups = new LongAdder();
+	
+	/**
+	 * Photos by owner id while all users are loaded on startup
+	 */
+	protected Map<Integer, Set<Photo>> preloadedPhotosByOwner = null;
 	
 	/**
 	 * 
@@ -101,16 +134,41 @@ public class UserManager extends ObjectManager {
 
 		User result = doGetUserByTag(tag);
 
-		if (result == null) {
+		if ((result == null) && !isMissingUser(tag)) {
 			try {
 				PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE name_as_tag = ?");
-				result = (User) readObject(stmt, tag);
+				result = readUser(stmt, tag);
+				if (result == null) {
+					missingTags.addMissing(tag);
+				}
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+			}
+			
+			if (result != null) {
+				result = doAddUserIfAbsent(result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public User getUserById(int id) {
+		User result = doGetUserById(id);
+		
+		if (result == null) {
+			try {
+				PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE id = ?");
+				result = readUser(stmt, id);
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
 			}
 			
 			if (result != null) {
-				doAddUser(result);
+				result = doAddUserIfAbsent(result);
 			}
 		}
 		
@@ -131,6 +189,63 @@ public class UserManager extends ObjectManager {
 		return users.get(tag);
 	}
 	
+	/**
+	 * Answers definite misses from memory, without asking the database
+	 * 
+	 * @methodtype boolean-query
+	 */
+	protected boolean isMissingUser(String tag) {
+		BloomFilter filter = tagFilter;
+		if ((filter != null) && !filter.mightContain(tag)) {
+			noFilteredLookups.increment();
+			return true;
+		}
+		
+		return missingTags.isMissing(tag);
+	}
+	
+	/**
+	 * Loads the name tags of all persisted users into a Bloom filter. Executed on startup.
+	 */
+	public void loadTagFilter() {
+		try {
+			tagFilter = readBloomFilter("users", "name_as_tag");
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getMissStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		BloomFilter filter = tagFilter;
+		result.put("filterKeys", (filter != null) ? filter.getNoKeys() : 0L);
+		result.put("filteredLookups", noFilteredLookups.sum());
+		result.put("negativeHits", missingTags.getNoHits());
+		result.put("negativeSize", (long) missingTags.getSize());
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected User doGetUserById(int id) {
+		String tag = tagsByUserId.get(id);
+		User result = (tag != null) ? users.get(tag) : null;
+		return ((result != null) && (result.getId() == id)) ? result : null;
+	}
+	
+	/**
+	 * 
+	 */
+	protected User doGetUserByEmailAddress(EmailAddress emailAddress) {
+		String tag = tagsByEmailAddress.get(emailAddress.asString());
+		User result = (tag != null) ? users.get(tag) : null;
+		return ((result != null) && emailAddress.isEqual(result.getEmailAddress())) ? result : null;
+	}
+	
 	/**
 	 * 
 	 * @methodtype factory
@@ -155,6 +270,70 @@ public class UserManager extends ObjectManager {
 		return result;
 	}
 	
+	/**
+	 * 
+	 */
+	protected User readUser(PreparedStatement stmt, String value) throws SQLException {
+		stmt.setString(1, value);
+		List<User> result = new ArrayList<User>(1);
+		readUsers(result, stmt);
+		return result.isEmpty() ? null : result.get(0);
+	}
+	
+	/**
+	 * 
+	 */
+	protected User readUser(PreparedStatement stmt, int value) throws SQLException {
+		stmt.setInt(1, value);
+		List<User> result = new ArrayList<User>(1);
+		readUsers(result, stmt);
+		return result.isEmpty() ? null : result.get(0);
+	}
+	
+	/**
+	 * Reads the users selected by stmt and wires up their photos. Takes two queries,
+	 * independent of the number of users.
+	 */
+	protected void readUsers(Collection<User> result, PreparedStatement stmt) throws SQLException {
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		readUsers(result, rset, null);
+		rset.close();
+	}
+	
+	/**
+	 * Reads the users of rset; their photos are taken from photosByOwner or, if that is null, read with one query.
+	 */
+	protected void readUsers(Collection<User> result, ResultSet rset, Map<Integer, Set<Photo>> photosByOwner) throws SQLException {
+		List<User> readUsers = new ArrayList<User>();
+		List<Integer> userPhotoIds = new ArrayList<Integer>();
+		Set<Integer> ownerIds = new HashSet<Integer>();
+
+		while (rset.next()) {
+			User user = createObject(rset);
+			if (user != null) {
+				readUsers.add(user);
+				userPhotoIds.add(rset.getInt("photo"));
+				ownerIds.add(user.getId());
+			}
+		}
+		
+		if (photosByOwner == null) {
+			photosByOwner = PhotoManager.getInstance().findPhotosByOwnerIds(ownerIds);
+		}
+		for (int i = 0; i < readUsers.size(); i++) {
+			User user = readUsers.get(i);
+			Set<Photo> photos = photosByOwner.get(user.getId());
+			if (photos == null) {
+				photos = new HashSet<Photo>();
+			}
+			Photo userPhoto = PhotoManager.getPhoto(PhotoId.getIdFromStoredInt(userPhotoIds.get(i))); // usually one of photos, cached
+			user.initializePhotos(photos, userPhoto);
+		}
+		
+		result.addAll(readUsers);
+	}
+	
 	/**
 	 * 
 	 */
@@ -170,7 +349,19 @@ public class UserManager extends ObjectManager {
 			SysLog.logThrowable(sex);
 		}
 		
-		doAddUser(user);		
+		doAddUser(user);
+		userWasAdded(user.getNameAsTag());
+	}
+	
+	/**
+	 * The lookup in assertIsUnknownUserAsIllegalArgument has just recorded the tag as missing
+	 */
+	protected void userWasAdded(String tag) {
+		BloomFilter filter = tagFilter;
+		if (filter != null) {
+			filter.add(tag);
+		}
+		missingTags.remove(tag);
 	}
 	
 	/**
@@ -180,6 +371,51 @@ public class UserManager extends ObjectManager {
 		users.put(user.getNameAsTag(), user);
 	}
 	
+	/**
+	 * Another thread may have read the same user in the meantime; its copy wins.
+	 */
+	protected User doAddUserIfAbsent(User user) {
+		User result = users.putIfAbsent(user.getNameAsTag(), user);
+		return (result != null) ? result : user;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addToIndexes(String tag, User user) {
+		tagsByUserId.put(user.getId(), tag);
+		EmailAddress emailAddress = user.getEmailAddress();
+		if ((emailAddress != null) && !emailAddress.isEmpty()) {
+			tagsByEmailAddress.put(emailAddress.asString(), tag);
+		}
+	}
+	
+	/**
+	 * Leaves entries alone that have been taken over by another user in the meantime
+	 */
+	protected void removeFromIndexes(String tag, User user) {
+		tagsByUserId.remove(user.getId(), tag);
+		EmailAddress emailAddress = user.getEmailAddress();
+		if (emailAddress != null) {
+			tagsByEmailAddress.remove(emailAddress.asString(), tag);
+		}
+	}
+	
+	/**
+	 * Called by User; users that are not cached are not indexed
+	 */
+	public void emailAddressChanged(User user, EmailAddress oldEmailAddress) {
+		String tag = user.getNameAsTag();
+		if ((tag == null) || (users.peek(tag) != user)) {
+			return;
+		}
+		
+		if (oldEmailAddress != null) {
+			tagsByEmailAddress.remove(oldEmailAddress.asString(), tag);
+		}
+		addToIndexes(tag, user);
+	}
+	
 	/**
 	 * 
 	 */
@@ -210,7 +446,7 @@ public class UserManager extends ObjectManager {
 	public void loadUsers(Collection<User> result) {
 		try {
 			PreparedStatement stmt = getReadingStatement("SELECT * FROM users");
-			readObjects(result, stmt);
+			readUsers(result, stmt);
 			for (Iterator<User> i = result.iterator(); i.hasNext(); ) {
 				User user = i.next();
 				if (!doHasUserByTag(user.getNameAsTag())) {
@@ -226,6 +462,54 @@ public class UserManager extends ObjectManager {
 		SysLog.logSysInfo("loaded all users");
 	}
 	
+	/**
+	 * Loads persisted users until the cache is full, streaming them in parallel range scans. Their photos are taken from
+	 * the photo cache if all photos have been loaded before, else read per range. Executed on startup.
+	 */
+	public void loadAllUsers() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		if (photoManager.hasLoadedAllPhotos()) {
+			preloadedPhotosByOwner = photoManager.getCachedPhotosByOwnerIds();
+		}
+		try {
+			loadObjectsInRanges("users", 0, User.getLastUserId());
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		} finally {
+			preloadedPhotosByOwner = null;
+		}
+	}
+	
+	/**
+	 * Called from loader threads.
+	 */
+	protected int loadObjects(ResultSet rset) throws SQLException {
+		List<User> result = new ArrayList<User>();
+		readUsers(result, rset, preloadedPhotosByOwner);
+		for (User user : result) {
+			loadObject(user);
+		}
+		
+		return result.size();
+	}
+	
+	/**
+	 * Called from loader threads; does not evict users to make room.
+	 */
+	protected void loadObject(Persistent obj) {
+		User user = (User) obj;
+		if (!users.isFull()) {
+			users.putIfAbsent(user.getNameAsTag(), user);
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public ObjectCache<String, User> getUserCache() {
+		return users;
+	}
+	
 	/**
 	 * 
 	 */
@@ -274,8 +558,7 @@ public class UserManager extends ObjectManager {
 	 */
 	public void saveUser(User user) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObject(user, stmt);
+			saveObject(user, "users");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -294,8 +577,7 @@ public class UserManager extends ObjectManager {
 	 */
 	public void saveUsers() {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObjects(users.values(), stmt);
+			updateObjects(users.getValues(), "users");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -312,20 +594,18 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public User getUserByEmailAddress(EmailAddress emailAddress) {
-		User result = null;
-		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE email_address = ?");
-			result = (User) readObject(stmt, emailAddress.asString());
-		} catch (SQLException sex) {
-			SysLog.logThrowable(sex);
-		}
+		User result = doGetUserByEmailAddress(emailAddress);
 		
-		if (result != null) {
-			User current = doGetUserByTag(result.getNameAsTag());
-			if (current == null) {
-				doAddUser(result);
-			} else {
-				result = current;
+		if (result == null) {
+			try {
+				PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE email_address = ?");
+				result = readUser(stmt, emailAddress.asString());
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+			}
+			
+			if (result != null) {
+				result = doAddUserIfAbsent(result);
 			}
 		}
 
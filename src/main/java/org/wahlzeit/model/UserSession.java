@@ -94,6 +94,12 @@ public class UserSession extends Session {
 	 * @methodtype set
 	 */
 	public void setClient(Client newClient) {
+		if (client instanceof User) {
+			((User) client).removeSession();
+		}
+		if (newClient instanceof User) {
+			((User) newClient).addSession();
+		}
 		client = newClient;
 	}
 	
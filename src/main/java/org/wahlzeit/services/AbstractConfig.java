@@ -49,6 +49,20 @@ public abstract class AbstractConfig implements Configuration {
 		return doGetValue(key);
 	}
 	
+	/**
+	 * 
+	 */
+	public int getValueAsInt(String key) throws IllegalArgumentException {
+		return Integer.parseInt(getValue(key).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public long getValueAsLong(String key) throws IllegalArgumentException {
+		return Long.parseLong(getValue(key).trim());
+	}
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A BloomFilter is a thread-safe set of keys that answers "definitely not contained" exactly and
+ * "maybe contained" with a configurable false positive probability. Keys can be added but not removed.
+ */
+public class BloomFilter {
+	
+	/**
+	 * 
+	 */
+	protected AtomicLongArray bits;
+	protected int noBits;
+	protected int noHashes;
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noKeys = new AtomicLong();
+	
+	/**
+	 * @param noExpectedKeys number of keys the false positive probability is computed for
+	 * @param falsePositiveProbability between 0 and 1, exclusive
+	 */
+	public BloomFilter(long noExpectedKeys, double falsePositiveProbability) {
+		long n = Math.max(1, noExpectedKeys);
+		double p = Math.min(0.5, Math.max(1e-9, falsePositiveProbability));
+		long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+		noBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+		noHashes = (int) Math.max(1, Math.round((double) noBits / n * Math.log(2)));
+		bits = new AtomicLongArray((noBits + 63) / 64);
+	}
+	
+	/**
+	 * 
+	 */
+	public void add(long key) {
+		long hash1 = mix(key);
+		long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+		for (int i = 0; i < noHashes; i++) {
+			setBit(getBitIndex(hash1 + i * hash2));
+		}
+		
+		noKeys.incrementAndGet();
+	}
+	
+	/**
+	 * 
+	 */
+	public void add(String key) {
+		add(asLong(key));
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean mightContain(long key) {
+		long hash1 = mix(key);
+		long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+		for (int i = 0; i < noHashes; i++) {
+			if (!isBitSet(getBitIndex(hash1 + i * hash2))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean mightContain(String key) {
+		return mightContain(asLong(key));
+	}
+	
+	/**
+	 * 
+	 */
+	protected int getBitIndex(long hash) {
+		return (int) ((hash >>> 1) % noBits);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void setBit(int index) {
+		int word = index >>> 6;
+		long mask = 1L << (index & 63);
+		long value = bits.get(word);
+		while (((value & mask) == 0) && !bits.compareAndSet(word, value, value | mask)) {
+			value = bits.get(word);
+		}
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isBitSet(int index) {
+		return (bits.get(index >>> 6) & (1L << (index & 63))) != 0;
+	}
+	
+	/**
+	 * 64-bit FNV-1a over the string's characters
+	 */
+	protected static long asLong(String key) {
+		long result = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			result ^= key.charAt(i);
+			result *= 0x100000001b3L;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finalizer of SplitMix64; spreads similar keys (like consecutive ids) over all bits
+	 */
+	protected static long mix(long value) {
+		long result = value;
+		result = (result ^ (result >>> 30)) * 0xbf58476d1ce4e5b9L;
+		result = (result ^ (result >>> 27)) * 0x94d049bb133111ebL;
+		return result ^ (result >>> 31);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoKeys() {
+		return noKeys.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoBits() {
+		return noBits;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoHashes() {
+		return noHashes;
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("keys", getNoKeys());
+		result.put("bits", (long) noBits);
+		result.put("hashes", (long) noHashes);
+		return result;
+	}
+	
+}
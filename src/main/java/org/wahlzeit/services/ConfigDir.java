@@ -21,6 +21,7 @@
 package org.wahlzeit.services;
 
 import java.io.File;
+import java.util.*;
 
 /**
  * A ConfigDir is a Directory that can provides a two-way switch between a default directory and custom directory.
@@ -108,6 +109,30 @@ public class ConfigDir extends Directory {
 		return doesFileExist(customDirName + File.separator + shortFileName);
 	}
 	
+	/**
+	 * Returns the short names of all files in the default and the custom directory, without duplicates.
+	 */
+	public Set<String> getFileNames() {
+		Set<String> result = new TreeSet<String>();
+		addFileNames(result, defaultDirName);
+		addFileNames(result, customDirName);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addFileNames(Set<String> fileNames, String dirName) {
+		File[] files = new File(dirName).listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isFile()) {
+					fileNames.add(files[i].getName());
+				}
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 */
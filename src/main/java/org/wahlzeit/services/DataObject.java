@@ -20,6 +20,8 @@
 
 package org.wahlzeit.services;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A simple abstract implementation of Persistent with write count and dirty bit.
  * Also defines (but does not use) the field "ID" for subclass use.
@@ -36,6 +38,16 @@ public abstract class DataObject implements Persistent {
 	 */
 	protected transient int writeCount = 0;
 	
+	/**
+	 * Source of versions; unique across all data objects of this instance
+	 */
+	protected static final AtomicLong lastVersion = new AtomicLong(0);
+	
+	/**
+	 * Changes with every change; unlike a count it also changes when the object is loaded again
+	 */
+	protected transient volatile long version = lastVersion.incrementAndGet();
+	
 	/**
 	 * 
 	 */
@@ -55,6 +67,14 @@ public abstract class DataObject implements Persistent {
 	 */
 	public final void incWriteCount() {
 		writeCount++;
+		version = lastVersion.incrementAndGet();
+	}
+	
+	/**
+	 * 
+	 */
+	public final long getVersion() {
+		return version;
 	}
 	
 	/**
@@ -25,7 +25,7 @@ import java.util.*;
 
 /**
  * A database connection wraps an RDMBS connection object.
- * It pools and reuses existing connections; it caches common SQL statements.
+ * Connections are pooled and reused by the DatabaseConnectionPool; each one caches common SQL statements.
  *
  * @author dirkriehle
  *
@@ -35,27 +35,33 @@ public class DatabaseConnection {
 	/**
 	 * 
 	 */
-	protected static Set<DatabaseConnection> pool = new HashSet<DatabaseConnection>();
+	protected static DatabaseConnectionPool pool = null;
 	
 	/**
 	 * 
 	 */
-	protected static int dbcId = 0;
+	public static synchronized DatabaseConnectionPool getPool() {
+		if (pool == null) {
+			pool = new DatabaseConnectionPool();
+		}
+		return pool;
+	}
 	
 	/**
-	 * 
+	 * Closes the idle connections of the current pool and drops it; the next borrow creates a new one.
 	 */
-	public static synchronized DatabaseConnection ensureDatabaseConnection() throws SQLException {
-		DatabaseConnection result = null;
-		if (pool.isEmpty()) {
-			result = new DatabaseConnection("dbc" + dbcId++);
-			SysLog.logCreatedObject("DatabaseConnection", result.getName());
-		} else {
-			result = pool.iterator().next();
-			pool.remove(result);
+	public static synchronized void dropPool() {
+		if (pool != null) {
+			pool.closeIdleConnections();
+			pool = null;
 		}
-		
-		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public static DatabaseConnection ensureDatabaseConnection() throws SQLException {
+		return getPool().borrowDatabaseConnection();
 	}
 
 	/**
@@ -70,7 +76,8 @@ public class DatabaseConnection {
 		String dbUrl = SysConfig.getDbConnectionAsString();
 		do {
 			try {
-				DatabaseConnection.ensureDatabaseConnection();
+				DatabaseConnection dbc = DatabaseConnection.ensureDatabaseConnection();
+				DatabaseConnection.returnDatabaseConnection(dbc);
 				SysLog.logSysInfo("[success] Service check for URL " + dbUrl);
 				return true;
 			} catch (final SQLException e) {
@@ -96,13 +103,9 @@ public class DatabaseConnection {
 	/**
 	 * 
 	 */
-	public static synchronized void returnDatabaseConnection(DatabaseConnection dbc) {
+	public static void returnDatabaseConnection(DatabaseConnection dbc) {
 		if (dbc != null) {
-			if (dbc.isOpen()) {
-				pool.add(dbc);				
-			} else {
-				SysLog.logSysError("tried to return closed database connection to pool; ignoring it");
-			}
+			getPool().returnDatabaseConnection(dbc);
 		} else {
 			SysLog.logSysError("tried to return null to database connection pool; ignoring it");
 		}
@@ -123,27 +126,66 @@ public class DatabaseConnection {
 	 */
 	protected Map<String, PreparedStatement> readingStatements = new HashMap<String, PreparedStatement>();
 	protected Map<String, PreparedStatement> updatingStatements = new HashMap<String, PreparedStatement>();
+	
+	/**
+	 * Pool bookkeeping
+	 */
+	protected long lastUsedTime = System.currentTimeMillis();
+	protected long borrowTime = 0;
+	protected String borrowerName = null;
+	protected boolean isReportedAsLeaked = false;
 
 	/**
 	 * 
 	 */
 	protected DatabaseConnection(String dbcName) throws SQLException {
+		this(dbcName, openRdbmsConnection());
+	}
+	
+	/**
+	 * 
+	 */
+	protected DatabaseConnection(String dbcName, Connection myRdbmsConnection) {
 		name = dbcName;
-		rdbmsConnection = openRdbmsConnection();
+		rdbmsConnection = myRdbmsConnection;
 	}
 	
 	/**
 	 * 
 	 */
 	protected void finalize() {
+		close();
+	}
+	
+	/**
+	 * Closes all cached statements and the underlying connection.
+	 */
+	public void close() {
 		try {
-			pool.remove(this); // just to be sure...
-			closeConnection(rdbmsConnection);
+			closeStatements(readingStatements);
+			closeStatements(updatingStatements);
+			if (isOpen()) {
+				closeConnection(rdbmsConnection);
+			}
 		} catch (Throwable t) {
 			SysLog.logThrowable(t);
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	protected void closeStatements(Map<String, PreparedStatement> statements) {
+		for (PreparedStatement stmt : statements.values()) {
+			try {
+				stmt.close();
+			} catch (SQLException ex) {
+				// ignore; connection is going away anyway
+			}
+		}
+		statements.clear();
+	}
+	
 	/**
 	 * 
 	 */
@@ -151,6 +193,75 @@ public class DatabaseConnection {
 		return name;
 	}
 	
+	/**
+	 * Checks with the database whether the connection is still usable.
+	 * 
+	 * @param timeout seconds to wait for the database to answer
+	 */
+	public boolean isValid(int timeout) {
+		boolean result = false;
+		
+		try {
+			result = (rdbmsConnection != null) && rdbmsConnection.isValid(timeout);
+		} catch (SQLException ex) {
+			SysLog.logThrowable(ex);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getLastUsedTime() {
+		return lastUsedTime;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getBorrowTime() {
+		return borrowTime;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public String getBorrowerName() {
+		return borrowerName;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isReportedAsLeaked() {
+		return isReportedAsLeaked;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	protected void setReportedAsLeaked() {
+		isReportedAsLeaked = true;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	protected void setBorrowed(long now, String borrower) {
+		borrowTime = now;
+		borrowerName = borrower;
+		isReportedAsLeaked = false;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	protected void setReturned(long now) {
+		lastUsedTime = now;
+		borrowerName = null;
+	}
+	
 	/**
 	 * 
 	 */
@@ -179,7 +290,7 @@ public class DatabaseConnection {
 	protected PreparedStatement getReadingStatement(String stmt) throws SQLException {
 		PreparedStatement result = readingStatements.get(stmt);
 		if (result == null) {
-			result = getRdbmsConnection().prepareStatement(stmt);
+			result = InstrumentedStatement.wrap(getRdbmsConnection().prepareStatement(stmt), stmt, QueryStatistics.getInstance());
 	   		SysLog.logCreatedObject("PreparedStatement", result.toString());
 	   		readingStatements.put(stmt, result);
 		}
@@ -194,6 +305,7 @@ public class DatabaseConnection {
 		PreparedStatement result = updatingStatements.get(stmt);
 		if (result == null) {
 			result = getRdbmsConnection().prepareStatement(stmt, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+			result = InstrumentedStatement.wrap(result, stmt, QueryStatistics.getInstance());
 	   		SysLog.logCreatedObject("UpdatingStatement", result.toString());
 	   		updatingStatements.put(stmt, result);
 		}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A DatabaseConnectionPool hands out DatabaseConnections to sessions and takes them back.
+ * It never holds more than a configured maximum of connections, lets a bounded number of borrowers
+ * wait for a free connection, validates idle connections before handing them out, closes connections
+ * that stayed idle for too long, and reports connections that were borrowed but never returned.
+ */
+public class DatabaseConnectionPool {
+
+	/**
+	 * 
+	 */
+	protected int maxSize;
+	protected int maxWaiting;
+	protected long maxWaitTime;
+	protected int validationTimeout;
+	protected long maxIdleTime;
+	protected long leakThreshold;
+
+	/**
+	 * One permit per connection that may be borrowed
+	 */
+	protected Semaphore permits;
+	
+	/**
+	 * Idle connections, most recently returned first; guarded by this
+	 */
+	protected LinkedList<DatabaseConnection> idleConnections = new LinkedList<DatabaseConnection>();
+	
+	/**
+	 * Borrowed connections; guarded by this
+	 */
+	protected Set<DatabaseConnection> borrowedConnections = new HashSet<DatabaseConnection>();
+	
+	/**
+	 * 
+	 */
+	protected AtomicInteger dbcId = new AtomicInteger(0);
+	
+	/**
+	 * Statistics
+	 */
+	protected AtomicInteger waitingCount = new AtomicInteger(0);
+	protected AtomicLong createdCount = new AtomicLong(0);
+	protected AtomicLong destroyedCount = new AtomicLong(0);
+	protected AtomicLong borrowCount = new AtomicLong(0);
+	protected AtomicLong timeoutCount = new AtomicLong(0);
+	protected AtomicLong rejectedCount = new AtomicLong(0);
+	protected AtomicLong leakCount = new AtomicLong(0);
+	
+	/**
+	 * 
+	 */
+	public DatabaseConnectionPool() {
+		this(
+			SysConfig.getDbPoolMaxSize(),
+			SysConfig.getDbPoolMaxWaiting(),
+			SysConfig.getDbPoolMaxWaitTime(),
+			SysConfig.getDbPoolValidationTimeout(),
+			SysConfig.getDbPoolMaxIdleTime(),
+			SysConfig.getDbPoolLeakThreshold()
+		);
+	}
+	
+	/**
+	 * @param myMaxSize maximum number of open connections
+	 * @param myMaxWaiting maximum number of threads waiting for a connection
+	 * @param myMaxWaitTime time to wait for a connection in milliseconds
+	 * @param myValidationTimeout time to wait for validation of an idle connection in seconds
+	 * @param myMaxIdleTime time after which an idle connection is closed in milliseconds
+	 * @param myLeakThreshold time after which a borrowed connection is reported as leaked in milliseconds
+	 */
+	public DatabaseConnectionPool(int myMaxSize, int myMaxWaiting, long myMaxWaitTime, int myValidationTimeout, long myMaxIdleTime, long myLeakThreshold) {
+		if (myMaxSize < 1) {
+			throw new IllegalArgumentException("pool size should be positive");
+		}
+		
+		maxSize = myMaxSize;
+		maxWaiting = myMaxWaiting;
+		maxWaitTime = myMaxWaitTime;
+		validationTimeout = myValidationTimeout;
+		maxIdleTime = myMaxIdleTime;
+		leakThreshold = myLeakThreshold;
+		
+		permits = new Semaphore(maxSize, true);
+	}
+	
+	/**
+	 * @methodtype command
+	 */
+	public DatabaseConnection borrowDatabaseConnection() throws SQLException {
+		acquirePermit();
+		
+		DatabaseConnection result = null;
+		try {
+			result = getValidIdleConnection();
+			if (result == null) {
+				result = createDatabaseConnection("dbc" + dbcId.getAndIncrement());
+				createdCount.incrementAndGet();
+				SysLog.logCreatedObject("DatabaseConnection", result.getName());
+			}
+		} catch (SQLException ex) {
+			permits.release();
+			throw ex;
+		} catch (RuntimeException ex) {
+			permits.release();
+			throw ex;
+		}
+		
+		result.setBorrowed(System.currentTimeMillis(), getBorrowerName());
+		synchronized(this) {
+			borrowedConnections.add(result);
+		}
+		borrowCount.incrementAndGet();
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void acquirePermit() throws SQLException {
+		if (permits.tryAcquire()) {
+			return;
+		}
+
+		if (waitingCount.incrementAndGet() > maxWaiting) {
+			waitingCount.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			throw new SQLException("database connection pool exhausted; too many waiting requests");
+		}
+		
+		try {
+			if (!permits.tryAcquire(maxWaitTime, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("timed out waiting for database connection after " + maxWaitTime + "ms");
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for database connection", ex);
+		} finally {
+			waitingCount.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Takes idle connections until it finds a valid one; closes invalid ones on its way.
+	 */
+	protected DatabaseConnection getValidIdleConnection() {
+		while (true) {
+			DatabaseConnection result = null;
+			synchronized(this) {
+				result = idleConnections.pollFirst();
+			}
+			
+			if (result == null) {
+				return null;
+			} else if (result.isValid(validationTimeout)) {
+				return result;
+			}
+
+			SysLog.logSysInfo("dbc", result.getName(), "discarding invalid database connection");
+			destroyDatabaseConnection(result);
+		}
+	}
+	
+	/**
+	 * @methodtype factory
+	 * @methodproperty hook
+	 */
+	protected DatabaseConnection createDatabaseConnection(String name) throws SQLException {
+		return new DatabaseConnection(name);
+	}
+	
+	/**
+	 * 
+	 */
+	protected String getBorrowerName() {
+		Session session = SessionManager.getThreadLocalSession();
+		String sessionName = (session != null) ? session.getName() : "no-session";
+		return sessionName + "@" + Thread.currentThread().getName();
+	}
+	
+	/**
+	 * @methodtype command
+	 */
+	public void returnDatabaseConnection(DatabaseConnection dbc) {
+		synchronized(this) {
+			if (!borrowedConnections.remove(dbc)) {
+				SysLog.logSysError("tried to return database connection " + dbc.getName() + " that was not borrowed; ignoring it");
+				return;
+			}
+		}
+		
+		dbc.setReturned(System.currentTimeMillis());
+		if (dbc.isOpen()) {
+			synchronized(this) {
+				idleConnections.addFirst(dbc);
+			}
+		} else {
+			SysLog.logSysError("returned closed database connection " + dbc.getName() + " to pool; discarding it");
+			destroyDatabaseConnection(dbc);
+		}
+		
+		permits.release();
+	}
+	
+	/**
+	 * Closes all connections that have been idle for longer than the configured maximum.
+	 * 
+	 * @return number of closed connections
+	 */
+	public int evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		List<DatabaseConnection> evicted = new ArrayList<DatabaseConnection>();
+		synchronized(this) {
+			for (Iterator<DatabaseConnection> i = idleConnections.iterator(); i.hasNext(); ) {
+				DatabaseConnection dbc = i.next();
+				if ((now - dbc.getLastUsedTime()) > maxIdleTime) {
+					i.remove();
+					evicted.add(dbc);
+				}
+			}
+		}
+		
+		for (DatabaseConnection dbc : evicted) {
+			SysLog.logSysInfo("dbc", dbc.getName(), "evicting idle database connection");
+			destroyDatabaseConnection(dbc);
+		}
+		
+		return evicted.size();
+	}
+	
+	/**
+	 * Logs all connections that have been borrowed for longer than the leak threshold.
+	 * Each leaked connection is reported only once.
+	 * 
+	 * @return number of newly detected leaks
+	 */
+	public int detectLeakedConnections() {
+		long now = System.currentTimeMillis();
+		List<DatabaseConnection> leaked = new ArrayList<DatabaseConnection>();
+		synchronized(this) {
+			for (DatabaseConnection dbc : borrowedConnections) {
+				if (!dbc.isReportedAsLeaked() && ((now - dbc.getBorrowTime()) > leakThreshold)) {
+					dbc.setReportedAsLeaked();
+					leaked.add(dbc);
+				}
+			}
+		}
+		
+		for (DatabaseConnection dbc : leaked) {
+			long heldTime = now - dbc.getBorrowTime();
+			SysLog.logSysError("possible database connection leak: " + dbc.getName() + " held by " + dbc.getBorrowerName() + " for " + heldTime + "ms");
+		}
+		
+		leakCount.addAndGet(leaked.size());
+		return leaked.size();
+	}
+	
+	/**
+	 * Closes all idle connections; borrowed ones are closed when they are returned.
+	 */
+	public void closeIdleConnections() {
+		List<DatabaseConnection> closing = null;
+		synchronized(this) {
+			closing = new ArrayList<DatabaseConnection>(idleConnections);
+			idleConnections.clear();
+		}
+		
+		for (DatabaseConnection dbc : closing) {
+			destroyDatabaseConnection(dbc);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void destroyDatabaseConnection(DatabaseConnection dbc) {
+		destroyedCount.incrementAndGet();
+		dbc.close();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getBorrowedCount() {
+		return borrowedConnections.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getIdleCount() {
+		return idleConnections.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getWaitingCount() {
+		return waitingCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getDestroyedCount() {
+		return destroyedCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getTotalBorrowCount() {
+		return borrowCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("max", (long) getMaxSize());
+		result.put("borrowed", (long) getBorrowedCount());
+		result.put("idle", (long) getIdleCount());
+		result.put("waiting", (long) getWaitingCount());
+		result.put("created", getCreatedCount());
+		result.put("destroyed", getDestroyedCount());
+		result.put("borrows", getTotalBorrowCount());
+		result.put("timeouts", getTimeoutCount());
+		result.put("rejected", getRejectedCount());
+		result.put("leaks", getLeakCount());
+		return result;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String getStatisticsAsString() {
+		return getStatistics().toString();
+	}
+	
+}
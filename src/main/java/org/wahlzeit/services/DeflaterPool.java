@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * A DeflaterPool keeps Deflaters for reuse, as each one holds native memory and is expensive to make.
+ * Deflaters are made for raw data (nowrap), as needed by GzipOutputStream.
+ */
+public class DeflaterPool {
+	
+	/**
+	 * 
+	 */
+	protected final int level;
+	
+	/**
+	 * 
+	 */
+	protected final BlockingQueue<Deflater> deflaters;
+	
+	/**
+	 * 
+	 */
+	protected LongAdder created = new LongAdder();
+	protected LongAdder reused = new LongAdder();
+	
+	/**
+	 * 
+	 */
+	public DeflaterPool(int myLevel, int maxSize) {
+		level = myLevel;
+		deflaters = new ArrayBlockingQueue<Deflater>(maxSize);
+	}
+	
+	/**
+	 * Returns a pooled or new Deflater; it must be handed back by release
+	 */
+	public Deflater acquire() {
+		Deflater result = deflaters.poll();
+		if (result != null) {
+			reused.increment();
+		} else {
+			created.increment();
+			result = new Deflater(level, true);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public void release(Deflater deflater) {
+		deflater.reset();
+		if (!deflaters.offer(deflater)) {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		for (Deflater deflater = deflaters.poll(); deflater != null; deflater = deflaters.poll()) {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("pooled", (long) deflaters.size());
+		result.put("created", created.sum());
+		result.put("reused", reused.sum());
+		return result;
+	}
+	
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import java.io.*;
+
+/**
+ * A FileResource describes a file as it was when read: its size, modification time, and a fingerprint
+ * of its contents. Small files also keep their contents, so they can be sent without reading the file.
+ */
+public class FileResource {
+	
+	/**
+	 * 
+	 */
+	protected final File file;
+	protected final long length;
+	protected final long lastModified;
+	protected final String fingerprint;
+	protected final byte[] contents;
+	
+	/**
+	 * 
+	 */
+	public FileResource(File myFile, long myLength, long myLastModified, String myFingerprint, byte[] myContents) {
+		file = myFile;
+		length = myLength;
+		lastModified = myLastModified;
+		fingerprint = myFingerprint;
+		contents = myContents;
+	}
+	
+	/**
+	 * 
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+	
+	/**
+	 * Returns the contents, or null, if the file is too big to keep in memory
+	 */
+	public byte[] getContents() {
+		return contents;
+	}
+	
+	/**
+	 * Returns a copy that keeps the fingerprint but not the contents
+	 */
+	public FileResource asWithoutContents() {
+		return new FileResource(file, length, lastModified, fingerprint, null);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasContents() {
+		return contents != null;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isCurrent() {
+		return (file.lastModified() == lastModified) && (file.length() == length);
+	}
+	
+}
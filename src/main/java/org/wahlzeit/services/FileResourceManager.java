@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+/**
+ * The FileResourceManager keeps FileResources for the static files and photo files served by Wahlzeit.
+ * Each file gets a fingerprint of its contents, which is put into the URLs of the file. As a URL with a
+ * fingerprint always names the same contents, browsers may keep the file for as long as they like.
+ * Files up to FILE_CACHE_FILE_SIZE bytes are kept in memory, up to FILE_CACHE_SIZE bytes in total.
+ * Beyond that, the least recently used contents are dropped, but their fingerprints are kept.
+ */
+public class FileResourceManager {
+	
+	/**
+	 * 
+	 */
+	protected static final FileResourceManager instance = new FileResourceManager();
+	
+	/**
+	 * Convenience method...
+	 */
+	public static FileResourceManager getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * 
+	 */
+	public static final int FINGERPRINT_LENGTH = 16;
+	
+	/**
+	 * Matches the fingerprint before the file name extension, as in "wahlzeit.0123456789abcdef.css"
+	 */
+	protected static final Pattern FINGERPRINT_PATTERN = Pattern.compile("\\.([0-9a-f]{" + FINGERPRINT_LENGTH + "})(\\.[^./]*)?$");
+	
+	/**
+	 * 
+	 */
+	protected static final int MAX_ENTRIES = 100000;
+	protected static final int READ_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<String, FileResource> resources = new ConcurrentHashMap<String, FileResource>();
+	
+	/**
+	 * Bytes of file contents held by resources
+	 */
+	protected AtomicLong contentsSize = new AtomicLong();
+	
+	/**
+	 * Keys of resources with contents, least recently used first; guarded by this
+	 */
+	protected LinkedHashMap<String, Long> contentsKeys = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	
+	/**
+	 * 
+	 */
+	protected LongAdder hits = new LongAdder();
+	protected LongAdder misses = new LongAdder();
+	
+	/**
+	 * 
+	 */
+	protected FileResourceManager() {
+		// do nothing
+	}
+	
+	/**
+	 * Returns the current resource for file, or null, if there is no such file
+	 */
+	public FileResource getResource(File file) throws IOException {
+		String key = file.getPath();
+		FileResource result = resources.get(key);
+		if ((result != null) && result.isCurrent()) {
+			hits.increment();
+			if (result.hasContents()) {
+				touchContents(key);
+			}
+			return result;
+		}
+		
+		misses.increment();
+		result = readResource(file);
+		if (result == null) {
+			removeResource(key);
+			return null;
+		}
+		
+		if (resources.size() >= MAX_ENTRIES) {
+			clear();
+		}
+		
+		putResource(key, result);
+		if (result.hasContents()) {
+			evictContents(SysConfig.getFileCacheSize());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads all files below dir, so that their fingerprints are known before pages link to them
+	 */
+	public int addResources(File dir) throws IOException {
+		int result = 0;
+		
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					result += addResources(files[i]);
+				} else if (getResource(files[i]) != null) {
+					result++;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns relativePath with the fingerprint of the file it names, or as is, if there is no such file
+	 */
+	public String asFingerprintedPath(String relativePath) {
+		File file = new File(SysConfig.getRootDirAsString(), relativePath);
+		try {
+			FileResource resource = getResource(file);
+			if (resource != null) {
+				return insertFingerprint(relativePath, resource.getFingerprint());
+			}
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+		}
+		
+		return relativePath;
+	}
+	
+	/**
+	 * 
+	 */
+	public static String insertFingerprint(String path, String fingerprint) {
+		int nameIndex = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar));
+		int extensionIndex = path.lastIndexOf('.');
+		if (extensionIndex > nameIndex) {
+			return path.substring(0, extensionIndex) + "." + fingerprint + path.substring(extensionIndex);
+		} else {
+			return path + "." + fingerprint;
+		}
+	}
+	
+	/**
+	 * Returns the fingerprint in path, or null, if it has none
+	 */
+	public static String getFingerprint(String path) {
+		Matcher matcher = FINGERPRINT_PATTERN.matcher(path);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+	
+	/**
+	 * 
+	 */
+	public static String removeFingerprint(String path) {
+		Matcher matcher = FINGERPRINT_PATTERN.matcher(path);
+		if (!matcher.find()) {
+			return path;
+		}
+		
+		String extension = matcher.group(2);
+		return path.substring(0, matcher.start()) + ((extension != null) ? extension : "");
+	}
+	
+	/**
+	 * 
+	 */
+	protected FileResource readResource(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		long length = file.length();
+		long lastModified = file.lastModified();
+		MessageDigest digest = createDigest();
+		byte[] contents = null;
+		
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (length <= SysConfig.getFileCacheFileSize()) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) length);
+				while (buffer.hasRemaining() && (channel.read(buffer) != -1)) {
+					// read on
+				}
+				contents = Arrays.copyOf(buffer.array(), buffer.position());
+				digest.update(contents);
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					digest.update(buffer);
+					buffer.clear();
+				}
+			}
+		} finally {
+			in.close();
+		}
+		
+		if ((contents != null) && (contents.length != length)) {
+			length = contents.length; // changed while reading; the next request reads it again
+		}
+		
+		return new FileResource(file, length, lastModified, asFingerprint(digest.digest()), contents);
+	}
+	
+	/**
+	 * 
+	 */
+	protected MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex); // SHA-256 is always available
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected String asFingerprint(byte[] digest) {
+		StringBuffer result = new StringBuffer(FINGERPRINT_LENGTH);
+		for (int i = 0; result.length() < FINGERPRINT_LENGTH; i++) {
+			result.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+			result.append(Character.forDigit(digest[i] & 0xf, 16));
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void putResource(String key, FileResource resource) {
+		FileResource old = resources.put(key, resource);
+		if ((old != null) && old.hasContents()) {
+			contentsSize.addAndGet(-old.getLength());
+			contentsKeys.remove(key);
+		}
+		if (resource.hasContents()) {
+			contentsSize.addAndGet(resource.getLength());
+			contentsKeys.put(key, resource.getLength());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void removeResource(String key) {
+		FileResource old = resources.remove(key);
+		if ((old != null) && old.hasContents()) {
+			contentsSize.addAndGet(-old.getLength());
+			contentsKeys.remove(key);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void touchContents(String key) {
+		contentsKeys.get(key);
+	}
+	
+	/**
+	 * Drops the least recently used contents until at most maxSize bytes are left; keeps the most
+	 * recently used contents in any case, as well as all fingerprints.
+	 */
+	protected synchronized void evictContents(long maxSize) {
+		Iterator<String> keys = contentsKeys.keySet().iterator();
+		while ((contentsSize.get() > maxSize) && (contentsKeys.size() > 1)) {
+			String key = keys.next();
+			keys.remove();
+			FileResource resource = resources.get(key);
+			if ((resource != null) && resource.hasContents()) {
+				resources.put(key, resource.asWithoutContents());
+				contentsSize.addAndGet(-resource.getLength());
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		for (String key : resources.keySet()) {
+			removeResource(key);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("size", (long) resources.size());
+		result.put("bytes", contentsSize.get());
+		result.put("hits", hits.sum());
+		result.put("misses", misses.sum());
+		return result;
+	}
+	
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+
+/**
+ * An IdBlockAllocator hands out ids from blocks it reserves in one column of the globals table.
+ * Reserving a block is a single atomic increment of that column, so nodes sharing a database
+ * never hand out the same id, and the globals table is touched only once per block.
+ */
+public class IdBlockAllocator {
+	
+	/**
+	 * 
+	 */
+	protected String columnName;
+	protected int blockSize;
+	
+	/**
+	 * The current block is nextId..lastId; it is used up if nextId > lastId
+	 */
+	protected int nextId = 1;
+	protected int lastId = 0;
+	
+	/**
+	 * 
+	 */
+	protected int noReservedBlocks = 0;
+	
+	/**
+	 * Connection used for reservations only; never borrowed from the pool
+	 */
+	protected DatabaseConnection databaseConnection = null;
+	
+	/**
+	 * 
+	 */
+	public IdBlockAllocator(String myColumnName, int myBlockSize) {
+		columnName = myColumnName;
+		blockSize = Math.max(1, myBlockSize);
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized int getNextId() {
+		if (nextId > lastId) {
+			try {
+				lastId = reserveBlock(blockSize);
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				throw new IllegalStateException("could not reserve ids in " + columnName, sex);
+			}
+			nextId = lastId - blockSize + 1;
+			noReservedBlocks++;
+		}
+		
+		return nextId++;
+	}
+	
+	/**
+	 * Returns the highest id reserved by any node, as of the last block reservation.
+	 */
+	public synchronized int getHighestReservedId() {
+		return lastId;
+	}
+	
+	/**
+	 * Reads the highest id reserved by any node from the database, without reserving any.
+	 */
+	public synchronized int readHighestReservedId() throws SQLException {
+		String query = "SELECT " + columnName + " FROM globals WHERE id = 0";
+
+		DatabaseConnection dbc = ensureDatabaseConnection();
+		try {
+			PreparedStatement stmt = dbc.getReadingStatement(query);
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			int result = rset.next() ? rset.getInt(1) : 0;
+			rset.close();
+			return result;
+		} catch (SQLException sex) {
+			dropDatabaseConnection();
+			throw sex;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized int getNoReservedBlocks() {
+		return noReservedBlocks;
+	}
+	
+	/**
+	 * Reserves noIds ids and returns the last of them. Uses a dedicated connection outside of the pool,
+	 * so that the reservation is committed at once and a request thread that already holds a pooled
+	 * connection never waits for a second one.
+	 */
+	protected int reserveBlock(int noIds) throws SQLException {
+		String query = "UPDATE globals SET " + columnName + " = " + columnName + " + ? WHERE id = 0 RETURNING " + columnName;
+
+		DatabaseConnection dbc = ensureDatabaseConnection();
+		try {
+			PreparedStatement stmt = dbc.getReadingStatement(query);
+			stmt.setInt(1, noIds);
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			if (!rset.next()) {
+				throw new SQLException("globals table has no row to reserve ids from");
+			}
+			
+			int result = rset.getInt(1);
+			rset.close();
+			return result;
+		} catch (SQLException sex) {
+			dropDatabaseConnection();
+			throw sex;
+		}
+	}
+	
+	/**
+	 * Called only while holding the lock on this allocator.
+	 */
+	protected DatabaseConnection ensureDatabaseConnection() throws SQLException {
+		if ((databaseConnection == null) || !databaseConnection.isOpen()) {
+			databaseConnection = new DatabaseConnection("id-" + columnName);
+		}
+		
+		return databaseConnection;
+	}
+	
+	/**
+	 * Closes the dedicated connection; a later reservation opens a new one
+	 */
+	public synchronized void close() {
+		dropDatabaseConnection();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void dropDatabaseConnection() {
+		if (databaseConnection != null) {
+			databaseConnection.close();
+			databaseConnection = null;
+		}
+	}
+
+}
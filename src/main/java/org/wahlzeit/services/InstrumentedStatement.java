@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * An InstrumentedStatement proxies a PreparedStatement to time its executions and count the rows
+ * they return or change. It remembers the bound parameters only to log them with slow queries.
+ */
+public class InstrumentedStatement implements InvocationHandler {
+	
+	/**
+	 * 
+	 */
+	public static PreparedStatement wrap(PreparedStatement stmt, String query, QueryStatistics statistics) {
+		InstrumentedStatement handler = new InstrumentedStatement(stmt, query, statistics);
+		return (PreparedStatement) Proxy.newProxyInstance(
+			PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, handler
+		);
+	}
+	
+	/**
+	 * 
+	 */
+	protected static final Set<String> EXECUTE_METHODS = new HashSet<String>(Arrays.asList(
+		"execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch"
+	));
+	
+	/**
+	 * 
+	 */
+	protected PreparedStatement statement;
+	protected String query;
+	protected QueryStatistics statistics;
+	
+	/**
+	 * 
+	 */
+	protected Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+	protected int noBatchedRows = 0;
+	
+	/**
+	 * 
+	 */
+	protected InstrumentedStatement(PreparedStatement myStatement, String myQuery, QueryStatistics myStatistics) {
+		statement = myStatement;
+		query = myQuery;
+		statistics = myStatistics;
+	}
+	
+	/**
+	 * 
+	 */
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		boolean hasNoArgs = (args == null) || (args.length == 0);
+		
+		if (hasNoArgs && EXECUTE_METHODS.contains(name)) {
+			return execute(method);
+		} else if (name.startsWith("set") && (args != null) && (args.length >= 2) && (args[0] instanceof Integer)) {
+			parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+		} else if (name.equals("clearParameters")) {
+			parameters.clear();
+		} else if (hasNoArgs && name.equals("addBatch")) {
+			noBatchedRows++;
+		} else if (name.equals("clearBatch")) {
+			noBatchedRows = 0;
+		}
+		
+		return invokeOn(statement, method, args);
+	}
+	
+	/**
+	 * 
+	 */
+	protected Object execute(Method method) throws Throwable {
+		long startTime = System.nanoTime();
+		Object result = invokeOn(statement, method, null);
+		long nanos = System.nanoTime() - startTime;
+
+		statistics.recordExecution(query, nanos);
+		if (statistics.isSlowQuery(nanos)) {
+			String batch = (noBatchedRows > 0) ? " [batch of " + noBatchedRows + ", last row]" : "";
+			statistics.logSlowQuery(query, nanos, parameters.values() + batch);
+		}
+		if (method.getName().startsWith("executeBatch") || method.getName().startsWith("executeLargeBatch")) {
+			noBatchedRows = 0;
+		}
+		
+		if (result instanceof ResultSet) {
+			result = RowCounter.wrap((ResultSet) result, query, statistics);
+		} else if (result instanceof Number) {
+			statistics.recordRows(query, ((Number) result).longValue());
+		} else if (result instanceof int[]) {
+			statistics.recordRows(query, sumOfUpdateCounts((int[]) result));
+		} else if (result instanceof long[]) {
+			statistics.recordRows(query, sumOfUpdateCounts((long[]) result));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Ignores Statement.SUCCESS_NO_INFO and other negative counts
+	 */
+	protected static long sumOfUpdateCounts(int[] counts) {
+		long result = 0;
+		for (int i = 0; i < counts.length; i++) {
+			result += Math.max(0, counts[i]);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static long sumOfUpdateCounts(long[] counts) {
+		long result = 0;
+		for (int i = 0; i < counts.length; i++) {
+			result += Math.max(0, counts[i]);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+	
+	/**
+	 * A RowCounter proxies a ResultSet to count the rows read; it reports them when the
+	 * result set is used up or closed.
+	 */
+	protected static class RowCounter implements InvocationHandler {
+		
+		/**
+		 * 
+		 */
+		protected static ResultSet wrap(ResultSet rset, String query, QueryStatistics statistics) {
+			RowCounter handler = new RowCounter(rset, query, statistics);
+			return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, handler
+			);
+		}
+		
+		/**
+		 * 
+		 */
+		protected ResultSet resultSet;
+		protected String query;
+		protected QueryStatistics statistics;
+		protected long noRows = 0;
+		protected boolean isReported = false;
+		
+		/**
+		 * 
+		 */
+		protected RowCounter(ResultSet myResultSet, String myQuery, QueryStatistics myStatistics) {
+			resultSet = myResultSet;
+			query = myQuery;
+			statistics = myStatistics;
+		}
+		
+		/**
+		 * 
+		 */
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeOn(resultSet, method, args);
+			
+			String name = method.getName();
+			if (name.equals("next")) {
+				if (Boolean.TRUE.equals(result)) {
+					noRows++;
+				} else {
+					report();
+				}
+			} else if (name.equals("close")) {
+				report();
+			}
+			
+			return result;
+		}
+		
+		/**
+		 * 
+		 */
+		protected void report() {
+			if (!isReported) {
+				isReported = true;
+				statistics.recordRows(query, noRows);
+			}
+		}
+	}
+
+}
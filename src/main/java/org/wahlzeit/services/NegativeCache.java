@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A NegativeCache remembers keys that were looked up and not found, for a limited time.
+ * It is bounded; when full, expired keys are dropped and, if that does not suffice, all keys.
+ */
+public class NegativeCache<K> {
+	
+	/**
+	 * Maps a missing key to the time its entry expires
+	 */
+	protected ConcurrentMap<K, Long> expiryTimes = new ConcurrentHashMap<K, Long>();
+	
+	/**
+	 * 
+	 */
+	protected long timeToLive;
+	protected int maxSize;
+	
+	/**
+	 * 
+	 */
+	protected LongAdder hits = new LongAdder();
+	
+	/**
+	 * @param myTimeToLive in milliseconds
+	 */
+	public NegativeCache(long myTimeToLive, int myMaxSize) {
+		timeToLive = myTimeToLive;
+		maxSize = Math.max(1, myMaxSize);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isMissing(K key) {
+		Long expiryTime = expiryTimes.get(key);
+		if (expiryTime == null) {
+			return false;
+		} else if (expiryTime.longValue() < System.currentTimeMillis()) {
+			expiryTimes.remove(key, expiryTime);
+			return false;
+		}
+		
+		hits.increment();
+		return true;
+	}
+	
+	/**
+	 * 
+	 */
+	public void addMissing(K key) {
+		if (timeToLive <= 0) {
+			return;
+		}
+		
+		expiryTimes.put(key, System.currentTimeMillis() + timeToLive);
+		if (expiryTimes.size() > maxSize) {
+			removeExpired();
+			if (expiryTimes.size() > maxSize) {
+				expiryTimes.clear();
+			}
+		}
+	}
+	
+	/**
+	 * To be called when the key comes into existence
+	 */
+	public void remove(K key) {
+		expiryTimes.remove(key);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void removeExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<K, Long>> i = expiryTimes.entrySet().iterator(); i.hasNext(); ) {
+			if (i.next().getValue().longValue() < now) {
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return expiryTimes.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return hits.sum();
+	}
+	
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An ObjectCache is a thread-safe, bounded cache for Persistent objects. Reads do not lock.
+ * When the cache grows beyond its capacity, entries are evicted in clock order, where each read
+ * buys an entry another round (up to MAX_FREQUENCY), so frequently used objects stay cached.
+ * Dirty objects are pinned: they are passed over until they have been written.
+ * 
+ * Evicted objects are remembered weakly, so that an object still referenced elsewhere is found
+ * again instead of being read a second time and existing twice.
+ */
+public class ObjectCache<K, V extends Persistent> {
+	
+	/**
+	 * Number of extra rounds an entry may earn by being read
+	 */
+	public static final int MAX_FREQUENCY = 3;
+	
+	/**
+	 * 
+	 */
+	protected static class Entry<K, V> {
+		
+		protected final K key;
+		protected final V value;
+
+		/**
+		 * Updated without synchronization; a lost update only costs precision
+		 */
+		protected volatile int frequency = 0;
+		protected volatile boolean isRemoved = false;
+		
+		protected Entry(K myKey, V myValue) {
+			key = myKey;
+			value = myValue;
+		}
+		
+		protected void touch() {
+			if (frequency < MAX_FREQUENCY) {
+				frequency++;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static class EvictedReference<K, V> extends WeakReference<V> {
+		
+		protected final K key;
+		
+		protected EvictedReference(K myKey, V myValue, ReferenceQueue<V> queue) {
+			super(myValue, queue);
+			key = myKey;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected String name;
+	protected int capacity;
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<K, Entry<K, V>> entries = new ConcurrentHashMap<K, Entry<K, V>>();
+	protected Queue<Entry<K, V>> clock = new ConcurrentLinkedQueue<Entry<K, V>>();
+	protected Object evictionLock = new Object();
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<K, EvictedReference<K, V>> evicted = new ConcurrentHashMap<K, EvictedReference<K, V>>();
+	protected ReferenceQueue<V> evictedQueue = new ReferenceQueue<V>();
+	
+	/**
+	 * 
+	 */
+	protected LongAdder hits = new LongAdder();
+	protected LongAdder misses = new LongAdder();
+	protected LongAdder evictions = new LongAdder();
+	protected LongAdder recoveries = new LongAdder();
+	
+	/**
+	 * 
+	 */
+	public ObjectCache(String myName, int myCapacity) {
+		name = myName;
+		capacity = Math.max(1, myCapacity);
+	}
+	
+	/**
+	 * Returns the cached object or null; counts as a hit or miss
+	 */
+	public V get(K key) {
+		Entry<K, V> entry = entries.get(key);
+		if (entry != null) {
+			entry.touch();
+			hits.increment();
+			return entry.value;
+		}
+		
+		V result = recover(key);
+		if (result != null) {
+			hits.increment();
+			return result;
+		}
+		
+		misses.increment();
+		return null;
+	}
+	
+	/**
+	 * Like get, but neither counts nor touches
+	 */
+	public V peek(K key) {
+		Entry<K, V> entry = entries.get(key);
+		return (entry != null) ? entry.value : null;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+	
+	/**
+	 * Adds value unless the key is cached already; returns the cached value in that case, null otherwise
+	 */
+	public V putIfAbsent(K key, V value) {
+		Entry<K, V> entry = new Entry<K, V>(key, value);
+		Entry<K, V> existing = entries.putIfAbsent(key, entry);
+		if (existing != null) {
+			return existing.value;
+		}
+		
+		clock.offer(entry);
+		evicted.remove(key);
+		added(key, value);
+		evictIfFull();
+		return null;
+	}
+	
+	/**
+	 * Adds value, replacing a cached value of the same key
+	 */
+	public void put(K key, V value) {
+		Entry<K, V> entry = new Entry<K, V>(key, value);
+		Entry<K, V> existing = entries.put(key, entry);
+		if (existing != null) {
+			existing.isRemoved = true;
+			removed(key, existing.value);
+		}
+		
+		clock.offer(entry);
+		evicted.remove(key);
+		added(key, value);
+		evictIfFull();
+	}
+	
+	/**
+	 * 
+	 */
+	public V remove(K key) {
+		evicted.remove(key);
+		Entry<K, V> entry = entries.remove(key);
+		if (entry == null) {
+			return null;
+		}
+		
+		entry.isRemoved = true; // dropped from the clock when the hand passes
+		removed(key, entry.value);
+		return entry.value;
+	}
+	
+	/**
+	 * Returns a snapshot of the cached objects
+	 */
+	public List<V> getValues() {
+		List<V> result = new ArrayList<V>(entries.size());
+		for (Entry<K, V> entry : entries.values()) {
+			result.add(entry.value);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		for (K key : new ArrayList<K>(entries.keySet())) {
+			remove(key);
+		}
+		evicted.clear();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isFull() {
+		return entries.size() >= capacity;
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Pinned objects are not evicted
+	 */
+	protected boolean isPinned(V value) {
+		return value.isDirty();
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Called after value has been added
+	 */
+	protected void added(K key, V value) {
+		// do nothing
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Called after value has been removed or replaced
+	 */
+	protected void removed(K key, V value) {
+		// do nothing
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Called after value has been evicted
+	 */
+	protected void evicted(K key, V value) {
+		// do nothing
+	}
+	
+	/**
+	 * Moves the clock hand until the cache fits its capacity again. If all remaining entries are pinned,
+	 * the cache stays over capacity until they have been written.
+	 */
+	protected void evictIfFull() {
+		if (entries.size() <= capacity) {
+			return;
+		}
+		
+		synchronized(evictionLock) {
+			expungeEvicted();
+			
+			int noSteps = clock.size() * (MAX_FREQUENCY + 1);
+			while ((entries.size() > capacity) && (noSteps-- > 0)) {
+				Entry<K, V> entry = clock.poll();
+				if (entry == null) {
+					break;
+				} else if (entry.isRemoved) {
+					continue;
+				} else if (entry.frequency > 0) {
+					entry.frequency--;
+					clock.offer(entry);
+				} else if (isPinned(entry.value)) {
+					clock.offer(entry);
+				} else if (entries.remove(entry.key, entry)) {
+					entry.isRemoved = true;
+					evictions.increment();
+					evicted.put(entry.key, new EvictedReference<K, V>(entry.key, entry.value, evictedQueue));
+					evicted(entry.key, entry.value);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Re-admits an evicted object that is still referenced elsewhere
+	 */
+	protected V recover(K key) {
+		EvictedReference<K, V> ref = evicted.get(key);
+		if (ref == null) {
+			return null;
+		}
+		
+		V value = ref.get();
+		if (value == null) {
+			evicted.remove(key, ref);
+			return null;
+		}
+		
+		V existing = putIfAbsent(key, value);
+		if (existing != null) {
+			return existing;
+		}
+		
+		recoveries.increment();
+		return value;
+	}
+	
+	/**
+	 * Drops the references of evicted objects that have been garbage collected
+	 */
+	@SuppressWarnings("unchecked")
+	protected void expungeEvicted() {
+		for (Reference<? extends V> ref = evictedQueue.poll(); ref != null; ref = evictedQueue.poll()) {
+			EvictedReference<K, V> evictedRef = (EvictedReference<K, V>) ref;
+			evicted.remove(evictedRef.key, evictedRef);
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoEvictions() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("size", (long) getSize());
+		result.put("capacity", (long) capacity);
+		result.put("hits", getNoHits());
+		result.put("misses", getNoMisses());
+		result.put("evictions", getNoEvictions());
+		result.put("recoveries", recoveries.sum());
+		return result;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String getStatisticsAsString() {
+		return name + " " + getStatistics().toString();
+	}
+	
+}
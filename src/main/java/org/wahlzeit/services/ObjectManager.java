@@ -8,6 +8,7 @@ package org.wahlzeit.services;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An ObjectManager creates/reads/updates/deletes Persistent (objects) from a database.
@@ -93,6 +94,161 @@ public abstract class ObjectManager {
 		}
 	}
 		
+	/**
+	 * Reads all rows of tableName with minId <= id <= maxId and hands each object to loadObject as soon as it
+	 * has been read. The id space is split into ranges which are scanned in parallel, each on its own pooled
+	 * connection and with a cursor, so that the whole table is never buffered at once.
+	 */
+	protected int loadObjectsInRanges(final String tableName, int minId, int maxId) throws SQLException {
+		int noThreads = Math.max(1, SysConfig.getDbLoaderThreads());
+		long rangeSize = Math.max(1L, ((long) maxId - minId + 1) / (noThreads * 4) + 1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads);
+		List<Future<Integer>> ranges = new ArrayList<Future<Integer>>();
+		for (long lowerBound = minId; lowerBound <= maxId; lowerBound += rangeSize) {
+			final int from = (int) lowerBound;
+			final int to = (int) Math.min(lowerBound + rangeSize - 1, maxId);
+			ranges.add(executor.submit(new Callable<Integer>() {
+				public Integer call() throws SQLException {
+					return loadRange(tableName, from, to);
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		int result = 0;
+		SQLException failure = null;
+		for (Future<Integer> range : ranges) {
+			try {
+				result += range.get();
+			} catch (ExecutionException ex) {
+				SysLog.logThrowable(ex.getCause());
+				failure = new SQLException("could not load " + tableName, ex.getCause());
+			} catch (InterruptedException ex) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new SQLException("interrupted while loading " + tableName, ex);
+			}
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+		
+		SysLog.logSysInfo("loaded " + result + " rows from " + tableName + " in " + ranges.size() + " ranges");
+		return result;
+	}
+	
+	/**
+	 * Runs in a loader thread, with a session and connection of its own.
+	 */
+	protected int loadRange(String tableName, int from, int to) throws SQLException {
+		Session session = new SysSession(tableName + "-loader-" + from);
+		SessionManager.setThreadLocalSession(session);
+		try {
+			DatabaseConnection dbc = session.ensureDatabaseConnection();
+			if (dbc == null) {
+				throw new SQLException("no database connection for loading " + tableName);
+			}
+			
+			Connection conn = dbc.getRdbmsConnection();
+			boolean wasAutoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false); // the driver only fetches with a cursor inside a transaction
+			PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + tableName + " WHERE id >= ? AND id <= ?");
+			try {
+				stmt.setFetchSize(SysConfig.getDbFetchSize());
+				stmt.setInt(1, from);
+				stmt.setInt(2, to);
+				SysLog.logQuery(stmt);
+				ResultSet rset = stmt.executeQuery();
+				int result = loadObjects(rset);
+				rset.close();
+				return result;
+			} finally {
+				stmt.close();
+				conn.rollback(); // read only
+				conn.setAutoCommit(wasAutoCommit);
+			}
+		} finally {
+			session.returnDatabaseConnection();
+			SessionManager.dropThreadLocalSession();
+		}
+	}
+	
+	/**
+	 * Streams the values of one column into a new Bloom filter, sized for twice the current number of rows
+	 * so that it stays accurate while keys are added. Integer columns are added as numbers, others as strings.
+	 */
+	protected BloomFilter readBloomFilter(String tableName, String columnName) throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		long noRows = 0;
+		Statement countStmt = conn.createStatement();
+		try {
+			ResultSet rset = countStmt.executeQuery("SELECT count(*) FROM " + tableName);
+			if (rset.next()) {
+				noRows = rset.getLong(1);
+			}
+			rset.close();
+		} finally {
+			countStmt.close();
+		}
+		
+		BloomFilter result = new BloomFilter(Math.max(2 * noRows, 1024), SysConfig.getBloomFilterFalsePositives());
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false); // the driver only fetches with a cursor inside a transaction
+		PreparedStatement stmt = conn.prepareStatement("SELECT " + columnName + " FROM " + tableName);
+		try {
+			stmt.setFetchSize(SysConfig.getDbFetchSize());
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			int columnType = rset.getMetaData().getColumnType(1);
+			boolean isNumeric = (columnType == Types.INTEGER) || (columnType == Types.BIGINT) || (columnType == Types.SMALLINT);
+			while (rset.next()) {
+				if (isNumeric) {
+					result.add(rset.getLong(1));
+				} else {
+					String key = rset.getString(1);
+					if (key != null) {
+						result.add(key);
+					}
+				}
+			}
+			rset.close();
+		} finally {
+			stmt.close();
+			conn.rollback(); // read only
+			conn.setAutoCommit(wasAutoCommit);
+		}
+		
+		SysLog.logSysInfo("loaded " + result.getNoKeys() + " keys of " + tableName + "." + columnName + " into Bloom filter");
+		return result;
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Hook method for subclasses that need to post-process rows; loadObject may be called from several threads.
+	 */
+	protected int loadObjects(ResultSet rset) throws SQLException {
+		int result = 0;
+		while (rset.next()) {
+			Persistent obj = createObject(rset);
+			if (obj != null) {
+				loadObject(obj);
+				result++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @methodproperty hook
+	 */
+	protected void loadObject(Persistent obj) {
+		// do nothing
+	}
+	
 	/**
 	 * 
 	 */
@@ -117,32 +273,138 @@ public abstract class ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * Writes the object now or, in write-behind mode, queues it for the next flush.
+	 */
+	protected void saveObject(Persistent obj, String tableName) throws SQLException {
+		if (SysConfig.isWriteBehind()) {
+			WriteBehindQueue.getInstance().add(this, tableName, obj);
+		} else {
+			updateObject(obj, tableName);
+		}
+	}
+	
+	/**
+	 * Writes the object with a parameterized UPDATE statement, if it is dirty.
 	 */
-	protected void updateObject(Persistent obj, PreparedStatement stmt) throws SQLException {
+	protected void updateObject(Persistent obj, String tableName) throws SQLException {
 		if (obj.isDirty()) {
-			obj.writeId(stmt, 1);
-			SysLog.logQuery(stmt);
-			ResultSet rset = stmt.executeQuery();
-			if (rset.next()) {
-				obj.writeOn(rset);
-				rset.updateRow();
-				updateDependents(obj);
+			List<Persistent> dirty = new ArrayList<Persistent>(1);
+			dirty.add(obj);
+			updateDirtyObjects(dirty, tableName, 1);
+		}
+	}
+	
+	/**
+	 * Writes all dirty objects of the collection with parameterized UPDATE statements,
+	 * sent to the database in batches of the configured size.
+	 */
+	protected void updateObjects(Collection coll, String tableName) throws SQLException {
+		List<Persistent> dirty = new ArrayList<Persistent>();
+		for (Iterator i = coll.iterator(); i.hasNext(); ) {
+			Persistent obj = (Persistent) i.next();
+			if (obj.isDirty()) {
+				dirty.add(obj);
+			}
+		}
+		
+		updateDirtyObjects(dirty, tableName, SysConfig.getDbBatchSize());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updateDirtyObjects(List<Persistent> dirty, String tableName, int batchSize) throws SQLException {
+		for (int from = 0; from < dirty.size(); from += batchSize) {
+			int to = Math.min(from + batchSize, dirty.size());
+			updateDirtyObjectsInTransaction(dirty.subList(from, to), tableName);
+		}
+	}
+	
+	/**
+	 * Runs one batch in its own transaction, unless the caller already started one.
+	 */
+	protected void updateDirtyObjectsInTransaction(List<Persistent> batch, String tableName) throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean isOwnTransaction = conn.getAutoCommit();
+		if (isOwnTransaction) {
+			conn.setAutoCommit(false);
+		}
+		
+		try {
+			List<Persistent> updated = doUpdateDirtyObjects(batch, tableName);
+			updateAllDependents(updated);
+			
+			if (isOwnTransaction) {
+				conn.commit();
+			}
+			
+			for (Persistent obj : updated) {
 				obj.resetWriteCount();
-			} else {
-				SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+			}
+		} catch (SQLException ex) {
+			if (isOwnTransaction) {
+				conn.rollback();
+				for (Persistent obj : batch) {
+					rollbackDependents(obj);
+				}
+			}
+			throw ex;
+		} finally {
+			if (isOwnTransaction) {
+				conn.setAutoCommit(true);
 			}
 		}
 	}
 	
 	/**
+	 * Objects of different (sub)classes may write different columns; each distinct
+	 * UPDATE statement gets its own JDBC batch.
 	 * 
+	 * @return the objects that were actually found and updated
 	 */
-	protected void updateObjects(Collection coll, PreparedStatement stmt) throws SQLException {
-		for (Iterator i = coll.iterator(); i.hasNext(); ) {
-			Persistent obj = (Persistent) i.next();
-			updateObject(obj, stmt);
+	protected List<Persistent> doUpdateDirtyObjects(List<Persistent> batch, String tableName) throws SQLException {
+		Map<String, List<RowValues>> rowsByStatement = new LinkedHashMap<String, List<RowValues>>();
+		for (Persistent obj : batch) {
+			RowValues row = RowValues.getFromPersistent(obj);
+			String query = row.asUpdateStatementString(tableName, DataObject.ID);
+			List<RowValues> rows = rowsByStatement.get(query);
+			if (rows == null) {
+				rows = new ArrayList<RowValues>();
+				rowsByStatement.put(query, rows);
+			}
+			rows.add(row);
 		}
+		
+		List<Persistent> result = new ArrayList<Persistent>(batch.size());
+		for (Map.Entry<String, List<RowValues>> entry : rowsByStatement.entrySet()) {
+			List<RowValues> rows = entry.getValue();
+			PreparedStatement stmt = getReadingStatement(entry.getKey());
+			int[] updateCounts = null;
+			try {
+				for (RowValues row : rows) {
+					int keyPos = row.bindTo(stmt, DataObject.ID);
+					row.getObject().writeId(stmt, keyPos);
+					stmt.addBatch();
+				}
+
+				SysLog.logQuery(entry.getKey() + " [batch of " + rows.size() + "]");
+				updateCounts = stmt.executeBatch();
+			} finally {
+				// statement is cached per connection; never leave a partial batch behind
+				stmt.clearBatch();
+			}
+			
+			for (int i = 0; i < rows.size(); i++) {
+				Persistent obj = rows.get(i).getObject();
+				if (updateCounts[i] == 0) {
+					SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+				} else {
+					result.add(obj);
+				}
+			}
+		}
+		
+		return result;
 	}
 	
 	/**
@@ -152,6 +414,26 @@ public abstract class ObjectManager {
 		// do nothing
 	}
 	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Hook method for subclasses that can update the dependents of many objects at once.
+	 */
+	protected void updateAllDependents(List<Persistent> objs) throws SQLException {
+		for (Persistent obj : objs) {
+			updateDependents(obj);
+		}
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Hook method for subclasses to forget what they assumed to be written for the object's dependents.
+	 */
+	protected void rollbackDependents(Persistent obj) {
+		// do nothing
+	}
+	
 	/**
 	 * 
 	 */
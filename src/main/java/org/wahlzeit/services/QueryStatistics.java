@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * QueryStatistics keeps one QueryTimer per SQL statement template and logs slow queries.
+ */
+public class QueryStatistics {
+	
+	/**
+	 * 
+	 */
+	protected static QueryStatistics instance = null;
+	
+	/**
+	 * 
+	 */
+	public static synchronized QueryStatistics getInstance() {
+		if (instance == null) {
+			instance = new QueryStatistics(SysConfig.getDbSlowQueryThreshold());
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<String, QueryTimer> timers = new ConcurrentHashMap<String, QueryTimer>();
+	
+	/**
+	 * In nanoseconds
+	 */
+	protected long slowQueryThreshold;
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noSlowQueries = new AtomicLong();
+	
+	/**
+	 * @param mySlowQueryThreshold in milliseconds
+	 */
+	protected QueryStatistics(long mySlowQueryThreshold) {
+		slowQueryThreshold = Math.min(mySlowQueryThreshold, Long.MAX_VALUE / 1000000) * 1000000;
+	}
+	
+	/**
+	 * 
+	 */
+	public QueryTimer getTimer(String query) {
+		QueryTimer result = timers.get(query);
+		if (result == null) {
+			QueryTimer newTimer = new QueryTimer(query);
+			result = timers.putIfAbsent(query, newTimer);
+			if (result == null) {
+				result = newTimer;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordExecution(String query, long nanos) {
+		getTimer(query).addExecution(nanos);
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordRows(String query, long rows) {
+		getTimer(query).addRows(rows);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isSlowQuery(long nanos) {
+		return nanos >= slowQueryThreshold;
+	}
+	
+	/**
+	 * 
+	 */
+	public void logSlowQuery(String query, long nanos, String parameters) {
+		noSlowQueries.incrementAndGet();
+		SysLog.logSysInfo("slow query", (nanos / 1000000) + "ms", query + " " + parameters);
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoSlowQueries() {
+		return noSlowQueries.get();
+	}
+	
+	/**
+	 * Returns all timers, the one with the highest total time first
+	 */
+	public List<QueryTimer> getTimersByTotalTime() {
+		List<QueryTimer> result = new ArrayList<QueryTimer>(timers.values());
+		Collections.sort(result, new Comparator<QueryTimer>() {
+			public int compare(QueryTimer t1, QueryTimer t2) {
+				return Long.compare(t2.getTotalNanos(), t1.getTotalNanos());
+			}
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getStatisticsAsString() {
+		StringBuffer result = new StringBuffer(1024);
+		result.append(String.format("%10s %10s %10s %10s %10s %12s  %s%n", "count", "avg ms", "p95 ms", "max ms", "total ms", "rows", "query"));
+		for (QueryTimer timer : getTimersByTotalTime()) {
+			long p95 = timer.getPercentileBound(0.95);
+			result.append(String.format("%10d %10.2f %10s %10d %10d %12d  %s%n",
+				timer.getNoExecutions(),
+				timer.getAverageMillis(),
+				(p95 < 0) ? ">" + QueryTimer.BUCKET_BOUNDS[QueryTimer.BUCKET_BOUNDS.length - 1] : "<" + p95,
+				timer.getMaxNanos() / 1000000,
+				timer.getTotalNanos() / 1000000,
+				timer.getNoRows(),
+				timer.getQuery()
+			));
+		}
+		result.append("slow queries: " + getNoSlowQueries());
+		
+		return result.toString();
+	}
+	
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A QueryTimer aggregates executions of one SQL statement template: count, rows, total and
+ * maximum time, and a latency histogram. All counters may be updated concurrently.
+ */
+public class QueryTimer {
+	
+	/**
+	 * Upper bounds of the histogram buckets in milliseconds; a last bucket takes everything slower
+	 */
+	public static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+	
+	/**
+	 * 
+	 */
+	protected String query;
+	
+	/**
+	 * 
+	 */
+	protected LongAdder noExecutions = new LongAdder();
+	protected LongAdder noRows = new LongAdder();
+	protected LongAdder totalNanos = new LongAdder();
+	protected AtomicLong maxNanos = new AtomicLong();
+	protected AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+	
+	/**
+	 * 
+	 */
+	public QueryTimer(String myQuery) {
+		query = myQuery;
+	}
+	
+	/**
+	 * 
+	 */
+	public void addExecution(long nanos) {
+		noExecutions.increment();
+		totalNanos.add(nanos);
+		buckets.incrementAndGet(getBucketIndex(nanos));
+		
+		long max = maxNanos.get();
+		while ((nanos > max) && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void addRows(long rows) {
+		noRows.add(rows);
+	}
+	
+	/**
+	 * Bucket i counts executions of at most BUCKET_BOUNDS[i] milliseconds, like a Prometheus "le" bucket
+	 */
+	public static int getBucketIndex(long nanos) {
+		int i = 0;
+		while ((i < BUCKET_BOUNDS.length) && (nanos > BUCKET_BOUNDS[i] * 1000000)) {
+			i++;
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public String getQuery() {
+		return query;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoExecutions() {
+		return noExecutions.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRows() {
+		return noRows.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public double getAverageMillis() {
+		long count = getNoExecutions();
+		return (count == 0) ? 0 : (double) getTotalNanos() / count / 1000000;
+	}
+	
+	/**
+	 * Returns the number of executions in the bucket with the given index
+	 */
+	public long getBucketCount(int index) {
+		return buckets.get(index);
+	}
+	
+	/**
+	 * Returns the upper bound of the bucket the given percentile (0..1) falls into, or -1 if it falls into the last one.
+	 */
+	public long getPercentileBound(double percentile) {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			count += buckets.get(i);
+		}
+		
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			seen += buckets.get(i);
+			if ((seen >= rank) && (seen > 0)) {
+				return BUCKET_BOUNDS[i];
+			}
+		}
+		
+		return (count == 0) ? 0 : -1;
+	}
+
+}
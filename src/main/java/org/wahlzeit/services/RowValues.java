@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * RowValues captures the column values a Persistent object writes on a ResultSet.
+ * This lets the object's writeOn(ResultSet) method serve as the single column mapping
+ * for both updatable result sets and parameterized UPDATE statements.
+ */
+public class RowValues implements InvocationHandler {
+	
+	/**
+	 * 
+	 */
+	protected Persistent object;
+	
+	/**
+	 * Column names, values, and SQL types in the order they were written
+	 */
+	protected List<String> columnNames = new ArrayList<String>();
+	protected List<Object> values = new ArrayList<Object>();
+	protected List<Integer> sqlTypes = new ArrayList<Integer>();
+	
+	/**
+	 * @methodtype factory
+	 */
+	public static RowValues getFromPersistent(Persistent obj) throws SQLException {
+		RowValues result = new RowValues(obj);
+		ResultSet recorder = (ResultSet) Proxy.newProxyInstance(
+			ResultSet.class.getClassLoader(),
+			new Class<?>[] { ResultSet.class },
+			result
+		);
+		obj.writeOn(recorder);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected RowValues(Persistent myObject) {
+		object = myObject;
+	}
+	
+	/**
+	 * Records updateXxx(columnLabel, value) and updateNull(columnLabel) calls; rejects everything else.
+	 */
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		String methodName = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (methodName.equals("equals")) {
+				return proxy == args[0];
+			} else if (methodName.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else {
+				return "RowValues" + columnNames;
+			}
+		}
+		
+		if (methodName.equals("updateNull") && (args.length == 1) && (args[0] instanceof String)) {
+			addValue((String) args[0], null, Types.NULL);
+			return null;
+		}
+
+		if (methodName.startsWith("update") && (args != null) && (args.length == 2) && (args[0] instanceof String)) {
+			addValue((String) args[0], args[1], getSqlTypeFromMethodName(methodName));
+			return null;
+		}
+		
+		throw new UnsupportedOperationException("RowValues only records column updates, not: " + methodName);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addValue(String columnName, Object value, int sqlType) {
+		int index = columnNames.indexOf(columnName);
+		if (index == -1) {
+			columnNames.add(columnName);
+			values.add(value);
+			sqlTypes.add(sqlType);
+		} else {
+			values.set(index, value);
+			sqlTypes.set(index, sqlType);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static int getSqlTypeFromMethodName(String methodName) {
+		if (methodName.equals("updateString")) {
+			return Types.VARCHAR;
+		} else if (methodName.equals("updateInt")) {
+			return Types.INTEGER;
+		} else if (methodName.equals("updateLong")) {
+			return Types.BIGINT;
+		} else if (methodName.equals("updateBoolean")) {
+			return Types.BOOLEAN;
+		} else if (methodName.equals("updateShort")) {
+			return Types.SMALLINT;
+		} else if (methodName.equals("updateDouble")) {
+			return Types.DOUBLE;
+		} else if (methodName.equals("updateFloat")) {
+			return Types.REAL;
+		} else if (methodName.equals("updateTimestamp")) {
+			return Types.TIMESTAMP;
+		} else {
+			return Types.OTHER;
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public Persistent getObject() {
+		return object;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public List<String> getColumnNames() {
+		return Collections.unmodifiableList(columnNames);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public Object getValue(String columnName) {
+		int index = columnNames.indexOf(columnName);
+		return (index == -1) ? null : values.get(index);
+	}
+	
+	/**
+	 * Returns "UPDATE table SET col = ?, ... WHERE key = ?" for all recorded columns but the key column.
+	 * 
+	 * @methodtype conversion
+	 */
+	public String asUpdateStatementString(String tableName, String keyColumnName) {
+		StringBuilder sb = new StringBuilder(64 + columnNames.size() * 24);
+		sb.append("UPDATE ").append(tableName).append(" SET ");
+		boolean isFirst = true;
+		for (String columnName : columnNames) {
+			if (!columnName.equals(keyColumnName)) {
+				if (!isFirst) {
+					sb.append(", ");
+				}
+				sb.append('"').append(columnName).append("\" = ?");
+				isFirst = false;
+			}
+		}
+		sb.append(" WHERE ").append(keyColumnName).append(" = ?");
+		return sb.toString();
+	}
+	
+	/**
+	 * Binds all recorded values but the key column's value in recording order, starting at position 1.
+	 * 
+	 * @return next free parameter position, the one for the key
+	 */
+	public int bindTo(PreparedStatement stmt, String keyColumnName) throws SQLException {
+		int pos = 1;
+		for (int i = 0; i < columnNames.size(); i++) {
+			if (!columnNames.get(i).equals(keyColumnName)) {
+				Object value = values.get(i);
+				int sqlType = sqlTypes.get(i);
+				if (value == null) {
+					stmt.setNull(pos, (sqlType == Types.NULL) ? Types.OTHER : sqlType);
+				} else if (sqlType == Types.OTHER) {
+					stmt.setObject(pos, value);
+				} else {
+					stmt.setObject(pos, value, sqlType);
+				}
+				pos++;
+			}
+		}
+		return pos;
+	}
+	
+}
@@ -35,6 +35,99 @@ public class SysConfig extends AbstractConfig {
 	public static final String DB_USER = "DB_USER";
 	public static final String DB_PASSWORD = "DB_PASSWORD";
 	
+	/**
+	 * Database connection pool settings; times in milliseconds unless noted otherwise
+	 */
+	public static final String DB_POOL_MAX_SIZE = "DB_POOL_MAX_SIZE";
+	public static final String DB_POOL_MAX_WAITING = "DB_POOL_MAX_WAITING";
+	public static final String DB_POOL_MAX_WAIT_TIME = "DB_POOL_MAX_WAIT_TIME";
+	public static final String DB_POOL_VALIDATION_TIMEOUT = "DB_POOL_VALIDATION_TIMEOUT"; // in seconds
+	public static final String DB_POOL_MAX_IDLE_TIME = "DB_POOL_MAX_IDLE_TIME";
+	public static final String DB_POOL_LEAK_THRESHOLD = "DB_POOL_LEAK_THRESHOLD";
+	
+	/**
+	 * Number of rows written per JDBC batch
+	 */
+	public static final String DB_BATCH_SIZE = "DB_BATCH_SIZE";
+	
+	/**
+	 * Startup loading of photos and users; rows fetched per cursor round trip, parallel range scans
+	 */
+	public static final String DB_PRELOAD = "DB_PRELOAD";
+	public static final String DB_FETCH_SIZE = "DB_FETCH_SIZE";
+	public static final String DB_LOADER_THREADS = "DB_LOADER_THREADS";
+	
+	/**
+	 * Number of ids reserved in the globals table at a time
+	 */
+	public static final String DB_ID_BLOCK_SIZE = "DB_ID_BLOCK_SIZE";
+	
+	/**
+	 * Milliseconds between reads of the highest id other nodes have reserved
+	 */
+	public static final String DB_ID_REFRESH_INTERVAL = "DB_ID_REFRESH_INTERVAL";
+	
+	/**
+	 * Queries taking at least this many milliseconds are logged; logging all queries is for debugging only
+	 */
+	public static final String DB_SLOW_QUERY_THRESHOLD = "DB_SLOW_QUERY_THRESHOLD";
+	public static final String DB_LOG_ALL_QUERIES = "DB_LOG_ALL_QUERIES";
+	
+	/**
+	 * Write-behind of changed photos and users; interval in milliseconds
+	 */
+	public static final String WRITE_BEHIND = "WRITE_BEHIND";
+	public static final String WRITE_BEHIND_INTERVAL = "WRITE_BEHIND_INTERVAL";
+	public static final String WRITE_BEHIND_THRESHOLD = "WRITE_BEHIND_THRESHOLD";
+	
+	/**
+	 * Interval in milliseconds after which added praise is written
+	 */
+	public static final String PRAISE_FLUSH_INTERVAL = "PRAISE_FLUSH_INTERVAL";
+	
+	/**
+	 * Maximum number of photos, users, and rendered web parts held in memory
+	 */
+	public static final String PHOTO_CACHE_SIZE = "PHOTO_CACHE_SIZE";
+	public static final String USER_CACHE_SIZE = "USER_CACHE_SIZE";
+	public static final String WEB_PART_CACHE_SIZE = "WEB_PART_CACHE_SIZE";
+	
+	/**
+	 * Static and photo files kept in memory: all together and each at most, in bytes
+	 */
+	public static final String FILE_CACHE_SIZE = "FILE_CACHE_SIZE";
+	public static final String FILE_CACHE_FILE_SIZE = "FILE_CACHE_FILE_SIZE";
+	
+	/**
+	 * Lookups of photos and users that do not exist; time to live in milliseconds. The Bloom filters
+	 * are off by default; they are filled only at startup and by this instance's own adds, so enable
+	 * them only if no other Wahlzeit instance adds photos or users to the same database.
+	 */
+	public static final String NEGATIVE_CACHE_TTL = "NEGATIVE_CACHE_TTL";
+	public static final String NEGATIVE_CACHE_SIZE = "NEGATIVE_CACHE_SIZE";
+	public static final String BLOOM_FILTERS = "BLOOM_FILTERS";
+	public static final String BLOOM_FILTER_FALSE_POSITIVES = "BLOOM_FILTER_FALSE_POSITIVES";
+	
+	/**
+	 * Uploaded photos waiting for their image files: worker threads, queued photos all together and per user
+	 */
+	public static final String INGESTION_THREADS = "INGESTION_THREADS";
+	public static final String INGESTION_QUEUE_SIZE = "INGESTION_QUEUE_SIZE";
+	public static final String INGESTION_USER_QUEUE_SIZE = "INGESTION_USER_QUEUE_SIZE";
+	
+	/**
+	 * Whether only the thumb and medium sizes are created on upload, the others on first request;
+	 * those are kept in the derivatives directory, which holds at most so many bytes
+	 */
+	public static final String LAZY_PHOTO_SIZES = "LAZY_PHOTO_SIZES";
+	public static final String DERIVATIVE_CACHE_SIZE = "DERIVATIVE_CACHE_SIZE";
+	
+	/**
+	 * Largest photo accepted, in pixels, and memory for decoding photos all together, in bytes
+	 */
+	public static final String IMAGE_MAX_PIXELS = "IMAGE_MAX_PIXELS";
+	public static final String IMAGE_DECODE_MEMORY = "IMAGE_DECODE_MEMORY";
+	
 	/**
 	 * 
 	 */
@@ -99,6 +192,7 @@ public class SysConfig extends AbstractConfig {
 	protected Directory photosDir;
 	protected Directory backupDir;
 	protected Directory tempDir;
+	protected Directory derivativesDir;
 	
 	/**
 	 * 
@@ -123,12 +217,59 @@ public class SysConfig extends AbstractConfig {
 		photosDir = new Directory(rootDir, "data" + File.separator + "photos");
 		backupDir = new Directory(rootDir, "data" + File.separator + "backup");
 		tempDir = new Directory(rootDir, "data" + File.separator + "temp");
+		derivativesDir = new Directory(rootDir, "data" + File.separator + "derivatives");
 		
 		// Database connection
 		doSetValue(SysConfig.DB_DRIVER, "org.postgresql.Driver");
 		doSetValue(SysConfig.DB_CONNECTION, "jdbc:postgresql://" + dbHostName + ":5432/wahlzeit");
 		doSetValue(SysConfig.DB_USER, "wahlzeit");
 		doSetValue(SysConfig.DB_PASSWORD, "wahlzeit");
+		
+		// Database connection pool
+		doSetValue(SysConfig.DB_POOL_MAX_SIZE, "20");
+		doSetValue(SysConfig.DB_POOL_MAX_WAITING, "100");
+		doSetValue(SysConfig.DB_POOL_MAX_WAIT_TIME, "5000");
+		doSetValue(SysConfig.DB_POOL_VALIDATION_TIMEOUT, "2");
+		doSetValue(SysConfig.DB_POOL_MAX_IDLE_TIME, String.valueOf(5 * 60 * 1000));
+		doSetValue(SysConfig.DB_POOL_LEAK_THRESHOLD, String.valueOf(60 * 1000));
+		doSetValue(SysConfig.DB_BATCH_SIZE, "500");
+		
+		// Startup loading
+		doSetValue(SysConfig.DB_PRELOAD, "true");
+		doSetValue(SysConfig.DB_FETCH_SIZE, "1000");
+		doSetValue(SysConfig.DB_LOADER_THREADS, "4");
+		doSetValue(SysConfig.DB_ID_BLOCK_SIZE, "100");
+		doSetValue(SysConfig.DB_ID_REFRESH_INTERVAL, "1000");
+		doSetValue(SysConfig.DB_SLOW_QUERY_THRESHOLD, "100");
+		doSetValue(SysConfig.DB_LOG_ALL_QUERIES, "false");
+		
+		// Write-behind
+		doSetValue(SysConfig.WRITE_BEHIND, "false");
+		doSetValue(SysConfig.WRITE_BEHIND_INTERVAL, "5000");
+		doSetValue(SysConfig.WRITE_BEHIND_THRESHOLD, "1000");
+		doSetValue(SysConfig.PRAISE_FLUSH_INTERVAL, "5000");
+		
+		// Caches
+		doSetValue(SysConfig.PHOTO_CACHE_SIZE, "10000");
+		doSetValue(SysConfig.USER_CACHE_SIZE, "10000");
+		doSetValue(SysConfig.WEB_PART_CACHE_SIZE, "10000");
+		doSetValue(SysConfig.FILE_CACHE_SIZE, "33554432");
+		doSetValue(SysConfig.FILE_CACHE_FILE_SIZE, "65536");
+		doSetValue(SysConfig.NEGATIVE_CACHE_TTL, "60000");
+		doSetValue(SysConfig.NEGATIVE_CACHE_SIZE, "10000");
+		doSetValue(SysConfig.BLOOM_FILTERS, "false");
+		doSetValue(SysConfig.BLOOM_FILTER_FALSE_POSITIVES, "0.01");
+		
+		// Photo ingestion
+		doSetValue(SysConfig.INGESTION_THREADS, "2");
+		doSetValue(SysConfig.INGESTION_QUEUE_SIZE, "64");
+		doSetValue(SysConfig.INGESTION_USER_QUEUE_SIZE, "8");
+		
+		// Photo sizes
+		doSetValue(SysConfig.LAZY_PHOTO_SIZES, "false");
+		doSetValue(SysConfig.DERIVATIVE_CACHE_SIZE, "268435456");
+		doSetValue(SysConfig.IMAGE_MAX_PIXELS, "100000000");
+		doSetValue(SysConfig.IMAGE_DECODE_MEMORY, "268435456");
 	}
 	
 	/**
@@ -180,6 +321,13 @@ public class SysConfig extends AbstractConfig {
 		return getInstance().tempDir;
 	}
 
+	/**
+	 * 
+	 */
+	public static Directory getDerivativesDir() {
+		return getInstance().derivativesDir;
+	}
+
 	/**
 	 * 
 	 */
@@ -208,4 +356,242 @@ public class SysConfig extends AbstractConfig {
 		return getInstance().getValue(SysConfig.DB_PASSWORD);
 	}
 
+	/**
+	 * 
+	 */
+	public static int getDbPoolMaxSize() {
+		return getInstance().getValueAsInt(SysConfig.DB_POOL_MAX_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbPoolMaxWaiting() {
+		return getInstance().getValueAsInt(SysConfig.DB_POOL_MAX_WAITING);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolMaxWaitTime() {
+		return getInstance().getValueAsLong(SysConfig.DB_POOL_MAX_WAIT_TIME);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbPoolValidationTimeout() {
+		return getInstance().getValueAsInt(SysConfig.DB_POOL_VALIDATION_TIMEOUT);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolMaxIdleTime() {
+		return getInstance().getValueAsLong(SysConfig.DB_POOL_MAX_IDLE_TIME);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolLeakThreshold() {
+		return getInstance().getValueAsLong(SysConfig.DB_POOL_LEAK_THRESHOLD);
+	}
+
+	/**
+	 * 
+	 */
+	public static int getDbBatchSize() {
+		return getInstance().getValueAsInt(SysConfig.DB_BATCH_SIZE);
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isWriteBehind() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.WRITE_BEHIND).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getWriteBehindInterval() {
+		return getInstance().getValueAsLong(SysConfig.WRITE_BEHIND_INTERVAL);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWriteBehindThreshold() {
+		return getInstance().getValueAsInt(SysConfig.WRITE_BEHIND_THRESHOLD);
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isDbPreload() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.DB_PRELOAD).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbFetchSize() {
+		return getInstance().getValueAsInt(SysConfig.DB_FETCH_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbLoaderThreads() {
+		return getInstance().getValueAsInt(SysConfig.DB_LOADER_THREADS);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getPraiseFlushInterval() {
+		return getInstance().getValueAsLong(SysConfig.PRAISE_FLUSH_INTERVAL);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbIdBlockSize() {
+		return getInstance().getValueAsInt(SysConfig.DB_ID_BLOCK_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbSlowQueryThreshold() {
+		return getInstance().getValueAsLong(SysConfig.DB_SLOW_QUERY_THRESHOLD);
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isDbLogAllQueries() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.DB_LOG_ALL_QUERIES).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getPhotoCacheSize() {
+		return getInstance().getValueAsInt(SysConfig.PHOTO_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getUserCacheSize() {
+		return getInstance().getValueAsInt(SysConfig.USER_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getNegativeCacheTtl() {
+		return getInstance().getValueAsLong(SysConfig.NEGATIVE_CACHE_TTL);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getNegativeCacheSize() {
+		return getInstance().getValueAsInt(SysConfig.NEGATIVE_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isBloomFilters() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.BLOOM_FILTERS).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static double getBloomFilterFalsePositives() {
+		return Double.parseDouble(getInstance().getValue(SysConfig.BLOOM_FILTER_FALSE_POSITIVES).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWebPartCacheSize() {
+		return getInstance().getValueAsInt(SysConfig.WEB_PART_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getFileCacheSize() {
+		return getInstance().getValueAsLong(SysConfig.FILE_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getFileCacheFileSize() {
+		return getInstance().getValueAsInt(SysConfig.FILE_CACHE_FILE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getIngestionThreads() {
+		return getInstance().getValueAsInt(SysConfig.INGESTION_THREADS);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getIngestionQueueSize() {
+		return getInstance().getValueAsInt(SysConfig.INGESTION_QUEUE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getIngestionUserQueueSize() {
+		return getInstance().getValueAsInt(SysConfig.INGESTION_USER_QUEUE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isLazyPhotoSizes() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.LAZY_PHOTO_SIZES).trim());
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDerivativeCacheSize() {
+		return getInstance().getValueAsLong(SysConfig.DERIVATIVE_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getImageMaxPixels() {
+		return getInstance().getValueAsLong(SysConfig.IMAGE_MAX_PIXELS);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getImageDecodeMemory() {
+		return getInstance().getValueAsLong(SysConfig.IMAGE_DECODE_MEMORY);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbIdRefreshInterval() {
+		return getInstance().getValueAsLong(SysConfig.DB_ID_REFRESH_INTERVAL);
+	}
+
 }
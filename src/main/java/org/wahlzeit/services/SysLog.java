@@ -31,6 +31,18 @@ import java.sql.*;
  */
 public class SysLog extends Log {
 	
+	/**
+	 * Query timings and slow queries are recorded by QueryStatistics; logging every query is for debugging only
+	 */
+	protected static boolean isLoggingQueries = false;
+	
+	/**
+	 * 
+	 */
+	public static void setLoggingQueries(boolean newIsLoggingQueries) {
+		isLoggingQueries = newIsLoggingQueries;
+	}
+	
 	/**
 	 * 
 	 */
@@ -70,6 +82,10 @@ public class SysLog extends Log {
 	 * 
 	 */
 	public static final void logQuery(Statement q) {
+		if (!isLoggingQueries) {
+			return;
+		}
+		
 		StringBuffer sb = createSysLogEntry();
 		addLogType(sb, "info");
 		addQuery(sb, q);
@@ -80,6 +96,10 @@ public class SysLog extends Log {
 	 * 
 	 */
 	public static final void logQuery(String s) {
+		if (!isLoggingQueries) {
+			return;
+		}
+		
 		StringBuffer sb = createSysLogEntry();
 		addLogType(sb, "info");
 		addField(sb, "query", s);
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A WriteBehindQueue collects Persistent objects whose changes still need to be written.
+ * Repeated writes of the same object are coalesced into one; a flush writes all queued objects
+ * in batches through their ObjectManager. Once the queue reaches the configured threshold,
+ * it notifies its listener, typically the agent that flushes it.
+ */
+public class WriteBehindQueue {
+	
+	/**
+	 * 
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue();
+	
+	/**
+	 * 
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Queued objects by manager and table; guarded by this
+	 */
+	protected Map<ObjectManager, Map<String, Set<Persistent>>> pending = new LinkedHashMap<ObjectManager, Map<String, Set<Persistent>>>();
+	protected int size = 0;
+	
+	/**
+	 * 
+	 */
+	protected Runnable thresholdListener = null;
+	
+	/**
+	 * After a failed flush, the listener is not notified before this time
+	 */
+	protected volatile long retryTime = 0;
+	
+	/**
+	 * Only one flush at a time
+	 */
+	protected Object flushLock = new Object();
+	
+	/**
+	 * Statistics
+	 */
+	protected AtomicLong queuedCount = new AtomicLong(0);
+	protected AtomicLong coalescedCount = new AtomicLong(0);
+	protected AtomicLong writtenCount = new AtomicLong(0);
+	protected AtomicLong failedCount = new AtomicLong(0);
+	protected AtomicLong flushCount = new AtomicLong(0);
+	protected AtomicLong totalFlushTime = new AtomicLong(0);
+	protected volatile long lastFlushTime = 0;
+	protected volatile long maxFlushTime = 0;
+	
+	/**
+	 * 
+	 */
+	protected WriteBehindQueue() {
+		// do nothing
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void setThresholdListener(Runnable listener) {
+		thresholdListener = listener;
+	}
+	
+	/**
+	 * Queues the object for writing by the manager; does nothing if it is already queued.
+	 */
+	public void add(ObjectManager manager, String tableName, Persistent obj) {
+		Runnable listener = null;
+		synchronized(this) {
+			if (doAdd(manager, tableName, obj)) {
+				queuedCount.incrementAndGet();
+			} else {
+				coalescedCount.incrementAndGet();
+			}
+			
+			if ((size >= SysConfig.getWriteBehindThreshold()) && (System.currentTimeMillis() >= retryTime)) {
+				listener = thresholdListener;
+			}
+		}
+		
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	/**
+	 * Queues the object again after a failed write, without notifying the listener.
+	 */
+	protected synchronized void requeue(ObjectManager manager, String tableName, Persistent obj) {
+		doAdd(manager, tableName, obj);
+	}
+	
+	/**
+	 * Caller must hold the lock on this.
+	 * 
+	 * @return true if the object was not queued yet
+	 */
+	protected boolean doAdd(ObjectManager manager, String tableName, Persistent obj) {
+		Map<String, Set<Persistent>> tables = pending.get(manager);
+		if (tables == null) {
+			tables = new LinkedHashMap<String, Set<Persistent>>();
+			pending.put(manager, tables);
+		}
+		
+		Set<Persistent> objects = tables.get(tableName);
+		if (objects == null) {
+			objects = new LinkedHashSet<Persistent>();
+			tables.put(tableName, objects);
+		}
+		
+		boolean isNew = objects.add(obj);
+		if (isNew) {
+			size++;
+		}
+		
+		return isNew;
+	}
+	
+	/**
+	 * Writes all queued objects. Objects that could not be written are queued again
+	 * and wait for the next scheduled flush; the listener is not notified before then.
+	 * Uses the database connection of the calling thread's session.
+	 * 
+	 * @return number of written objects
+	 */
+	public int flush() {
+		synchronized(flushLock) {
+			Map<ObjectManager, Map<String, Set<Persistent>>> flushing = null;
+			synchronized(this) {
+				if (size == 0) {
+					return 0;
+				}
+				
+				flushing = pending;
+				pending = new LinkedHashMap<ObjectManager, Map<String, Set<Persistent>>>();
+				size = 0;
+			}
+			
+			long startTime = System.currentTimeMillis();
+			int result = 0;
+			for (Map.Entry<ObjectManager, Map<String, Set<Persistent>>> managerEntry : flushing.entrySet()) {
+				ObjectManager manager = managerEntry.getKey();
+				for (Map.Entry<String, Set<Persistent>> tableEntry : managerEntry.getValue().entrySet()) {
+					result += flush(manager, tableEntry.getKey(), tableEntry.getValue());
+				}
+			}
+			
+			recordFlushTime(System.currentTimeMillis() - startTime);
+			writtenCount.addAndGet(result);
+			return result;
+		}
+	}
+	
+	/**
+	 * Batches committed before a failing one are no longer dirty and are not queued again.
+	 */
+	protected int flush(ObjectManager manager, String tableName, Set<Persistent> objects) {
+		List<Persistent> list = new ArrayList<Persistent>(objects);
+		try {
+			manager.updateDirtyObjects(list, tableName, SysConfig.getDbBatchSize());
+			return list.size();
+		} catch (SQLException ex) {
+			SysLog.logThrowable(ex);
+			retryTime = System.currentTimeMillis() + SysConfig.getWriteBehindInterval();
+			int failed = 0;
+			for (Persistent obj : list) {
+				if (obj.isDirty()) {
+					requeue(manager, tableName, obj);
+					failed++;
+				}
+			}
+			failedCount.addAndGet(failed);
+			return list.size() - failed;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void recordFlushTime(long flushTime) {
+		flushCount.incrementAndGet();
+		totalFlushTime.addAndGet(flushTime);
+		lastFlushTime = flushTime;
+		if (flushTime > maxFlushTime) {
+			maxFlushTime = flushTime;
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getQueueDepth() {
+		return size;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getLastFlushTime() {
+		return lastFlushTime;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxFlushTime() {
+		return maxFlushTime;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getAverageFlushTime() {
+		long count = flushCount.get();
+		return (count == 0) ? 0 : totalFlushTime.get() / count;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("depth", (long) getQueueDepth());
+		result.put("queued", queuedCount.get());
+		result.put("coalesced", coalescedCount.get());
+		result.put("written", writtenCount.get());
+		result.put("failed", failedCount.get());
+		result.put("flushes", flushCount.get());
+		result.put("lastFlushMillis", getLastFlushTime());
+		result.put("avgFlushMillis", getAverageFlushTime());
+		result.put("maxFlushMillis", getMaxFlushTime());
+		return result;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String getStatisticsAsString() {
+		return getStatistics().toString();
+	}
+	
+}
@@ -38,12 +38,48 @@ import org.wahlzeit.webparts.*;
  */
 public abstract class AbstractServlet extends HttpServlet {
 	
+	/**
+	 * Logs out the session's user when the session times out, so the user is no longer pinned in the cache
+	 */
+	protected static class SessionLogout implements HttpSessionBindingListener, Serializable {
+		
+		private static final long serialVersionUID = 42L;
+		
+		protected transient UserSession userSession;
+		
+		protected SessionLogout(UserSession myUserSession) {
+			userSession = myUserSession;
+		}
+		
+		public void valueBound(HttpSessionBindingEvent event) {
+			// do nothing
+		}
+		
+		public void valueUnbound(HttpSessionBindingEvent event) {
+			if (userSession != null) {
+				userSession.setClient(new Guest());
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	protected static int lastSessionId = 0; // system and agent are named differently
+	protected static IdBlockAllocator sessionIdAllocator = null; // if null, ids are counted up locally
 	private static final long serialVersionUID = 42L; // any does; class never serialized
 	
+	/**
+	 * 
+	 */
+	protected static final int MIN_RESPONSE_BUFFER_SIZE = 8 * 1024;
+	protected static final int MAX_RESPONSE_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * 
+	 */
+	protected static final WebPartKey PROCESSING_TIME = WebPartKey.valueOf("processingTime");
+	
 	/**
 	 * 
 	 */
@@ -58,11 +94,24 @@ public abstract class AbstractServlet extends HttpServlet {
 		lastSessionId = newSessionId;
 	}
 	
+	/**
+	 * 
+	 */
+	public static synchronized void setSessionIdAllocator(IdBlockAllocator newIdAllocator) {
+		sessionIdAllocator = newIdAllocator;
+	}
+	
 	/**
 	 * 
 	 */
 	public static synchronized int getNextSessionId() {
-		return ++lastSessionId;
+		if (sessionIdAllocator == null) {
+			return ++lastSessionId;
+		}
+		
+		int result = sessionIdAllocator.getNextId();
+		lastSessionId = Math.max(lastSessionId, sessionIdAllocator.getHighestReservedId());
+		return result;
 	}
 	
 	/**
@@ -72,14 +121,18 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);	
 		SessionManager.setThreadLocalSession(us);
 		
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
-			us.returnDatabaseConnection();
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myGet(request, response);
+			}
+		} finally {
+			if (us != null) {
+				us.returnDatabaseConnection();
+			}
+			SessionManager.dropThreadLocalSession();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 	
 	/**
@@ -96,14 +149,18 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);	
 		SessionManager.setThreadLocalSession(us);
 		
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
-			us.returnDatabaseConnection();
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myPost(request, response);
+			}
+		} finally {
+			if (us != null) {
+				us.returnDatabaseConnection();
+			}
+			SessionManager.dropThreadLocalSession();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 	
 	/**
@@ -138,6 +195,7 @@ public abstract class AbstractServlet extends HttpServlet {
 			}
 			
 			httpSession.setAttribute("session", result);
+			httpSession.setAttribute("logout", new SessionLogout(result));
 			httpSession.setMaxInactiveInterval(24 * 60 * 60); // time out after 24h
 		}
 		
@@ -171,18 +229,55 @@ public abstract class AbstractServlet extends HttpServlet {
 	 */
 	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
 		long processingTime = ctx.getProcessingTime();
-		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
+		result.addString(PROCESSING_TIME, StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
 		SysLog.logSysInfo("proctime", String.valueOf(processingTime));
 		
-		response.setContentType("text/html");
+		response.setContentType("text/html; charset=UTF-8");
 
-		PrintWriter out = response.getWriter();
+		OutputStream out = new BufferedOutputStream(response.getOutputStream(), getResponseBufferSize(result));
 		result.writeOn(out);
 		out.close();
 
 		response.setStatus(HttpServletResponse.SC_OK);
 	}
 	
+	/**
+	 * Pages are at least as big as the static text of their template; embedded parts add to that
+	 * 
+	 * @methodtype get
+	 */
+	protected int getResponseBufferSize(WebPart result) {
+		WebPartTemplate template = result.getTemplate();
+		int size = (template != null) ? 2 * template.getSegmentsSize() : 0;
+		return Math.min(Math.max(size, MIN_RESPONSE_BUFFER_SIZE), MAX_RESPONSE_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Compares weakly, as If-None-Match requires
+	 * 
+	 * @methodtype boolean-query
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String etag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		
+		String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+		String[] candidates = ifNoneMatch.split(",");
+		for (int i = 0; i < candidates.length; i++) {
+			String candidate = candidates[i].trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(opaqueTag)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import java.io.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+/**
+ * The CacheControlFilter lets browsers and proxies keep the responses it filters for the configured
+ * number of seconds. It is meant for files that do not change once written, like the photo files;
+ * validation by Last-Modified and If-Modified-Since is left to the servlet serving the file.
+ */
+public class CacheControlFilter implements Filter {
+	
+	/**
+	 * Default of the "maxAge" init parameter, in seconds
+	 */
+	public static final int DEFAULT_MAX_AGE = 24 * 60 * 60;
+	
+	/**
+	 * 
+	 */
+	protected String cacheControl = "public, max-age=" + DEFAULT_MAX_AGE;
+	
+	/**
+	 * 
+	 */
+	public void init(FilterConfig config) throws ServletException {
+		String maxAge = config.getInitParameter("maxAge");
+		if (maxAge != null) {
+			try {
+				cacheControl = "public, max-age=" + Integer.parseInt(maxAge.trim());
+			} catch (NumberFormatException ex) {
+				throw new ServletException("illegal maxAge: " + maxAge, ex);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (response instanceof HttpServletResponse) {
+			((HttpServletResponse) response).setHeader("Cache-Control", cacheControl);
+		}
+		
+		chain.doFilter(request, response);
+	}
+	
+	/**
+	 * 
+	 */
+	public void destroy() {
+		// do nothing
+	}
+
+}
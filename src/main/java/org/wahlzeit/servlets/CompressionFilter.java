@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * The CompressionFilter gzip-compresses text responses to clients that accept it.
+ * Responses smaller than the "threshold" init parameter are sent as they are, as are responses that
+ * already have a content encoding. Static files are not filtered; the ResourceServlet sends the .gz
+ * siblings written for them at startup.
+ */
+public class CompressionFilter implements Filter {
+	
+	/**
+	 * Default of the "threshold" init parameter, in bytes
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+	
+	/**
+	 * 
+	 */
+	protected static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * 
+	 */
+	protected int threshold = DEFAULT_THRESHOLD;
+	
+	/**
+	 * 
+	 */
+	protected DeflaterPool deflaterPool = null;
+	
+	/**
+	 * 
+	 */
+	public void init(FilterConfig config) throws ServletException {
+		String thresholdParam = config.getInitParameter("threshold");
+		if (thresholdParam != null) {
+			try {
+				threshold = Integer.parseInt(thresholdParam.trim());
+			} catch (NumberFormatException ex) {
+				throw new ServletException("illegal threshold: " + thresholdParam, ex);
+			}
+		}
+		
+		deflaterPool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, 2 * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * 
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		HttpServletResponse httpResponse = (HttpServletResponse) response;
+		httpResponse.addHeader("Vary", "Accept-Encoding");
+		
+		if (!GzipUtil.acceptsGzip(httpRequest.getHeader("Accept-Encoding")) || (httpRequest.getHeader("Range") != null)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		
+		CompressingResponse compressingResponse = new CompressingResponse(httpResponse);
+		try {
+			chain.doFilter(request, compressingResponse);
+		} catch (IOException | ServletException | RuntimeException ex) {
+			compressingResponse.release(); // what was held back is not to be sent
+			throw ex;
+		}
+		
+		compressingResponse.finish();
+	}
+	
+	/**
+	 * 
+	 */
+	public void destroy() {
+		if (deflaterPool != null) {
+			deflaterPool.clear();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public DeflaterPool getDeflaterPool() {
+		return deflaterPool;
+	}
+	
+	/**
+	 * A response that decides whether to compress once it has seen the first threshold bytes
+	 */
+	protected class CompressingResponse extends HttpServletResponseWrapper {
+		
+		protected CompressingStream stream = null;
+		protected PrintWriter writer = null;
+		protected long contentLength = -1;
+		
+		protected CompressingResponse(HttpServletResponse response) {
+			super(response);
+		}
+		
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() has already been called");
+			}
+			
+			if (stream == null) {
+				stream = new CompressingStream(this);
+			}
+			return stream;
+		}
+		
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				if (stream != null) {
+					throw new IllegalStateException("getOutputStream() has already been called");
+				}
+				
+				stream = new CompressingStream(this);
+				writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+			}
+			return writer;
+		}
+		
+		public void setContentLength(int length) {
+			setContentLengthLong(length);
+		}
+		
+		public void setContentLengthLong(long length) {
+			contentLength = length;
+			if ((stream != null) && stream.isDecided() && !stream.isCompressing()) {
+				super.setContentLengthLong(length);
+			}
+		}
+		
+		public void setHeader(String name, String value) {
+			if ("Content-Length".equalsIgnoreCase(name)) {
+				setContentLengthLong(Long.parseLong(value));
+			} else {
+				super.setHeader(name, value);
+			}
+		}
+		
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			} else if (stream != null) {
+				stream.flush();
+			}
+		}
+		
+		public void reset() {
+			super.reset();
+			resetStream();
+		}
+		
+		public void resetBuffer() {
+			super.resetBuffer();
+			resetStream();
+		}
+		
+		protected void resetStream() {
+			if ((stream != null) && !stream.isDecided()) {
+				stream = null;
+				writer = null;
+				contentLength = -1;
+			}
+		}
+		
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isToCompress() {
+			int status = getStatus();
+			return (status != HttpServletResponse.SC_NO_CONTENT) && (status != HttpServletResponse.SC_NOT_MODIFIED)
+				&& ((contentLength == -1) || (contentLength >= threshold))
+				&& !containsHeader("Content-Encoding")
+				&& GzipUtil.isCompressibleContentType(getContentType());
+		}
+		
+		protected void finish() throws IOException {
+			if (writer != null) {
+				writer.close();
+			} else if (stream != null) {
+				stream.close();
+			}
+		}
+		
+		protected void release() {
+			if (stream != null) {
+				stream.release();
+			}
+		}
+		
+		protected HttpServletResponse getHttpResponse() {
+			return (HttpServletResponse) getResponse();
+		}
+	}
+	
+	/**
+	 * Holds back the first threshold bytes, then writes compressed or as is
+	 */
+	protected class CompressingStream extends ServletOutputStream {
+		
+		protected CompressingResponse response;
+		protected ByteArrayOutputStream buffer = new ByteArrayOutputStream(threshold);
+		protected OutputStream out = null;
+		protected Deflater deflater = null;
+		protected boolean isCompressing = false;
+		protected boolean isClosed = false;
+		
+		protected CompressingStream(CompressingResponse myResponse) {
+			response = myResponse;
+		}
+		
+		public void write(int b) throws IOException {
+			assertIsOpen();
+			if ((out == null) && (buffer.size() + 1 >= threshold)) {
+				decide(response.isToCompress());
+			}
+			
+			if (out != null) {
+				out.write(b);
+			} else {
+				buffer.write(b);
+			}
+		}
+		
+		public void write(byte[] bytes, int off, int len) throws IOException {
+			assertIsOpen();
+			if ((out == null) && (buffer.size() + len >= threshold)) {
+				decide(response.isToCompress());
+			}
+			
+			if (out != null) {
+				out.write(bytes, off, len);
+			} else {
+				buffer.write(bytes, off, len);
+			}
+		}
+		
+		public void flush() throws IOException {
+			if (out != null) {
+				out.flush();
+			}
+		}
+		
+		public void close() throws IOException {
+			if (isClosed) {
+				return;
+			}
+			
+			isClosed = true;
+			try {
+				if (out == null) {
+					if (response.contentLength == -1) {
+						response.contentLength = buffer.size();
+					}
+					decide(false);
+				}
+				out.close();
+			} finally {
+				release();
+			}
+		}
+		
+		protected void release() {
+			isClosed = true;
+			if (deflater != null) {
+				deflaterPool.release(deflater);
+				deflater = null;
+			}
+		}
+		
+		public boolean isReady() {
+			return true;
+		}
+		
+		public void setWriteListener(WriteListener listener) {
+			throw new IllegalStateException("asynchronous output is not supported when compressing");
+		}
+		
+		protected boolean isDecided() {
+			return out != null;
+		}
+		
+		protected boolean isCompressing() {
+			return isCompressing;
+		}
+		
+		protected void assertIsOpen() throws IOException {
+			if (isClosed) {
+				throw new IOException("stream is closed");
+			}
+		}
+		
+		protected void decide(boolean isToCompress) throws IOException {
+			HttpServletResponse target = response.getHttpResponse();
+			if (isToCompress) {
+				target.setHeader("Content-Encoding", "gzip");
+				isCompressing = true;
+				deflater = deflaterPool.acquire();
+				out = new GzipOutputStream(target.getOutputStream(), deflater, BUFFER_SIZE);
+			} else {
+				if (response.contentLength != -1) {
+					target.setContentLengthLong(response.contentLength);
+				}
+				out = target.getOutputStream();
+			}
+			
+			buffer.writeTo(out);
+			buffer = null;
+		}
+	}
+
+}
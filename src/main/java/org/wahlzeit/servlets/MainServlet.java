@@ -47,6 +47,12 @@ public class MainServlet extends AbstractServlet {
 	 */
 	private static final long serialVersionUID = 42L; // any one does; class never serialized
 
+	/**
+	 * Status and Retry-After seconds sent when a form handler does not accept a POST now
+	 */
+	public static final int SC_TOO_MANY_REQUESTS = 429;
+	public static final int RETRY_AFTER = 60;
+
 	/**
 	 * 
 	 */
@@ -73,9 +79,20 @@ public class MainServlet extends AbstractServlet {
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
-			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
+			String etag = handler.getWebPageETag(us);
+			if (etag != null) {
+				response.setHeader("ETag", etag);
+				response.setHeader("Cache-Control", "private, no-cache");
+			}
+			
+			if ((etag != null) && isNotModified(request, etag)) {
+				SysLog.logSysInfo("not modified", link);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			} else {
+				WebPart result = handler.makeWebPart(us);
+				us.addProcessingTime(System.currentTimeMillis() - startTime);
+				configureResponse(us, response, result);
+			}
 			us.clearSavedArgs(); // saved args go from post to next get
 			us.resetProcessingTime();
 		} else {
@@ -101,11 +118,19 @@ public class MainServlet extends AbstractServlet {
 			link = PartUtil.NULL_FORM_NAME;
 		}
 		UserLog.logUserInfo("postedto", link);
+		
+		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
+		if ((formHandler != null) && !formHandler.isAcceptingPost(us)) {
+			SysLog.logSysInfo("rejected POST to", link);
+			response.setHeader("Retry-After", String.valueOf(RETRY_AFTER));
+			response.sendError(SC_TOO_MANY_REQUESTS);
+			us.addProcessingTime(System.currentTimeMillis() - startTime);
+			return;
+		}
 			
 		Map args = getRequestArgs(request);
 		SysLog.logSysInfo("POST arguments: " + getRequestArgsAsString(us, args));
 		
-		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
 		if (formHandler != null) {
 			link = formHandler.handlePost(us, args);
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.util.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+import org.wahlzeit.webparts.*;
+
+/**
+ * The MetricsServlet serves query, connection pool and write-behind statistics in the
+ * Prometheus text format. Like the admin servlet, it only answers requests from the local host.
+ */
+public class MetricsServlet extends AbstractServlet {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+	/**
+	 * Needs no user session, so it does not create one per request
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (!isLocalHost(request)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		
+		response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+		PrintWriter out = response.getWriter();
+		writeQueryMetricsOn(out, QueryStatistics.getInstance());
+		writeMetricsOn(out, "wahlzeit_db_pool", DatabaseConnection.getPool().getStatistics());
+		writeMetricsOn(out, "wahlzeit_write_behind", WriteBehindQueue.getInstance().getStatistics());
+		writeMetricsOn(out, "wahlzeit_photo_cache", PhotoManager.getInstance().getPhotoCache().getStatistics());
+		writeMetricsOn(out, "wahlzeit_user_cache", UserManager.getInstance().getUserCache().getStatistics());
+		writeMetricsOn(out, "wahlzeit_photo_misses", PhotoManager.getInstance().getMissStatistics());
+		writeMetricsOn(out, "wahlzeit_user_misses", UserManager.getInstance().getMissStatistics());
+		writeMetricsOn(out, "wahlzeit_web_part_cache", WebPartCache.getInstance().getStatistics());
+		writeMetricsOn(out, "wahlzeit_file_cache", FileResourceManager.getInstance().getStatistics());
+		writeMetricsOn(out, "wahlzeit_photo_ingestion", PhotoIngestionQueue.getInstance().getStatistics());
+		writeMetricsOn(out, "wahlzeit_photo_derivatives", PhotoDerivativeCache.getInstance().getStatistics());
+		out.flush();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeQueryMetricsOn(PrintWriter out, QueryStatistics statistics) {
+		out.println("# TYPE wahlzeit_query_duration_seconds histogram");
+		List<QueryTimer> timers = statistics.getTimersByTotalTime();
+		for (QueryTimer timer : timers) {
+			String query = asLabelValue(timer.getQuery());
+			long count = 0;
+			for (int i = 0; i < QueryTimer.BUCKET_BOUNDS.length; i++) {
+				count += timer.getBucketCount(i);
+				double bound = QueryTimer.BUCKET_BOUNDS[i] / 1000.0;
+				out.println("wahlzeit_query_duration_seconds_bucket{query=\"" + query + "\",le=\"" + bound + "\"} " + count);
+			}
+			count += timer.getBucketCount(QueryTimer.BUCKET_BOUNDS.length);
+			out.println("wahlzeit_query_duration_seconds_bucket{query=\"" + query + "\",le=\"+Inf\"} " + count);
+			out.println("wahlzeit_query_duration_seconds_sum{query=\"" + query + "\"} " + (timer.getTotalNanos() / 1e9));
+			out.println("wahlzeit_query_duration_seconds_count{query=\"" + query + "\"} " + count);
+		}
+
+		out.println("# TYPE wahlzeit_query_rows_total counter");
+		for (QueryTimer timer : timers) {
+			out.println("wahlzeit_query_rows_total{query=\"" + asLabelValue(timer.getQuery()) + "\"} " + timer.getNoRows());
+		}
+
+		out.println("# TYPE wahlzeit_slow_queries_total counter");
+		out.println("wahlzeit_slow_queries_total " + statistics.getNoSlowQueries());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeMetricsOn(PrintWriter out, String name, Map<String, Long> values) {
+		out.println("# TYPE " + name + " gauge");
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			out.println(name + "{stat=\"" + asLabelValue(entry.getKey()) + "\"} " + entry.getValue());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static String asLabelValue(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.nio.channels.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * The ResourceServlet serves the static files and the photo files, and nothing else below the web root.
+ * URLs with a fingerprint of the file's contents may be kept by browsers for a year, as their contents
+ * never change. Single byte ranges and HEAD requests are supported, as are the .gz siblings written
+ * for static files at startup. Small files are sent from memory; larger ones are handed to the
+ * container's sendfile support, if it has one, or transferred from their FileChannel.
+ */
+public class ResourceServlet extends AbstractServlet {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 42L; // any one does; class never serialized
+	
+	/**
+	 * 
+	 */
+	public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+	
+	/**
+	 * Request attributes of Tomcat's sendfile support
+	 */
+	protected static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	protected static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	protected static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	protected static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	
+	/**
+	 * Needs no user session, so it does not create one per request
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		sendResource(request, response, true);
+	}
+	
+	/**
+	 * 
+	 */
+	public void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		sendResource(request, response, false);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void sendResource(HttpServletRequest request, HttpServletResponse response, boolean isToSendBody) throws IOException {
+		String pathInfo = request.getPathInfo();
+		String path = request.getServletPath() + ((pathInfo != null) ? pathInfo : "");
+		String fingerprint = FileResourceManager.getFingerprint(path);
+		if (fingerprint != null) {
+			path = FileResourceManager.removeFingerprint(path);
+		}
+		
+		File file = getResourceFile(path);
+		PhotoDerivativeCache derivatives = PhotoDerivativeCache.getInstance();
+		boolean isDerivative = (file != null) && derivatives.isCacheFile(file);
+		try {
+			// sendfile would read a derivative after it is released, when it may be evicted already
+			sendFile(request, response, file, fingerprint, isToSendBody, !isDerivative);
+		} finally {
+			if (isDerivative) {
+				derivatives.release(file.getName());
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void sendFile(HttpServletRequest request, HttpServletResponse response, File file, String fingerprint, boolean isToSendBody, boolean isSendfileAllowed) throws IOException {
+		FileResourceManager manager = FileResourceManager.getInstance();
+		FileResource resource = (file != null) ? manager.getResource(file) : null;
+		if (resource == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		if (resource.getFingerprint().equals(fingerprint)) {
+			response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+		}
+		
+		FileResource compressed = null;
+		if (GzipUtil.isCompressibleFileName(file.getName())) {
+			response.setHeader("Vary", "Accept-Encoding"); // on 304 responses, too
+			if ((request.getHeader("Range") == null) && GzipUtil.acceptsGzip(request.getHeader("Accept-Encoding"))) {
+				compressed = manager.getResource(GzipUtil.getCompressedFile(file));
+				if ((compressed != null) && (compressed.getLastModified() < resource.getLastModified())) {
+					compressed = null; // outdated
+				}
+			}
+		}
+		
+		// each representation has its own strong ETag, as their bytes differ
+		String etag = "\"" + resource.getFingerprint() + ((compressed != null) ? "-gz" : "") + "\"";
+		long lastModified = resource.getLastModified() / 1000 * 1000; // HTTP dates have seconds only
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Accept-Ranges", "bytes");
+		
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		String contentType = getServletContext().getMimeType(file.getName());
+		response.setContentType((contentType != null) ? contentType : "application/octet-stream");
+		
+		if (compressed != null) {
+			response.setHeader("Content-Encoding", "gzip");
+			resource = compressed;
+		}
+		
+		long length = resource.getLength();
+		long[] range = getRange(request, etag, lastModified, length);
+		if (range == null) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		
+		boolean isPartial = (range[1] - range[0] + 1) < length;
+		if (isPartial) {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		
+		long count = range[1] - range[0] + 1;
+		response.setContentLengthLong(count);
+		if (isToSendBody && (count > 0)) {
+			writeResource(request, response, resource, range[0], count, isSendfileAllowed);
+		}
+	}
+	
+	/**
+	 * Returns the file named by path, if it lies in the static or photos directory, or null;
+	 * photo sizes not created on upload are taken from the PhotoDerivativeCache, which keeps them until released
+	 */
+	protected File getResourceFile(String path) {
+		if ((path.indexOf('\\') != -1) || (path.indexOf('\0') != -1) || path.contains("/../") || path.endsWith("/..")) {
+			return null;
+		}
+		
+		String staticDir = "/" + HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeDir()) + "/";
+		String photosDir = "/" + HtmlUtil.asPath(SysConfig.getPhotosDir().getRelativeDir()) + "/";
+		if (!path.startsWith(staticDir) && !path.startsWith(photosDir)) {
+			return null;
+		}
+		
+		File result = new File(SysConfig.getRootDirAsString() + path.replace('/', File.separatorChar));
+		if (path.startsWith(photosDir) && !result.exists()) {
+			result = PhotoDerivativeCache.getInstance().getFile(result.getName()); // some sizes are created on first request
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * If-None-Match takes precedence over If-Modified-Since, as HTTP requires
+	 * 
+	 * @methodtype boolean-query
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		if (request.getHeader("If-None-Match") != null) {
+			return isNotModified(request, etag);
+		}
+		
+		long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		return (ifModifiedSince != -1) && (ifModifiedSince >= lastModified);
+	}
+	
+	/**
+	 * Returns the first and last byte to send, the whole file if no single range applies,
+	 * or null, if the range requested cannot be satisfied
+	 */
+	protected long[] getRange(HttpServletRequest request, String etag, long lastModified, long length) {
+		long[] all = new long[] { 0, length - 1 };
+		
+		String range = request.getHeader("Range");
+		if ((range == null) || !range.startsWith("bytes=") || (range.indexOf(',') != -1)) {
+			return all; // multiple ranges are answered with the whole file, as HTTP allows
+		}
+		
+		String ifRange = request.getHeader("If-Range");
+		if ((ifRange != null) && !ifRange.equals(etag)) {
+			long ifRangeDate = request.getDateHeader("If-Range");
+			if (ifRangeDate != lastModified) {
+				return all;
+			}
+		}
+		
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return all;
+		}
+
+		long first;
+		long last;
+		try {
+			String firstSpec = spec.substring(0, dash).trim();
+			String lastSpec = spec.substring(dash + 1).trim();
+			if (firstSpec.isEmpty()) {
+				long suffixLength = Long.parseLong(lastSpec);
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+				if (suffixLength == 0) {
+					return null;
+				}
+			} else {
+				first = Long.parseLong(firstSpec);
+				last = lastSpec.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastSpec), length - 1);
+				if (last < first) {
+					return (lastSpec.isEmpty() || (Long.parseLong(lastSpec) >= first)) ? null : all;
+				}
+			}
+		} catch (NumberFormatException ex) {
+			return all;
+		}
+		
+		if (first >= length) {
+			return null;
+		}
+		
+		return new long[] { first, last };
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeResource(HttpServletRequest request, HttpServletResponse response, FileResource resource, long start, long count, boolean isSendfileAllowed) throws IOException {
+		if (resource.hasContents()) {
+			response.getOutputStream().write(resource.getContents(), (int) start, (int) count);
+			return;
+		}
+		
+		if (isSendfileAllowed && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, resource.getFile().getAbsolutePath());
+			request.setAttribute(SENDFILE_START, Long.valueOf(start));
+			request.setAttribute(SENDFILE_END, Long.valueOf(start + count));
+			return;
+		}
+		
+		FileInputStream in = new FileInputStream(resource.getFile());
+		try {
+			FileChannel channel = in.getChannel();
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			for (long position = start, end = start + count; position < end; ) {
+				long transferred = channel.transferTo(position, end - position, out);
+				if (transferred <= 0) {
+					break; // file got shorter
+				}
+				position += transferred;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.utils;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * A GzipOutputStream writes the gzip format using a Deflater it is given, so Deflaters can be reused.
+ * Unlike java.util.zip.GZIPOutputStream, closing it does not end the Deflater; its owner has to do that.
+ * The Deflater must have been created for raw data (nowrap), as gzip brings its own header and trailer.
+ */
+public class GzipOutputStream extends DeflaterOutputStream {
+	
+	/**
+	 * Magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+	 */
+	protected static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	
+	/**
+	 * 
+	 */
+	protected CRC32 crc = new CRC32();
+	
+	/**
+	 * 
+	 */
+	protected boolean isFinished = false;
+	
+	/**
+	 * 
+	 */
+	public GzipOutputStream(OutputStream out, Deflater deflater, int size) throws IOException {
+		super(out, deflater, size);
+		out.write(HEADER);
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void write(byte[] bytes, int off, int len) throws IOException {
+		super.write(bytes, off, len);
+		crc.update(bytes, off, len);
+	}
+	
+	/**
+	 * 
+	 */
+	public void finish() throws IOException {
+		if (!isFinished) {
+			isFinished = true;
+			super.finish();
+			writeInt((int) crc.getValue());
+			writeInt((int) def.getBytesRead()); // modulo 2^32, as the format requires
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeInt(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+	
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.utils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A set of utility functions for gzip content encoding.
+ */
+public class GzipUtil {
+	
+	/**
+	 * 
+	 */
+	public static final String FILE_SUFFIX = ".gz";
+	
+	/**
+	 * 
+	 */
+	protected static final String[] COMPRESSIBLE_FILE_SUFFIXES = { ".css", ".js", ".html", ".htm", ".svg", ".txt", ".xml", ".json" };
+	protected static final String[] COMPRESSIBLE_CONTENT_TYPES = { "text/", "application/javascript", "application/json", "application/xml", "image/svg+xml" };
+	
+	/**
+	 * Reads an Accept-Encoding header; codings with a quality of 0 are not acceptable
+	 * 
+	 * @methodtype boolean-query
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		
+		boolean acceptsAny = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+			boolean isAcceptable = true;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim().toLowerCase(Locale.ENGLISH);
+				if (param.startsWith("q=")) {
+					isAcceptable = !param.substring(2).trim().matches("0(\\.0*)?");
+				}
+			}
+			
+			if (name.equals("gzip") || name.equals("x-gzip")) {
+				return isAcceptable;
+			} else if (name.equals("*")) {
+				acceptsAny = isAcceptable;
+			}
+		}
+		
+		return acceptsAny;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isCompressibleContentType(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		
+		String type = contentType.toLowerCase(Locale.ENGLISH);
+		for (String prefix : COMPRESSIBLE_CONTENT_TYPES) {
+			if (type.startsWith(prefix)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isCompressibleFileName(String fileName) {
+		String name = fileName.toLowerCase(Locale.ENGLISH);
+		for (String suffix : COMPRESSIBLE_FILE_SUFFIXES) {
+			if (name.endsWith(suffix)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns the file holding the compressed contents of file, which may not exist
+	 */
+	public static File getCompressedFile(File file) {
+		return new File(file.getPath() + FILE_SUFFIX);
+	}
+	
+	/**
+	 * Writes compressed siblings of all compressible files below dir; returns how many were (re)written
+	 */
+	public static int compressFiles(File dir) throws IOException {
+		int result = 0;
+		
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					result += compressFiles(files[i]);
+				} else if (isCompressibleFileName(files[i].getName()) && compressFile(files[i])) {
+					result++;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Writes the compressed sibling of file, unless it is up to date or would not be smaller
+	 */
+	public static boolean compressFile(File file) throws IOException {
+		File target = getCompressedFile(file);
+		if (target.isFile() && (target.lastModified() >= file.lastModified())) {
+			return false;
+		}
+		
+		File temp = new File(target.getPath() + ".tmp");
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			OutputStream out = new GzipOutputStream(new FileOutputStream(temp), deflater, 8192);
+			try {
+				Files.copy(file.toPath(), out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			deflater.end();
+		}
+		
+		if (temp.length() >= file.length()) {
+			temp.delete();
+			target.delete(); // an outdated one must not be served
+			return false;
+		}
+		
+		target.delete();
+		if (!temp.renameTo(target)) {
+			temp.delete();
+			throw new IOException("could not write " + target.getPath());
+		}
+
+		target.setLastModified(file.lastModified());
+		return true;
+	}
+	
+}
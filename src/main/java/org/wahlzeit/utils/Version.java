@@ -30,7 +30,7 @@ public class Version {
 	/**
 	 * 
 	 */
-	public static final String DATA_VERSION = "2.0";
+	public static final String DATA_VERSION = "2.0.5";
 	
 	/**
 	 * 
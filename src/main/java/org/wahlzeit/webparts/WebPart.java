@@ -22,6 +22,7 @@ package org.wahlzeit.webparts;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.*;
 
 import org.wahlzeit.utils.*;
 
@@ -38,19 +39,38 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 	
 	/**
-	 * 
+	 * Values by their index in the template; values for keys without a slot are dropped
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Object[] values;
 	
 	/**
 	 * 
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		values = new Object[(myTemplate != null) ? myTemplate.getNumberOfValues() : 0];
 	}
 	
+	/**
+	 * 
+	 */
+	public WebPartTemplate getTemplate() {
+		return template;
+	}
+	
+	/**
+	 * 
+	 */
 	public Object getValue(String key) {
-		return parts.get(key);
+		return getValue(WebPartKey.valueOf(key));
+	}
+	
+	/**
+	 * 
+	 */
+	public Object getValue(WebPartKey key) {
+		int index = getIndexOf(key);
+		return (index != -1) ? values[index] : null;
 	}
 	
 	/**
@@ -61,6 +81,15 @@ public class WebPart implements Writable {
 			putValue(key, value);
 		}
 	}
+	
+	/**
+	 * 
+	 */
+	public void addString(WebPartKey key, String value) {
+		if (value != null) {
+			putValue(key, value);
+		}
+	}
 		
 	/**
 	 * 
@@ -162,39 +191,62 @@ public class WebPart implements Writable {
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	public void addWritable(WebPartKey key, Writable value) {
+		if (value != null) {
+			putValue(key, value);
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	protected void putValue(String key, Object value) {
 		if (value != null) {
-			parts.put(key, value);
+			putValue(WebPartKey.valueOf(key), value);
 		}
 	}
+	
+	/**
+	 * 
+	 */
+	protected void putValue(WebPartKey key, Object value) {
+		int index = getIndexOf(key);
+		if ((value != null) && (index != -1)) {
+			values[index] = value;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected int getIndexOf(WebPartKey key) {
+		return (template != null) ? template.getIndexOf(key) : -1;
+	}
 
 	/**
 	 * 
 	 */
 	public void writeOn(Writer out) throws IOException {
 		String tmpl = template.asString();
-		String[] keys = template.getKeys();
 		int[] slots = template.getSlots();
+		int[] slotIndexes = template.getSlotIndexes();
 
 		int start = 0;
-		for (int i = 0; i < keys.length; i++ ) {
+		for (int i = 0; i < slots.length; i++ ) {
 			int index = slots[i];
 			out.write(tmpl, start, index - start);
 
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
+			Object object = values[slotIndexes[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value);
 				}
 			}
 			
@@ -204,4 +256,29 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 	
+	/**
+	 * Writes the pre-encoded segments of the template and the values as UTF-8
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		byte[][] segments = template.getSegments();
+		int[] slotIndexes = template.getSlotIndexes();
+
+		for (int i = 0; i < slotIndexes.length; i++ ) {
+			out.write(segments[i]);
+
+			Object object = values[slotIndexes[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		
+		out.write(segments[slotIndexes.length]);
+	}
+	
 }
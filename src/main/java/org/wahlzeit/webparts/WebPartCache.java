@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The WebPartCache keeps rendered WebParts, so that parts depending only on their template
+ * and a few inputs are rendered once and then written out as they are.
+ * A fragment is looked up by its template (which includes the language), and a variant string that
+ * names all other inputs, like access rights or the version of a photo. Templates that are reloaded
+ * get a new version, so fragments rendered from the old template are not found anymore.
+ */
+public class WebPartCache {
+
+	/**
+	 * 
+	 */
+	protected static final WebPartCache instance = new WebPartCache();
+
+	/**
+	 * Convenience method...
+	 */
+	public static WebPartCache getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * A rendered WebPart
+	 */
+	public static class Fragment implements Writable {
+		
+		protected final String text;
+		protected final byte[] bytes;
+		
+		public Fragment(String myText) {
+			text = myText;
+			bytes = myText.getBytes(StandardCharsets.UTF_8);
+		}
+		
+		public void writeOn(Writer writer) throws IOException {
+			writer.write(text);
+		}
+		
+		public void writeOn(OutputStream out) throws IOException {
+			out.write(bytes);
+		}
+		
+		public String asString() {
+			return text;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<String, Fragment> fragments = new ConcurrentHashMap<String, Fragment>();
+	
+	/**
+	 * 
+	 */
+	protected LongAdder hits = new LongAdder();
+	protected LongAdder misses = new LongAdder();
+	
+	/**
+	 *
+	 */
+	protected WebPartCache() {
+		// do nothing	
+	}
+	
+	/**
+	 * Returns the fragment or null, if it needs to be rendered (again)
+	 */
+	public Writable get(WebPartTemplate template, String variant) {
+		if (template == null) {
+			return null;
+		}
+		
+		Fragment result = fragments.get(asKey(template, variant));
+		if (result != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Renders part and keeps it; returns the fragment to use in its place
+	 */
+	public Writable put(WebPartTemplate template, String variant, Writable part) {
+		if (template == null) {
+			return part;
+		}
+		
+		StringWriter writer = new StringWriter();
+		try {
+			part.writeOn(writer);
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+			return part;
+		}
+
+		Fragment result = new Fragment(writer.toString());
+		if (fragments.size() >= SysConfig.getWebPartCacheSize()) {
+			fragments.clear(); // stale versions pile up otherwise; hot fragments come back quickly
+		}
+		fragments.put(asKey(template, variant), result);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		fragments.clear();
+	}
+	
+	/**
+	 * 
+	 */
+	protected String asKey(WebPartTemplate template, String variant) {
+		return template.getName() + "#" + template.getVersion() + "#" + variant;
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("size", (long) fragments.size());
+		result.put("hits", hits.sum());
+		result.put("misses", misses.sum());
+		return result;
+	}
+	
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.webparts;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A WebPartKey is a key for setting values of WebParts that is looked up once, when handlers are loaded.
+ * Each key has a number, which templates map to the index of its value, without hashing the key's name.
+ */
+public final class WebPartKey {
+	
+	/**
+	 * 
+	 */
+	protected static final ConcurrentMap<String, WebPartKey> instances = new ConcurrentHashMap<String, WebPartKey>();
+	
+	/**
+	 * 
+	 */
+	protected static final AtomicInteger lastId = new AtomicInteger(-1);
+	
+	/**
+	 * Returns the same key for the same name
+	 */
+	public static WebPartKey valueOf(String name) {
+		WebPartKey result = instances.get(name);
+		if (result == null) {
+			synchronized (instances) { // ids must not be skipped, they size the templates' tables
+				result = instances.get(name);
+				if (result == null) {
+					result = new WebPartKey(name, lastId.incrementAndGet());
+					instances.put(name, result);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected final String name;
+	protected final int id;
+	
+	/**
+	 * 
+	 */
+	protected WebPartKey(String myName, int myId) {
+		name = myName;
+		id = myId;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * 
+	 */
+	public String toString() {
+		return name;
+	}
+	
+}
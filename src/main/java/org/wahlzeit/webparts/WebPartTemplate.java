@@ -20,19 +20,31 @@
 
 package org.wahlzeit.webparts;
 
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
  */
 public class WebPartTemplate {
+	
+	/**
+	 * 
+	 */
+	protected static final AtomicLong lastVersion = new AtomicLong();
 
 	/**
 	 * 
 	 */
 	protected String name;
 	
+	/**
+	 * Distinguishes this template from earlier loads of the same file
+	 */
+	protected long version = lastVersion.incrementAndGet();
+	
 	/**
 	 * 
 	 */
@@ -43,6 +55,19 @@ public class WebPartTemplate {
 	 */
 	protected String[] keys = null;
 	protected int[] slots = null;
+	
+	/**
+	 * Each slot names the index of its value; keys used in several slots share one index
+	 */
+	protected int[] slotIndexes = null;
+	protected int[] indexesByKeyId = null;
+	protected int numberOfValues = 0;
+	
+	/**
+	 * The static text before, between, and after the slots, encoded as UTF-8 once
+	 */
+	protected byte[][] segments = null;
+	protected int segmentsSize = 0;
 		
 	/**
 	 * 
@@ -71,14 +96,20 @@ public class WebPartTemplate {
 					slotList.add(nextSlot);
 	
 					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
 				}
-				index = endSlot;
+				index = (endSlot != -1) ? nextSlot : -1; // the key is gone from the buffer, so continue where it was
 			} else {
 				index = -1;
 			}
 		}
 		
+		doInitialize(buffer.toString(), keyList, slotList);
+	}
+	
+	/**
+	 * @methodtype initialization
+	 */
+	protected void doInitialize(String text, List<String> keyList, List<Integer> slotList) {
 		int length = keyList.size();
 		keys = new String[length];
 		slots = new int[length];
@@ -87,7 +118,64 @@ public class WebPartTemplate {
 			slots[i] = slotList.get(i);
 		}
 		
-		template = buffer.toString();
+		template = text;
+		
+		slotIndexes = new int[length];
+		numberOfValues = 0;
+		int maxKeyId = -1;
+		WebPartKey[] slotKeys = new WebPartKey[length];
+		for (int i = 0; i < length; i++) {
+			slotKeys[i] = WebPartKey.valueOf(keys[i]);
+			maxKeyId = Math.max(maxKeyId, slotKeys[i].getId());
+		}
+		indexesByKeyId = new int[maxKeyId + 1];
+		Arrays.fill(indexesByKeyId, -1);
+		for (int i = 0; i < length; i++) {
+			int keyId = slotKeys[i].getId();
+			if (indexesByKeyId[keyId] == -1) {
+				indexesByKeyId[keyId] = numberOfValues++;
+			}
+			slotIndexes[i] = indexesByKeyId[keyId];
+		}
+		
+		segments = new byte[length + 1][];
+		segmentsSize = 0;
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			int end = (i < length) ? slots[i] : template.length();
+			segments[i] = template.substring(start, end).getBytes(StandardCharsets.UTF_8);
+			segmentsSize += segments[i].length;
+			start = end;
+		}
+	}
+	
+	/**
+	 * Returns a copy with the given values filled into their slots; keys without a value remain slots
+	 * 
+	 * @methodtype factory
+	 */
+	public WebPartTemplate specialize(Map<String, String> values) {
+		List<String> keyList = new ArrayList<String>(keys.length);
+		List<Integer> slotList = new ArrayList<Integer>(keys.length);
+		StringBuffer buffer = new StringBuffer(template.length());
+		
+		int start = 0;
+		for (int i = 0; i < keys.length; i++) {
+			buffer.append(template, start, slots[i]);
+			String value = values.get(keys[i]);
+			if (value != null) {
+				buffer.append(value);
+			} else {
+				keyList.add(keys[i]);
+				slotList.add(buffer.length());
+			}
+			start = slots[i];
+		}
+		buffer.append(template, start, template.length());
+		
+		WebPartTemplate result = new WebPartTemplate(name);
+		result.doInitialize(buffer.toString(), keyList, slotList);
+		return result;
 	}
 	
 	/**
@@ -97,6 +185,13 @@ public class WebPartTemplate {
 		return name;
 	}
 	
+	/**
+	 * 
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
 	/**
 	 * 
 	 */
@@ -118,4 +213,40 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * Returns the index of the key's value, or -1 if the template has no slot for it
+	 */
+	public int getIndexOf(WebPartKey key) {
+		int keyId = key.getId();
+		return (keyId < indexesByKeyId.length) ? indexesByKeyId[keyId] : -1;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNumberOfValues() {
+		return numberOfValues;
+	}
+	
+	/**
+	 * The index of the value for each slot
+	 */
+	public int[] getSlotIndexes() {
+		return slotIndexes;
+	}
+
+	/**
+	 * One more segment than there are keys; segment i precedes key i
+	 */
+	public byte[][] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Number of bytes the static text takes, a lower bound for the size of a rendered part
+	 */
+	public int getSegmentsSize() {
+		return segmentsSize;
+	}
+
 }
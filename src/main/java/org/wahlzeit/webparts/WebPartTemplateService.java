@@ -21,7 +21,10 @@
 package org.wahlzeit.webparts;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 
 import org.wahlzeit.services.*;
 
@@ -46,13 +49,23 @@ public class WebPartTemplateService {
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected Map<String, WebPartTemplate> templates = new ConcurrentHashMap<String, WebPartTemplate>();
+
+	/**
+	 * Templates with the values filled in that are the same for all requests of a variant
+	 */
+	protected Map<String, WebPartTemplate> specializedTemplates = new ConcurrentHashMap<String, WebPartTemplate>();
 
 	/**
 	 * 
 	 */
 	protected ConfigDir templatesDir = null;
 	
+	/**
+	 * Counts reloads of the templates
+	 */
+	protected volatile long generation = 0;
+	
 	/**
 	 *
 	 */
@@ -67,6 +80,13 @@ public class WebPartTemplateService {
 		return templatesDir;
 	}
 	
+	/**
+	 * 
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
 	/**
 	 * 
 	 */
@@ -93,6 +113,40 @@ public class WebPartTemplateService {
 		return result;
 	}
 	
+	/**
+	 * Returns the template specialized for variant, or null, if it is to be made by putSpecializedTemplate
+	 */
+	public WebPartTemplate getSpecializedTemplate(String lang, String name, String variant) {
+		return specializedTemplates.get(lang + File.separator + name + "@" + variant);
+	}
+	
+	/**
+	 * The values have to be the same for all requests that ask for the variant
+	 */
+	public WebPartTemplate putSpecializedTemplate(String lang, String name, String variant, Map<String, String> values) {
+		WebPartTemplate template = getTemplate(lang, name);
+		if (template == null) {
+			return null;
+		}
+
+		WebPartTemplate result = template.specialize(values);
+		if (templates.get(lang + File.separator + name) == template) { // not reloaded meanwhile
+			specializedTemplates.put(lang + File.separator + name + "@" + variant, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Templates are read from disk again when next requested; fragments rendered from them are dropped
+	 */
+	public void reloadTemplates() {
+		generation++;
+		templates.clear();
+		specializedTemplates.clear();
+		WebPartCache.getInstance().clear();
+	}
+	
 	/**
 	 * 
 	 */
@@ -102,28 +156,13 @@ public class WebPartTemplateService {
 		File file = new File(fileName);
 		SysLog.logSysInfo("file name", fileName, "opened HTML template file");
 
-		FileReader reader = null;
-		try {
-			reader = new FileReader(file);
-			
-			// @FIXME: Assumes files are always < 50000 bytes
-			char[] readBuffer = new char[50000];
-			int status = reader.read(readBuffer);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		SysLog.logSysInfo("file size", Integer.toString(bytes.length), "read HTML template file");
 
-			SysLog.logSysInfo("file size", Integer.toString(status), "read HTML template file");
-			
-			if (status != -1) {
-				String source = new String(readBuffer, 0, status);
-				template.initialize(source);
-				SysLog.logCreatedObject("WebPartTmpl", shortName);
-			}
+		template.initialize(new String(bytes, StandardCharsets.UTF_8));
+		SysLog.logCreatedObject("WebPartTmpl", shortName);
 
-			templates.put(shortName, template);
-		} finally {
-			if (reader != null) {
-				reader.close();
-			}
-		}
+		templates.put(shortName, template);
 	}
 	
 }
@@ -23,7 +23,7 @@ package org.wahlzeit.webparts;
 import java.io.*;
 
 /**
- * A Writable can write a representation of itself to a Writer.
+ * A Writable can write a representation of itself to a Writer, or as UTF-8 to an OutputStream.
  */
 public interface Writable {
 	
@@ -32,4 +32,9 @@ public interface Writable {
 	 */
 	public void writeOn(Writer writer) throws IOException;
 	
+	/**
+	 * 
+	 */
+	public void writeOn(OutputStream out) throws IOException;
+	
 }
@@ -50,6 +50,16 @@ public class WritableList implements Writable {
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		for (Iterator<Writable> pi = writables.listIterator(); pi.hasNext(); ) {
+			Writable part = pi.next();
+			part.writeOn(out);
+		}
+	}
+	
 	/**
 	 * 
 	 */
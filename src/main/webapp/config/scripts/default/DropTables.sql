@@ -1,3 +1,4 @@
+DROP TABLE IF EXISTS schema_version;
 DROP TABLE IF EXISTS globals;
 DROP TABLE IF EXISTS cases;
 DROP TABLE IF EXISTS tags;
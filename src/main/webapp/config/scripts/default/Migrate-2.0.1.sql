@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS tags_tag_idx ON tags (tag, photo_id);
+CREATE INDEX IF NOT EXISTS tags_photo_id_idx ON tags (photo_id);
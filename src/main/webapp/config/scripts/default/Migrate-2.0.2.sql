@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS photos_owner_name_idx ON photos (owner_name);
@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS users_name_as_tag_idx ON users (name_as_tag);
+CREATE INDEX IF NOT EXISTS users_email_address_idx ON users (email_address);
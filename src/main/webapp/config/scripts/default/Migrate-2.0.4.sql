@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS photos_owner_id_idx ON photos (owner_id);
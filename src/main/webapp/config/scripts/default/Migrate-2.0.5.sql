@@ -0,0 +1,4 @@
+UPDATE photos SET praise_sum = 10 WHERE praise_sum IS NULL;
+UPDATE photos SET no_votes = 1 WHERE no_votes IS NULL;
+ALTER TABLE photos ALTER COLUMN praise_sum SET DEFAULT 10;
+ALTER TABLE photos ALTER COLUMN no_votes SET DEFAULT 1;
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wahlzeit.services.ConfigDir;
+import org.wahlzeit.utils.Version;
+
+/**
+ * Test cases for the SchemaMigrator class.
+ */
+public class SchemaMigratorTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetMigrationVersion() {
+		Assert.assertEquals(2000001, SchemaMigrator.getMigrationVersion("Migrate-2.0.1.sql"));
+		Assert.assertEquals(3010000, SchemaMigrator.getMigrationVersion("Migrate-3.10.0.sql"));
+		Assert.assertEquals(-1, SchemaMigrator.getMigrationVersion("CreateTables.sql"));
+		Assert.assertEquals(-1, SchemaMigrator.getMigrationVersion("Migrate-2.0.sql"));
+		Assert.assertEquals(-1, SchemaMigrator.getMigrationVersion("Migrate-2.0.1.sql~"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetPendingMigrations() {
+		List<String> fileNames = Arrays.asList("Migrate-2.0.10.sql", "DropTables.sql", "Migrate-2.0.2.sql", "Migrate-2.0.1.sql", "Migrate-2.1.0.sql");
+		SortedMap<Integer, String> pending = SchemaMigrator.getPendingMigrations(fileNames, 2000001, 2000010);
+
+		Assert.assertEquals(Arrays.asList("Migrate-2.0.2.sql", "Migrate-2.0.10.sql"), new ArrayList<String>(pending.values()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testShippedMigrationsReachDataVersion() {
+		ConfigDir scriptsDir = new ConfigDir("src/main/webapp", "config" + File.separator + "scripts");
+		int baseVersion = Version.getVersionAsInt(SchemaMigrator.BASE_VERSION);
+		SortedMap<Integer, String> pending = SchemaMigrator.getPendingMigrations(scriptsDir.getFileNames(), baseVersion, Version.getDataVersionAsInt());
+
+		Assert.assertFalse(pending.isEmpty());
+		Assert.assertEquals(Version.getDataVersionAsInt(), pending.lastKey().intValue());
+	}
+
+}
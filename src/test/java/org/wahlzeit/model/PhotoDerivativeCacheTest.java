@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.imageio.*;
+
+import org.junit.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * Test cases for the PhotoDerivativeCache class.
+ */
+public class PhotoDerivativeCacheTest {
+
+	protected File rootDir;
+	protected PhotoDerivativeCache cache;
+	protected PhotoId id;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("webapp").toFile();
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig(rootDir.getPath(), "localhost"));
+		SysConfig.getInstance().setValue(SysConfig.LAZY_PHOTO_SIZES, "true");
+		cache = new PhotoDerivativeCache();
+
+		id = PhotoId.getNextId();
+		File source = PhotoUtil.getSourceFile(id);
+		source.getParentFile().mkdirs();
+		ImageIO.write(new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB), "jpg", source);
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+		delete(rootDir);
+	}
+
+	@Test
+	public void testCreatesSizeOnFirstRequest() throws IOException {
+		File file = cache.getFile(getName(PhotoSize.EXTRA_LARGE));
+		Assert.assertNotNull(file);
+		Assert.assertEquals(new File(SysConfig.getDerivativesDir().asString()), file.getParentFile());
+		BufferedImage image = ImageIO.read(file);
+		Assert.assertEquals(840, image.getWidth());
+		Assert.assertEquals(672, image.getHeight());
+
+		Assert.assertEquals(file, cache.getFile(getName(PhotoSize.EXTRA_LARGE)));
+		Assert.assertEquals(Long.valueOf(1), cache.getStatistics().get("created"));
+		Assert.assertEquals(Long.valueOf(1), cache.getStatistics().get("hits"));
+	}
+
+	@Test
+	public void testIgnoresSizesCreatedOnUpload() {
+		Assert.assertNull(cache.getFile(getName(PhotoSize.THUMB)));
+		Assert.assertNull(cache.getFile(getName(PhotoSize.MEDIUM)));
+
+		SysConfig.getInstance().setValue(SysConfig.LAZY_PHOTO_SIZES, "false");
+		Assert.assertNull(cache.getFile(getName(PhotoSize.EXTRA_LARGE)));
+	}
+
+	@Test
+	public void testIgnoresOtherNames() {
+		Assert.assertNull(cache.getFile("wahlzeit.jpg"));
+		Assert.assertNull(cache.getFile(id.asString() + "9.jpg"));
+		Assert.assertNull(cache.getFile(id.asString() + "5.png"));
+		Assert.assertNull(cache.getFile(".jpg"));
+		Assert.assertNull(cache.getFile(PhotoId.getNextId().asString() + "5.jpg")); // no original
+	}
+
+	@Test
+	public void testConcurrentRequestsCreateOnce() throws Exception {
+		int noThreads = 4;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads);
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		for (int i = 0; i < noThreads; i++) {
+			results.add(executor.submit(new Callable<File>() {
+				public File call() throws Exception {
+					start.await();
+					return cache.getFile(getName(PhotoSize.LARGE));
+				}
+			}));
+		}
+		
+		start.countDown();
+		for (Future<File> result : results) {
+			Assert.assertNotNull(result.get());
+		}
+		executor.shutdown();
+
+		Map<String, Long> statistics = cache.getStatistics();
+		Assert.assertEquals(Long.valueOf(1), statistics.get("created"));
+		Assert.assertEquals(noThreads - 1, statistics.get("hits") + statistics.get("shared"));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyRequested() {
+		SysConfig.getInstance().setValue(SysConfig.DERIVATIVE_CACHE_SIZE, "1");
+		File large = cache.getFile(getName(PhotoSize.LARGE));
+		cache.release(large.getName());
+		File extraLarge = cache.getFile(getName(PhotoSize.EXTRA_LARGE));
+
+		Assert.assertFalse(large.exists());
+		Assert.assertTrue(extraLarge.exists());
+		Assert.assertEquals(Long.valueOf(1), cache.getStatistics().get("evicted"));
+		Assert.assertEquals(Long.valueOf(extraLarge.length()), cache.getStatistics().get("bytes"));
+	}
+
+	@Test
+	public void testKeepsPinnedFilesUntilReleased() {
+		SysConfig.getInstance().setValue(SysConfig.DERIVATIVE_CACHE_SIZE, "1");
+		File large = cache.getFile(getName(PhotoSize.LARGE));
+		Assert.assertTrue(cache.isCacheFile(large));
+		File extraLarge = cache.getFile(getName(PhotoSize.EXTRA_LARGE));
+		cache.release(extraLarge.getName());
+		
+		Assert.assertTrue(large.exists()); // still being served
+		Assert.assertEquals(Long.valueOf(0), cache.getStatistics().get("evicted"));
+
+		cache.release(large.getName());
+		Assert.assertTrue(extraLarge.exists());
+		Assert.assertFalse(large.exists());
+		Assert.assertEquals(Long.valueOf(1), cache.getStatistics().get("evicted"));
+	}
+
+	@Test
+	public void testTakesOverFilesOfEarlierRun() {
+		File file = cache.getFile(getName(PhotoSize.LARGE));
+		
+		PhotoDerivativeCache other = new PhotoDerivativeCache();
+		Assert.assertEquals(file, other.getFile(getName(PhotoSize.LARGE)));
+		Assert.assertEquals(Long.valueOf(0), other.getStatistics().get("created"));
+	}
+
+	protected String getName(PhotoSize size) {
+		return id.asString() + size.asInt() + ".jpg";
+	}
+
+	protected void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
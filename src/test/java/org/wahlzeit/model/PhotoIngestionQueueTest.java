@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * Test cases for the PhotoIngestionQueue class.
+ */
+public class PhotoIngestionQueueTest {
+
+	protected PhotoIngestionQueue queue;
+	protected int lastId = 9000;
+
+	@Before
+	public void setUp() {
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig());
+		queue = new PhotoIngestionQueue();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+	}
+
+	@Test
+	public void testOwnersTakeTurns() throws InterruptedException {
+		Photo a1 = addPhoto(1);
+		Photo a2 = addPhoto(1);
+		Photo a3 = addPhoto(1);
+		Photo b1 = addPhoto(2);
+		Photo c1 = addPhoto(3);
+
+		Assert.assertSame(a1, queue.take().photo);
+		Assert.assertSame(b1, queue.take().photo);
+		Assert.assertSame(c1, queue.take().photo);
+		Assert.assertSame(a2, queue.take().photo);
+		Assert.assertSame(a3, queue.take().photo);
+		Assert.assertEquals(0, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testNoPhotosAhead() throws InterruptedException {
+		Photo a1 = addPhoto(1);
+		Photo a2 = addPhoto(1);
+		Photo a3 = addPhoto(1);
+		Photo b1 = addPhoto(2);
+		Photo c1 = addPhoto(3);
+
+		Assert.assertEquals(0, queue.getNoPhotosAhead(a1.getId()));
+		Assert.assertEquals(1, queue.getNoPhotosAhead(b1.getId()));
+		Assert.assertEquals(2, queue.getNoPhotosAhead(c1.getId()));
+		Assert.assertEquals(3, queue.getNoPhotosAhead(a2.getId()));
+		Assert.assertEquals(4, queue.getNoPhotosAhead(a3.getId()));
+
+		PhotoIngestionQueue.Job job = queue.take();
+		Assert.assertEquals(-1, queue.getNoPhotosAhead(a1.getId()));
+		Assert.assertTrue(queue.isBeingProcessed(a1.getId()));
+		Assert.assertEquals(0, queue.getNoPhotosAhead(b1.getId()));
+		Assert.assertEquals(2, queue.getNoPhotosAhead(a2.getId()));
+
+		queue.done(job);
+		Assert.assertFalse(queue.isBeingProcessed(a1.getId()));
+	}
+
+	@Test
+	public void testQueueIsBounded() {
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_QUEUE_SIZE, "3");
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_USER_QUEUE_SIZE, "2");
+
+		Assert.assertTrue(queue.add(createPhoto(1), null));
+		Assert.assertTrue(queue.add(createPhoto(1), null));
+		Assert.assertFalse(queue.hasCapacity(1));
+		Assert.assertFalse(queue.add(createPhoto(1), null));
+
+		Assert.assertTrue(queue.add(createPhoto(2), null));
+		Assert.assertFalse(queue.hasCapacity(3));
+		Assert.assertFalse(queue.add(createPhoto(3), null));
+
+		queue.resume(Collections.singleton(createPhoto(3)));
+		Assert.assertEquals(4, queue.getQueueDepth());
+		Assert.assertEquals(Long.valueOf(2), queue.getStatistics().get("rejected"));
+	}
+
+	@Test
+	public void testReservedSlotsCount() {
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_QUEUE_SIZE, "3");
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_USER_QUEUE_SIZE, "2");
+
+		Assert.assertTrue(queue.reserve(1));
+		Assert.assertTrue(queue.reserve(1));
+		Assert.assertFalse(queue.reserve(1));
+		Assert.assertTrue(queue.add(createPhoto(2), null));
+		Assert.assertFalse(queue.hasCapacity(3));
+
+		queue.cancel(1);
+		Assert.assertTrue(queue.hasCapacity(3));
+		queue.addReserved(createPhoto(1), null);
+		Assert.assertEquals(2, queue.getQueueDepth());
+		Assert.assertTrue(queue.hasCapacity(1));
+	}
+
+	@Test
+	public void testWorkerSurvivesErrors() throws InterruptedException {
+		final List<Photo> processed = Collections.synchronizedList(new ArrayList<Photo>());
+		queue = new PhotoIngestionQueue() {
+			protected void process(Job job) {
+				processed.add(job.photo);
+				if (processed.size() == 1) {
+					throw new OutOfMemoryError("decoding a huge image");
+				}
+			}
+		};
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_THREADS, "1");
+		queue.start();
+		try {
+			addPhoto(1);
+			Photo second = addPhoto(1);
+			for (int i = 0; (processed.size() < 2) && (i < 500); i++) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(2, processed.size());
+			Assert.assertSame(second, processed.get(1));
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testStopEndsWorkers() throws InterruptedException {
+		SysConfig.getInstance().setValue(SysConfig.INGESTION_THREADS, "2");
+		queue.start();
+		Assert.assertEquals(2, queue.workers.size());
+
+		queue.stop();
+		Assert.assertTrue(queue.workers.isEmpty());
+		Assert.assertNull(queue.take());
+	}
+
+	protected Photo addPhoto(int ownerId) {
+		Photo result = createPhoto(ownerId);
+		Assert.assertTrue(queue.add(result, new File("upload")));
+		return result;
+	}
+
+	protected Photo createPhoto(int ownerId) {
+		Photo result = new Photo(new PhotoId(++lastId));
+		result.setOwnerId(ownerId);
+		return result;
+	}
+
+}
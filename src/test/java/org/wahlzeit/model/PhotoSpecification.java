@@ -103,4 +103,50 @@ public abstract class PhotoSpecification {
         Assert.assertEquals(EXPECTED_CREATION_TIME, subject.getCreationTime());
         Assert.assertEquals(expectedCoordinate, subject.getLocation().getCoordinate());
     }
+
+    @Test
+    public void ConcurrentPraiseIsNotLostTest() throws InterruptedException {
+        // Arrange
+        final Photo subject = init();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        subject.addToPraise(5);
+                    }
+                }
+            });
+        }
+
+        // Act
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        Assert.assertEquals(4000, subject.getUnwrittenNoVotes());
+        Assert.assertEquals(20000, subject.getUnwrittenPraiseSum());
+        Assert.assertEquals((10.0 + 20000) / (1 + 4000), subject.getPraise(), DEFAULT_TOLERANCE);
+    }
+
+    @Test
+    public void WrittenPraiseIsNotWrittenAgainTest() {
+        // Arrange
+        Photo subject = init();
+        subject.addToPraise(3);
+        subject.addToPraise(4);
+
+        // Act
+        subject.praiseWasWritten(subject.getUnwrittenPraiseSum(), subject.getUnwrittenNoVotes());
+        subject.addToPraise(5);
+
+        // Assert
+        Assert.assertEquals(5, subject.getUnwrittenPraiseSum());
+        Assert.assertEquals(1, subject.getUnwrittenNoVotes());
+        Assert.assertEquals((10.0 + 3 + 4 + 5) / (1 + 3), subject.getPraise(), DEFAULT_TOLERANCE);
+    }
 }
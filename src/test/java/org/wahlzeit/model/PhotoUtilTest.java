@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import javax.imageio.*;
+
+import org.junit.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * Test cases for the PhotoUtil class.
+ */
+public class PhotoUtilTest {
+
+	protected File rootDir;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("webapp").toFile();
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig(rootDir.getPath(), "localhost"));
+		new File(SysConfig.getPhotosDir().asString()).mkdirs();
+		FileResourceManager.getInstance().clear();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+		FileResourceManager.getInstance().clear();
+		delete(rootDir);
+	}
+
+	@Test
+	public void testCreateImageFilesWritesAllSizes() throws Exception {
+		File source = new File(rootDir, "upload.png");
+		ImageIO.write(createImage(1000, 800, BufferedImage.TYPE_INT_RGB), "png", source);
+
+		PhotoId id = new PhotoId(4711);
+		Dimension sourceSize = PhotoUtil.createImageFiles(source, id);
+		Assert.assertEquals(new Dimension(1000, 800), sourceSize);
+
+		for (PhotoSize size : PhotoSize.values()) {
+			File target = new File(SysConfig.getPhotosDir().asString(), id.asString() + size.asInt() + ".jpg");
+			BufferedImage written = ImageIO.read(target);
+			Assert.assertNotNull(size.asString(), written);
+			Assert.assertEquals(size.calcAdjustedWidth(1000, 800), written.getWidth());
+			Assert.assertEquals(size.calcAdjustedHeight(1000, 800), written.getHeight());
+		}
+	}
+
+	@Test
+	public void testCreateImageFilesSkipsSizesLargerThanSource() throws Exception {
+		File source = new File(rootDir, "upload.png");
+		ImageIO.write(createImage(300, 300, BufferedImage.TYPE_INT_RGB), "png", source);
+
+		PhotoId id = new PhotoId(4712);
+		PhotoUtil.createImageFiles(source, id);
+		
+		String photosDir = SysConfig.getPhotosDir().asString();
+		Assert.assertTrue(new File(photosDir, id.asString() + PhotoSize.THUMB.asInt() + ".jpg").exists());
+		Assert.assertFalse(new File(photosDir, id.asString() + PhotoSize.EXTRA_LARGE.asInt() + ".jpg").exists());
+	}
+
+	@Test
+	public void testCreateImageFilesWithLazyPhotoSizes() throws Exception {
+		SysConfig.getInstance().setValue(SysConfig.LAZY_PHOTO_SIZES, "true");
+		File source = new File(rootDir, "upload.png");
+		ImageIO.write(createImage(1000, 800, BufferedImage.TYPE_INT_RGB), "png", source);
+
+		PhotoId id = new PhotoId(4713);
+		PhotoUtil.createPhoto(source, id);
+		
+		String photosDir = SysConfig.getPhotosDir().asString();
+		for (PhotoSize size : PhotoSize.values()) {
+			File target = new File(photosDir, id.asString() + size.asInt() + ".jpg");
+			Assert.assertEquals(size.asString(), PhotoUtil.isCreatedOnUpload(size), target.exists());
+		}
+		Assert.assertTrue(PhotoUtil.getSourceFile(id).exists());
+	}
+
+	@Test
+	public void testReadImageSizeRejectsBadFiles() throws Exception {
+		File source = new File(rootDir, "upload.png");
+		ImageIO.write(createImage(1000, 800, BufferedImage.TYPE_INT_RGB), "png", source);
+		Assert.assertEquals(new Dimension(1000, 800), PhotoUtil.readImageSize(source));
+		
+		SysConfig.getInstance().setValue(SysConfig.IMAGE_MAX_PIXELS, "100000");
+		assertIsRejected(source);
+		
+		ImageIO.write(createImage(50, 50, BufferedImage.TYPE_INT_RGB), "png", source);
+		assertIsRejected(source);
+		
+		Files.write(source.toPath(), "no photo".getBytes("UTF-8"));
+		assertIsRejected(source);
+	}
+
+	@Test
+	public void testSubsamplingKeepsTwiceTheTargetSize() {
+		Assert.assertEquals(2, PhotoUtil.getSubsampling(new Dimension(4000, 3000), PhotoSize.EXTRA_LARGE));
+		Assert.assertEquals(9, PhotoUtil.getSubsampling(new Dimension(8000, 6000), PhotoSize.MEDIUM));
+		Assert.assertEquals(1, PhotoUtil.getSubsampling(new Dimension(1000, 800), PhotoSize.EXTRA_LARGE));
+		Assert.assertEquals(1, PhotoUtil.getSubsampling(new Dimension(200, 200), PhotoSize.THUMB));
+	}
+
+	@Test
+	public void testSubsampledFilesHaveFullSize() throws Exception {
+		File source = new File(rootDir, "upload.png");
+		ImageIO.write(createImage(3600, 2400, BufferedImage.TYPE_INT_RGB), "png", source);
+
+		PhotoId id = new PhotoId(4714);
+		PhotoUtil.createImageFiles(source, id);
+		
+		File target = new File(SysConfig.getPhotosDir().asString(), id.asString() + PhotoSize.EXTRA_LARGE.asInt() + ".jpg");
+		BufferedImage written = ImageIO.read(target);
+		Assert.assertEquals(840, written.getWidth());
+		Assert.assertEquals(560, written.getHeight());
+		Assert.assertTrue(new Color(written.getRGB(10, 280)).getRed() > 200);
+		Assert.assertTrue(new Color(written.getRGB(830, 280)).getBlue() > 200);
+	}
+
+	@Test
+	public void testDecodeMemoryIsReleased() throws Exception {
+		Semaphore memory = PhotoUtil.getDecodeMemory();
+		int available = memory.availablePermits();
+		
+		int permits = PhotoUtil.acquireDecodeMemory(new Dimension(1000, 1000), 1);
+		Assert.assertEquals(10000000 / 1024, permits);
+		Assert.assertEquals(available - permits, memory.availablePermits());
+		PhotoUtil.releaseDecodeMemory(permits);
+		
+		permits = PhotoUtil.acquireDecodeMemory(new Dimension(100000, 100000), 1);
+		Assert.assertEquals(available, permits); // waits for all other decodes
+		PhotoUtil.releaseDecodeMemory(permits);
+
+		File source = new File(rootDir, "upload.png");
+		Files.write(source.toPath(), "no photo".getBytes("UTF-8"));
+		assertIsRejected(source);
+		Assert.assertEquals(available, memory.availablePermits());
+	}
+
+	@Test
+	public void testScaleImageInSeveralSteps() {
+		BufferedImage source = createImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+		BufferedImage result = PhotoUtil.scaleImage(source, 105, 78);
+		Assert.assertEquals(105, result.getWidth());
+		Assert.assertEquals(78, result.getHeight());
+		
+		Color left = new Color(result.getRGB(10, 39));
+		Color right = new Color(result.getRGB(95, 39));
+		Assert.assertTrue(left.getRed() > 200);
+		Assert.assertTrue(right.getBlue() > 200);
+	}
+
+	@Test
+	public void testTransparentPixelsBecomeWhite() {
+		BufferedImage source = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage result = PhotoUtil.asOpaqueImage(source);
+		Assert.assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+		Assert.assertEquals(Color.WHITE.getRGB(), result.getRGB(5, 5));
+	}
+
+	protected void assertIsRejected(File source) throws Exception {
+		try {
+			PhotoUtil.createImageFiles(source, new PhotoId(4715));
+			Assert.fail("accepted " + source);
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	/**
+	 * Left half red, right half blue
+	 */
+	protected BufferedImage createImage(int width, int height, int type) {
+		BufferedImage result = new BufferedImage(width, height, type);
+		Graphics2D g2d = result.createGraphics();
+		g2d.setColor(Color.RED);
+		g2d.fillRect(0, 0, width / 2, height);
+		g2d.setColor(Color.BLUE);
+		g2d.fillRect(width / 2, 0, width - width / 2, height);
+		g2d.dispose();
+		return result;
+	}
+
+	protected void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
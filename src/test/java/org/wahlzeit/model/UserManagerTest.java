@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.*;
+import org.wahlzeit.services.*;
+
+/**
+ * Test cases for the UserManager's user cache and its indexes.
+ */
+public class UserManagerTest {
+
+	protected UserManager userManager;
+	protected User user;
+
+	@Before
+	public void setUp() {
+		userManager = new UserManager();
+		UserManager.instance = userManager;
+		user = new User("Jane Doe", "secret", "jane@example.com", 0);
+		userManager.doAddUser(user);
+	}
+
+	@Test
+	public void testCachedUserIsFoundByAllKeys() {
+		Assert.assertSame(user, userManager.doGetUserByTag(user.getNameAsTag()));
+		Assert.assertSame(user, userManager.doGetUserById(user.getId()));
+		Assert.assertSame(user, userManager.doGetUserByEmailAddress(EmailAddress.getFromString("jane@example.com")));
+	}
+
+	@Test
+	public void testEmailAddressIndexFollowsChanges() {
+		user.setEmailAddress(EmailAddress.getFromString("jane.doe@example.com"));
+
+		Assert.assertNull(userManager.doGetUserByEmailAddress(EmailAddress.getFromString("jane@example.com")));
+		Assert.assertSame(user, userManager.doGetUserByEmailAddress(EmailAddress.getFromString("jane.doe@example.com")));
+	}
+
+	@Test
+	public void testRemovedUserIsNotIndexed() {
+		userManager.doDeleteUser(user);
+
+		Assert.assertNull(userManager.doGetUserById(user.getId()));
+		Assert.assertNull(userManager.doGetUserByEmailAddress(EmailAddress.getFromString("jane@example.com")));
+	}
+
+	@Test
+	public void testLoggedInUserIsPinned() {
+		UserSession session = new UserSession("test", "http://localhost/");
+		session.setClient(user);
+		Assert.assertTrue(user.isLoggedIn());
+
+		session.setClient(new Guest());
+		Assert.assertFalse(user.isLoggedIn());
+	}
+
+}
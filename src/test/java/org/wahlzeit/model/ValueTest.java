@@ -111,6 +111,14 @@ public class ValueTest {
 		assert (ps4.isFlagged());
 		assert (ps4.isModerated());
 		assert (!ps4.isDisplayable());
+
+		PhotoStatus ps5 = ps.asProcessing(true);
+		assert (ps5 == PhotoStatus.PROCESSING);
+		assert (ps5 == PhotoStatus.getFromInt(16));
+		assert (ps5.isProcessing());
+		assert (!ps5.isDisplayable());
+		assert (ps5.asInvisible(true).asProcessing(false) == PhotoStatus.INVISIBLE);
+		assert (ps5.asProcessing(false).isDisplayable());
 	}
 
 	/**
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.*;
+
+/**
+ * Test cases for the BloomFilter class.
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testAddedKeysAreContained() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add(i);
+			filter.add("user" + i);
+		}
+
+		for (int i = 0; i < 10000; i++) {
+			Assert.assertTrue(filter.mightContain(i));
+			Assert.assertTrue(filter.mightContain("user" + i));
+		}
+	}
+
+	@Test
+	public void testFalsePositivesAreRare() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add(i);
+		}
+
+		int noFalsePositives = 0;
+		for (int i = 10000; i < 20000; i++) {
+			if (filter.mightContain(i)) {
+				noFalsePositives++;
+			}
+		}
+		Assert.assertTrue(noFalsePositives < 300);
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.SQLException;
+
+import org.junit.*;
+
+/**
+ * Test cases for the DatabaseConnectionPool class.
+ */
+public class DatabaseConnectionPoolTest {
+
+	/**
+	 * A database connection without an RDBMS connection behind it.
+	 */
+	protected static class TestDatabaseConnection extends DatabaseConnection {
+
+		protected boolean isOpen = true;
+		protected boolean isValid = true;
+
+		protected TestDatabaseConnection(String name) {
+			super(name, null);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return isOpen;
+		}
+
+		@Override
+		public boolean isValid(int timeout) {
+			return isOpen && isValid;
+		}
+
+		@Override
+		public void close() {
+			isOpen = false;
+		}
+	}
+
+	/**
+	 * 
+	 */
+	protected DatabaseConnectionPool createPool(int maxSize, int maxWaiting, long maxIdleTime, long leakThreshold) {
+		return new DatabaseConnectionPool(maxSize, maxWaiting, 50, 1, maxIdleTime, leakThreshold) {
+			@Override
+			protected DatabaseConnection createDatabaseConnection(String name) {
+				return new TestDatabaseConnection(name);
+			}
+		};
+	}
+
+	@Test
+	public void testReturnedConnectionIsReused() throws SQLException {
+		DatabaseConnectionPool pool = createPool(2, 10, 60000, 60000);
+
+		DatabaseConnection first = pool.borrowDatabaseConnection();
+		pool.returnDatabaseConnection(first);
+		DatabaseConnection second = pool.borrowDatabaseConnection();
+
+		Assert.assertSame(first, second);
+		Assert.assertEquals(1, pool.getCreatedCount());
+		Assert.assertEquals(1, pool.getBorrowedCount());
+	}
+
+	@Test
+	public void testBorrowTimesOutWhenPoolIsExhausted() throws SQLException {
+		DatabaseConnectionPool pool = createPool(2, 10, 60000, 60000);
+		pool.borrowDatabaseConnection();
+		pool.borrowDatabaseConnection();
+
+		try {
+			pool.borrowDatabaseConnection();
+			Assert.fail("expected timeout");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		Assert.assertEquals(2, pool.getCreatedCount());
+		Assert.assertEquals(1, pool.getTimeoutCount());
+		Assert.assertEquals(0, pool.getWaitingCount());
+	}
+
+	@Test
+	public void testBorrowIsRejectedWhenWaitQueueIsFull() throws SQLException {
+		DatabaseConnectionPool pool = createPool(1, 0, 60000, 60000);
+		pool.borrowDatabaseConnection();
+
+		try {
+			pool.borrowDatabaseConnection();
+			Assert.fail("expected rejection");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		Assert.assertEquals(1, pool.getRejectedCount());
+		Assert.assertEquals(0, pool.getTimeoutCount());
+	}
+
+	@Test
+	public void testInvalidIdleConnectionIsReplaced() throws SQLException {
+		DatabaseConnectionPool pool = createPool(1, 10, 60000, 60000);
+		TestDatabaseConnection first = (TestDatabaseConnection) pool.borrowDatabaseConnection();
+		pool.returnDatabaseConnection(first);
+		first.isValid = false;
+
+		DatabaseConnection second = pool.borrowDatabaseConnection();
+
+		Assert.assertNotSame(first, second);
+		Assert.assertFalse(first.isOpen());
+		Assert.assertEquals(1, pool.getDestroyedCount());
+	}
+
+	@Test
+	public void testDuplicateReturnDoesNotGrowPool() throws SQLException {
+		DatabaseConnectionPool pool = createPool(1, 10, 60000, 60000);
+		DatabaseConnection dbc = pool.borrowDatabaseConnection();
+		pool.returnDatabaseConnection(dbc);
+		pool.returnDatabaseConnection(dbc);
+
+		pool.borrowDatabaseConnection();
+		try {
+			pool.borrowDatabaseConnection();
+			Assert.fail("expected timeout");
+		} catch (SQLException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIdleConnectionsAreEvicted() throws Exception {
+		DatabaseConnectionPool pool = createPool(2, 10, 0, 60000);
+		DatabaseConnection dbc = pool.borrowDatabaseConnection();
+		pool.returnDatabaseConnection(dbc);
+		Thread.sleep(5);
+
+		Assert.assertEquals(1, pool.evictIdleConnections());
+		Assert.assertEquals(0, pool.getIdleCount());
+		Assert.assertFalse(dbc.isOpen());
+	}
+
+	@Test
+	public void testLeakedConnectionIsReportedOnce() throws Exception {
+		DatabaseConnectionPool pool = createPool(2, 10, 60000, 0);
+		pool.borrowDatabaseConnection();
+		Thread.sleep(5);
+
+		Assert.assertEquals(1, pool.detectLeakedConnections());
+		Assert.assertEquals(0, pool.detectLeakedConnections());
+		Assert.assertEquals(1, pool.getLeakCount());
+	}
+
+}
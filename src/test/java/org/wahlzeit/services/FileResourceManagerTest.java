@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the FileResourceManager class.
+ */
+public class FileResourceManagerTest {
+
+	protected File rootDir;
+	protected FileResourceManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("resources").toFile();
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig(rootDir.getPath(), "localhost"));
+		SysConfig.getInstance().setValue(SysConfig.FILE_CACHE_SIZE, "2500");
+		SysConfig.getInstance().setValue(SysConfig.FILE_CACHE_FILE_SIZE, "1000");
+		manager = new FileResourceManager();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+		File[] files = rootDir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		rootDir.delete();
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedContentsOnly() throws IOException {
+		File[] files = new File[3];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new File(rootDir, "file" + i + ".css");
+			Files.write(files[i].toPath(), new byte[1000]);
+		}
+		File large = new File(rootDir, "large.jpg");
+		Files.write(large.toPath(), new byte[5000]);
+		
+		String largeFingerprint = manager.getResource(large).getFingerprint();
+		Assert.assertTrue(manager.getResource(files[0]).hasContents());
+		Assert.assertTrue(manager.getResource(files[1]).hasContents());
+		manager.getResource(files[0]); // files[1] is least recently used now
+		Assert.assertTrue(manager.getResource(files[2]).hasContents());
+		
+		Assert.assertEquals(2000L, (long) manager.getStatistics().get("bytes"));
+		Assert.assertTrue(manager.getResource(files[0]).hasContents());
+		Assert.assertFalse(manager.getResource(files[1]).hasContents());
+		Assert.assertEquals(4L, (long) manager.getStatistics().get("size"));
+		
+		long misses = manager.getStatistics().get("misses");
+		Assert.assertEquals(largeFingerprint, manager.getResource(large).getFingerprint());
+		Assert.assertEquals(misses, (long) manager.getStatistics().get("misses")); // not hashed again
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.*;
+
+import org.junit.*;
+import org.wahlzeit.model.PhotoId;
+
+/**
+ * Test cases for the IdBlockAllocator class.
+ */
+public class IdBlockAllocatorTest {
+
+	/**
+	 * Reserves from a counter shared by all instances instead of the globals table.
+	 */
+	protected static class TestIdBlockAllocator extends IdBlockAllocator {
+
+		protected static int lastReservedId = 0;
+
+		public TestIdBlockAllocator(int blockSize) {
+			super("last_photo_id", blockSize);
+		}
+
+		@Override
+		protected int reserveBlock(int noIds) {
+			synchronized(TestIdBlockAllocator.class) {
+				lastReservedId += noIds;
+				return lastReservedId;
+			}
+		}
+
+		@Override
+		public int readHighestReservedId() {
+			synchronized(TestIdBlockAllocator.class) {
+				return lastReservedId;
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		TestIdBlockAllocator.lastReservedId = 0;
+	}
+
+	@Test
+	public void testIdsAreConsecutiveWithinBlock() {
+		IdBlockAllocator allocator = new TestIdBlockAllocator(10);
+		for (int i = 1; i <= 25; i++) {
+			Assert.assertEquals(i, allocator.getNextId());
+		}
+
+		Assert.assertEquals(3, allocator.getNoReservedBlocks());
+		Assert.assertEquals(30, allocator.getHighestReservedId());
+	}
+
+	@Test
+	public void testNodesDoNotCollide() {
+		IdBlockAllocator node1 = new TestIdBlockAllocator(10);
+		IdBlockAllocator node2 = new TestIdBlockAllocator(10);
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int i = 0; i < 35; i++) {
+			Assert.assertTrue(ids.add(node1.getNextId()));
+			Assert.assertTrue(ids.add(node2.getNextId()));
+		}
+
+		Assert.assertEquals(8, node1.getNoReservedBlocks() + node2.getNoReservedBlocks());
+	}
+
+	@Test
+	public void testPhotoIdsOfOtherNodesAreValid() {
+		IdBlockAllocator node1 = new TestIdBlockAllocator(10);
+		IdBlockAllocator node2 = new TestIdBlockAllocator(10);
+		PhotoId.setCurrentIdFromInt(0);
+		PhotoId.setIdAllocator(node1);
+		try {
+			PhotoId.getNextId();
+			int otherId = 0;
+			for (int i = 0; i < 15; i++) {
+				otherId = node2.getNextId();
+			}
+
+			PhotoId id = PhotoId.getIdFromInt(otherId);
+			Assert.assertFalse(id.isNullId());
+			Assert.assertSame(id, PhotoId.getIdFromInt(otherId));
+			Assert.assertTrue(PhotoId.getIdFromInt(otherId + 100).isNullId());
+			
+			int laterId = 0;
+			for (int i = 0; i < 10; i++) {
+				laterId = node2.getNextId();
+			}
+			Assert.assertTrue(PhotoId.getIdFromInt(laterId).isNullId()); // refreshed too recently
+			Assert.assertFalse(PhotoId.getIdFromStoredInt(laterId).isNullId());
+		} finally {
+			PhotoId.setIdAllocator(null);
+		}
+	}
+
+}
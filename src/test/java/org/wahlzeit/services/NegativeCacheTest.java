@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.*;
+
+/**
+ * Test cases for the NegativeCache class.
+ */
+public class NegativeCacheTest {
+
+	@Test
+	public void testMissingKeysAreRemembered() {
+		NegativeCache<String> cache = new NegativeCache<String>(60000, 10);
+		cache.addMissing("xyz");
+
+		Assert.assertTrue(cache.isMissing("xyz"));
+		Assert.assertFalse(cache.isMissing("abc"));
+		Assert.assertEquals(1, cache.getNoHits());
+	}
+
+	@Test
+	public void testRemovedKeysAreNotMissing() {
+		NegativeCache<String> cache = new NegativeCache<String>(60000, 10);
+		cache.addMissing("xyz");
+		cache.remove("xyz");
+
+		Assert.assertFalse(cache.isMissing("xyz"));
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		NegativeCache<Integer> cache = new NegativeCache<Integer>(60000, 10);
+		for (int i = 0; i < 25; i++) {
+			cache.addMissing(i);
+		}
+
+		Assert.assertTrue(cache.getSize() <= 10);
+	}
+
+	@Test
+	public void testZeroTimeToLiveDisablesCache() {
+		NegativeCache<String> cache = new NegativeCache<String>(0, 10);
+		cache.addMissing("xyz");
+
+		Assert.assertFalse(cache.isMissing("xyz"));
+	}
+
+}
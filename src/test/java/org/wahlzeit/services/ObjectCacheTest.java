@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the ObjectCache class.
+ */
+public class ObjectCacheTest {
+
+	/**
+	 * 
+	 */
+	protected static class TestObject implements Persistent {
+		
+		protected int writeCount = 0;
+		
+		public boolean isDirty() { return writeCount != 0; }
+		public void incWriteCount() { writeCount++; }
+		public void resetWriteCount() { writeCount = 0; }
+		public String getIdAsString() { return null; }
+		public void readFrom(ResultSet rset) { }
+		public void writeOn(ResultSet rset) { }
+		public void writeId(PreparedStatement stmt, int pos) { }
+	}
+	
+	protected ObjectCache<Integer, TestObject> cache;
+	protected TestObject[] objects;
+	
+	@Before
+	public void setUp() {
+		cache = new ObjectCache<Integer, TestObject>("test", 3);
+		objects = new TestObject[10];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = new TestObject();
+		}
+	}
+
+	@Test
+	public void testCapacityIsKept() {
+		for (int i = 0; i < objects.length; i++) {
+			cache.putIfAbsent(i, objects[i]);
+		}
+		
+		Assert.assertEquals(3, cache.getSize());
+		Assert.assertEquals(7, cache.getNoEvictions());
+	}
+
+	@Test
+	public void testFrequentlyReadObjectsStay() {
+		cache.putIfAbsent(0, objects[0]);
+		for (int i = 1; i < objects.length; i++) {
+			cache.get(0);
+			cache.putIfAbsent(i, objects[i]);
+		}
+		
+		Assert.assertTrue(cache.contains(0));
+		Assert.assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testDirtyObjectsArePinned() {
+		objects[0].incWriteCount();
+		for (int i = 0; i < objects.length; i++) {
+			cache.putIfAbsent(i, objects[i]);
+		}
+		Assert.assertTrue(cache.contains(0));
+		
+		objects[0].resetWriteCount();
+		for (int i = 1; i < objects.length; i++) {
+			cache.putIfAbsent(i, objects[i]);
+		}
+		Assert.assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		cache.putIfAbsent(1, objects[1]);
+		Assert.assertSame(objects[1], cache.get(1));
+		Assert.assertNull(cache.get(2));
+		Assert.assertSame(objects[1], cache.putIfAbsent(1, objects[2]));
+
+		Assert.assertEquals(1, cache.getNoHits());
+		Assert.assertEquals(1, cache.getNoMisses());
+	}
+
+	@Test
+	public void testEvictedObjectsAreRecoveredWhileReferenced() {
+		for (int i = 0; i < objects.length; i++) {
+			cache.putIfAbsent(i, objects[i]);
+		}
+		Assert.assertFalse(cache.contains(0));
+		
+		Assert.assertSame(objects[0], cache.get(0)); // still referenced by objects
+		Assert.assertTrue(cache.contains(0));
+		Assert.assertEquals(0, cache.getNoMisses());
+	}
+
+}
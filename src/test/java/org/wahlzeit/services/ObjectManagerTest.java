@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the range-partitioned loading of the ObjectManager class.
+ */
+public class ObjectManagerTest {
+
+	/**
+	 * Records the ranges it was asked to load instead of loading them.
+	 */
+	protected static class TestObjectManager extends ObjectManager {
+
+		protected List<int[]> ranges = Collections.synchronizedList(new ArrayList<int[]>());
+
+		protected Persistent createObject(ResultSet rset) {
+			return null;
+		}
+
+		@Override
+		protected int loadRange(String tableName, int from, int to) throws SQLException {
+			if (from < 0) {
+				throw new SQLException("negative ids");
+			}
+			ranges.add(new int[] { from, to });
+			return to - from + 1;
+		}
+	}
+
+	protected TestObjectManager manager;
+
+	@Before
+	public void setUp() {
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig());
+		manager = new TestObjectManager();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRangesCoverIdSpaceExactly() throws SQLException {
+		Assert.assertEquals(1001, manager.loadObjectsInRanges("photos", 0, 1000));
+
+		boolean[] isCovered = new boolean[1001];
+		for (int[] range : manager.ranges) {
+			for (int id = range[0]; id <= range[1]; id++) {
+				Assert.assertFalse(isCovered[id]);
+				isCovered[id] = true;
+			}
+		}
+		for (int id = 0; id <= 1000; id++) {
+			Assert.assertTrue(isCovered[id]);
+		}
+		Assert.assertTrue(manager.ranges.size() > 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallIdSpace() throws SQLException {
+		Assert.assertEquals(1, manager.loadObjectsInRanges("users", 1, 1));
+		Assert.assertEquals(1, manager.ranges.size());
+		Assert.assertEquals(0, manager.loadObjectsInRanges("users", 1, 0));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = SQLException.class)
+	public void testFailingRange() throws SQLException {
+		manager.loadObjectsInRanges("photos", -10, 10);
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+
+import org.junit.*;
+import org.mockito.*;
+
+/**
+ * Test cases for the QueryStatistics, QueryTimer, and InstrumentedStatement classes.
+ */
+public class QueryStatisticsTest {
+
+	protected static final String QUERY = "UPDATE photos SET praise_sum = praise_sum + ? WHERE id = ?";
+
+	@Test
+	public void testBucketIndex() {
+		Assert.assertEquals(0, QueryTimer.getBucketIndex(0));
+		Assert.assertEquals(0, QueryTimer.getBucketIndex(1000000));
+		Assert.assertEquals(1, QueryTimer.getBucketIndex(1000001));
+		Assert.assertEquals(2, QueryTimer.getBucketIndex(3000000));
+		Assert.assertEquals(6, QueryTimer.getBucketIndex(100000000));
+		Assert.assertEquals(QueryTimer.BUCKET_BOUNDS.length, QueryTimer.getBucketIndex(60000000000L));
+	}
+
+	@Test
+	public void testPercentileBound() {
+		QueryTimer timer = new QueryTimer(QUERY);
+		Assert.assertEquals(0, timer.getPercentileBound(0.99));
+
+		for (int i = 0; i < 90; i++) {
+			timer.addExecution(3 * 1000000L);
+		}
+		for (int i = 0; i < 10; i++) {
+			timer.addExecution(150 * 1000000L);
+		}
+
+		Assert.assertEquals(100, timer.getNoExecutions());
+		Assert.assertEquals(150 * 1000000L, timer.getMaxNanos());
+		Assert.assertEquals(5, timer.getPercentileBound(0.5));
+		Assert.assertEquals(5, timer.getPercentileBound(0.9));
+		Assert.assertEquals(200, timer.getPercentileBound(0.99));
+	}
+
+	@Test
+	public void testInstrumentedStatementRecordsBatches() throws SQLException {
+		QueryStatistics statistics = new QueryStatistics(Long.MAX_VALUE);
+		PreparedStatement stmt = InstrumentedStatement.wrap(createStatement(), QUERY, statistics);
+
+		stmt.setInt(1, 5);
+		stmt.setInt(2, 1);
+		stmt.addBatch();
+		stmt.setInt(1, 7);
+		stmt.setInt(2, 2);
+		stmt.addBatch();
+		stmt.executeBatch();
+		stmt.executeUpdate();
+
+		QueryTimer timer = statistics.getTimer(QUERY);
+		Assert.assertEquals(2, timer.getNoExecutions());
+		Assert.assertEquals(3, timer.getNoRows());
+		Assert.assertEquals(0, statistics.getNoSlowQueries());
+	}
+
+	/**
+	 * Returns a statement whose batches update one row per entry and whose updates update one row.
+	 */
+	protected PreparedStatement createStatement() throws SQLException {
+		PreparedStatement result = Mockito.mock(PreparedStatement.class);
+		Mockito.when(result.executeBatch()).thenReturn(new int[] { 1, 1 });
+		Mockito.when(result.executeUpdate()).thenReturn(1);
+		return result;
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.Arrays;
+
+import org.junit.*;
+
+/**
+ * Test cases for the RowValues class.
+ */
+public class RowValuesTest {
+
+	/**
+	 * 
+	 */
+	protected static class TestObject extends DataObject {
+
+		public String getIdAsString() {
+			return "7";
+		}
+
+		public void readFrom(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			rset.updateInt("id", 7);
+			rset.updateString("name", "flower");
+			rset.updateLong("creation_time", 400L);
+			rset.updateString("location", null);
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, 7);
+		}
+	}
+
+	@Test
+	public void testRecordsColumnsInWriteOrder() throws SQLException {
+		RowValues row = RowValues.getFromPersistent(new TestObject());
+
+		Assert.assertEquals(Arrays.asList("id", "name", "creation_time", "location"), row.getColumnNames());
+		Assert.assertEquals("flower", row.getValue("name"));
+		Assert.assertEquals(400L, row.getValue("creation_time"));
+		Assert.assertNull(row.getValue("location"));
+	}
+
+	@Test
+	public void testUpdateStatementExcludesKeyColumn() throws SQLException {
+		RowValues row = RowValues.getFromPersistent(new TestObject());
+
+		String query = row.asUpdateStatementString("photos", "id");
+
+		Assert.assertEquals("UPDATE photos SET \"name\" = ?, \"creation_time\" = ?, \"location\" = ? WHERE id = ?", query);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testRejectsReadingAccess() throws SQLException {
+		RowValues.getFromPersistent(new TestObject() {
+			public void writeOn(ResultSet rset) throws SQLException {
+				rset.getInt("id");
+			}
+		});
+	}
+
+}
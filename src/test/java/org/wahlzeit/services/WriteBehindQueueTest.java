@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the WriteBehindQueue class.
+ */
+public class WriteBehindQueueTest {
+
+	/**
+	 * Records what it was asked to write instead of writing it.
+	 */
+	protected static class TestObjectManager extends ObjectManager {
+
+		protected List<Persistent> written = new ArrayList<Persistent>();
+		protected boolean isFailing = false;
+		protected int committedBeforeFailure = 0;
+
+		protected Persistent createObject(ResultSet rset) {
+			return null;
+		}
+
+		@Override
+		protected void updateDirtyObjects(List<Persistent> dirty, String tableName, int batchSize) throws SQLException {
+			if (isFailing) {
+				for (Persistent obj : dirty.subList(0, committedBeforeFailure)) {
+					obj.resetWriteCount();
+				}
+				throw new SQLException("database is down");
+			}
+			written.addAll(dirty);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	protected static class TestObject extends DataObject {
+
+		public String getIdAsString() {
+			return "1";
+		}
+
+		public void readFrom(ResultSet rset) {
+			// do nothing
+		}
+
+		public void writeOn(ResultSet rset) {
+			// do nothing
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) {
+			// do nothing
+		}
+	}
+
+	protected WriteBehindQueue queue;
+	protected TestObjectManager manager;
+
+	@Before
+	public void setUp() {
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig());
+		queue = new WriteBehindQueue();
+		manager = new TestObjectManager();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+	}
+
+	@Test
+	public void testRepeatedWritesAreCoalesced() {
+		Persistent obj = new TestObject();
+		queue.add(manager, "photos", obj);
+		queue.add(manager, "photos", obj);
+		queue.add(manager, "photos", obj);
+
+		Assert.assertEquals(1, queue.getQueueDepth());
+		Assert.assertEquals(1, queue.flush());
+		Assert.assertEquals(1, manager.written.size());
+		Assert.assertEquals(0, queue.getQueueDepth());
+	}
+
+	/**
+	 * 
+	 */
+	protected TestObject createDirtyObject() {
+		TestObject result = new TestObject();
+		result.incWriteCount();
+		return result;
+	}
+
+	@Test
+	public void testFailedWritesAreQueuedAgain() {
+		queue.add(manager, "photos", createDirtyObject());
+		queue.add(manager, "photos", createDirtyObject());
+		manager.isFailing = true;
+
+		Assert.assertEquals(0, queue.flush());
+		Assert.assertEquals(2, queue.getQueueDepth());
+
+		manager.isFailing = false;
+		Assert.assertEquals(2, queue.flush());
+		Assert.assertEquals(0, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testListenerIsNotifiedAtThreshold() {
+		SysConfig.getInstance().setValue(SysConfig.WRITE_BEHIND_THRESHOLD, "2");
+		final int[] notifications = new int[1];
+		queue.setThresholdListener(new Runnable() {
+			public void run() {
+				notifications[0]++;
+			}
+		});
+
+		queue.add(manager, "photos", new TestObject());
+		Assert.assertEquals(0, notifications[0]);
+		queue.add(manager, "users", new TestObject());
+		Assert.assertEquals(1, notifications[0]);
+	}
+
+	@Test
+	public void testCommittedBatchesAreNotQueuedAgain() {
+		queue.add(manager, "photos", createDirtyObject());
+		queue.add(manager, "photos", createDirtyObject());
+		queue.add(manager, "photos", createDirtyObject());
+		manager.isFailing = true;
+		manager.committedBeforeFailure = 2;
+
+		Assert.assertEquals(2, queue.flush());
+		Assert.assertEquals(1, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testListenerIsNotNotifiedAfterFailedFlush() {
+		SysConfig.getInstance().setValue(SysConfig.WRITE_BEHIND_THRESHOLD, "2");
+		final int[] notifications = new int[1];
+		queue.setThresholdListener(new Runnable() {
+			public void run() {
+				notifications[0]++;
+			}
+		});
+
+		queue.add(manager, "photos", createDirtyObject());
+		queue.add(manager, "photos", createDirtyObject());
+		Assert.assertEquals(1, notifications[0]);
+
+		manager.isFailing = true;
+		Assert.assertEquals(0, queue.flush());
+		Assert.assertEquals(1, notifications[0]);
+
+		queue.add(manager, "users", createDirtyObject());
+		Assert.assertEquals(3, queue.getQueueDepth());
+		Assert.assertEquals(1, notifications[0]);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.junit.*;
+import org.mockito.*;
+import org.mockito.invocation.*;
+import org.mockito.stubbing.*;
+
+/**
+ * Test cases for the CompressionFilter class.
+ */
+public class CompressionFilterTest {
+
+	protected CompressionFilter filter;
+	protected ByteArrayOutputStream body;
+
+	@Before
+	public void setUp() throws ServletException {
+		filter = new CompressionFilter();
+		filter.init(Mockito.mock(FilterConfig.class));
+		body = new ByteArrayOutputStream();
+	}
+
+	@After
+	public void tearDown() {
+		filter.destroy();
+	}
+
+	@Test
+	public void testLargeTextIsCompressed() throws Exception {
+		String page = createPage(2000);
+		HttpServletResponse response = createResponse("text/html; charset=UTF-8");
+		filter.doFilter(createRequest("gzip"), response, createChain(page));
+
+		Mockito.verify(response).setHeader("Content-Encoding", "gzip");
+		Mockito.verify(response).addHeader("Vary", "Accept-Encoding");
+		Mockito.verify(response, Mockito.never()).setContentLengthLong(Mockito.anyLong());
+		Assert.assertEquals(page, gunzip(body.toByteArray()));
+	}
+
+	@Test
+	public void testDeflatersAreReused() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			filter.doFilter(createRequest("gzip"), createResponse("text/css"), createChain(createPage(4000)));
+		}
+
+		Assert.assertEquals(Long.valueOf(1), filter.getDeflaterPool().getStatistics().get("created"));
+		Assert.assertEquals(Long.valueOf(2), filter.getDeflaterPool().getStatistics().get("reused"));
+	}
+
+	@Test
+	public void testSmallTextIsSentAsIs() throws Exception {
+		String page = createPage(100);
+		HttpServletResponse response = createResponse("text/html");
+		filter.doFilter(createRequest("gzip"), response, createChain(page));
+
+		Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+		Mockito.verify(response).setContentLengthLong(page.length());
+		Assert.assertEquals(page, new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testImagesAndOtherClientsAreSentAsIs() throws Exception {
+		String page = createPage(2000);
+		HttpServletResponse response = createResponse("image/jpeg");
+		filter.doFilter(createRequest("gzip"), response, createChain(page));
+		Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+		Assert.assertEquals(page, new String(body.toByteArray(), StandardCharsets.UTF_8));
+
+		response = createResponse("text/html");
+		filter.doFilter(createRequest("identity"), response, createChain(page));
+		Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+		Assert.assertEquals(page, new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 
+	 */
+	protected String createPage(int length) {
+		StringBuffer result = new StringBuffer(length);
+		for (int i = 0; result.length() < length; i++) {
+			result.append("<p>").append(i).append("</p>\n");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns a chain that writes text in pieces of 300 bytes
+	 */
+	protected FilterChain createChain(final String text) throws IOException, ServletException {
+		FilterChain result = Mockito.mock(FilterChain.class);
+		Mockito.doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws IOException {
+				ServletResponse response = invocation.getArgument(1);
+				OutputStream out = response.getOutputStream();
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				for (int i = 0; i < bytes.length; i += 300) {
+					out.write(bytes, i, Math.min(300, bytes.length - i));
+				}
+				out.close();
+				return null;
+			}
+		}).when(result).doFilter(Mockito.any(ServletRequest.class), Mockito.any(ServletResponse.class));
+		return result;
+	}
+
+	/**
+	 * 
+	 */
+	protected HttpServletRequest createRequest(String acceptEncoding) {
+		HttpServletRequest result = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(result.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+		return result;
+	}
+
+	/**
+	 * Returns a response of contentType that writes its body to body
+	 */
+	protected HttpServletResponse createResponse(String contentType) throws IOException {
+		body.reset();
+		HttpServletResponse result = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(result.getContentType()).thenReturn(contentType);
+		Mockito.when(result.getStatus()).thenReturn(HttpServletResponse.SC_OK);
+		Mockito.when(result.getOutputStream()).thenReturn(new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+			public boolean isReady() {
+				return true;
+			}
+			public void setWriteListener(WriteListener listener) {
+				// do nothing
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * 
+	 */
+	protected static String gunzip(byte[] bytes) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[512];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
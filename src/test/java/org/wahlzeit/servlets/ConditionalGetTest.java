@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import javax.servlet.http.*;
+
+import org.junit.*;
+import org.mockito.*;
+
+/**
+ * Test cases for the If-None-Match handling of AbstractServlet.
+ */
+public class ConditionalGetTest {
+
+	protected static final String ETAG = "W/\"0123abcd\"";
+
+	protected AbstractServlet servlet = new AbstractServlet() {
+		private static final long serialVersionUID = 42L;
+	};
+
+	@Test
+	public void testMatchingETag() {
+		Assert.assertTrue(servlet.isNotModified(createRequest(ETAG), ETAG));
+		Assert.assertTrue(servlet.isNotModified(createRequest("\"0123abcd\""), ETAG));
+		Assert.assertTrue(servlet.isNotModified(createRequest("\"other\", W/\"0123abcd\""), ETAG));
+		Assert.assertTrue(servlet.isNotModified(createRequest("*"), ETAG));
+	}
+
+	@Test
+	public void testOtherETag() {
+		Assert.assertFalse(servlet.isNotModified(createRequest(null), ETAG));
+		Assert.assertFalse(servlet.isNotModified(createRequest("W/\"0123abce\""), ETAG));
+	}
+
+	/**
+	 * 
+	 */
+	protected HttpServletRequest createRequest(String ifNoneMatch) {
+		HttpServletRequest result = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(result.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+		return result;
+	}
+
+}
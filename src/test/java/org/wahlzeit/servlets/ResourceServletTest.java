@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.servlets;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.imageio.*;
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.junit.*;
+import org.mockito.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * Test cases for the ResourceServlet class.
+ */
+public class ResourceServletTest {
+
+	protected File rootDir;
+	protected File stylesheet;
+	protected File photo;
+	protected ResourceServlet servlet;
+	protected ByteArrayOutputStream body;
+
+	@Before
+	public void setUp() throws IOException, ServletException {
+		rootDir = Files.createTempDirectory("webapp").toFile();
+		SysConfig.dropInstance();
+		SysConfig.setInstance(new SysConfig(rootDir.getPath(), "localhost"));
+		
+		File staticDir = new File(SysConfig.getStaticDir().asString(), ConfigDir.DEFAULT_DIR_NAME);
+		staticDir.mkdirs();
+		stylesheet = new File(staticDir, "wahlzeit.css");
+		StringBuffer css = new StringBuffer();
+		for (int i = 0; i < 100; i++) {
+			css.append("td.photo").append(i).append(" { margin: 0px; }\n");
+		}
+		Files.write(stylesheet.toPath(), css.toString().getBytes(StandardCharsets.UTF_8));
+		
+		File photosDir = new File(SysConfig.getPhotosDir().asString());
+		photosDir.mkdirs();
+		photo = new File(photosDir, "x14.jpg");
+		byte[] bytes = new byte[100000]; // too big to be kept in memory
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		Files.write(photo.toPath(), bytes);
+
+		File templatesDir = new File(SysConfig.getTemplatesDir().asString());
+		templatesDir.mkdirs();
+		Files.write(new File(templatesDir, "secret.html").toPath(), new byte[] { 'x' });
+		
+		ServletContext context = Mockito.mock(ServletContext.class);
+		Mockito.when(context.getMimeType("wahlzeit.css")).thenReturn("text/css");
+		Mockito.when(context.getMimeType("x14.jpg")).thenReturn("image/jpeg");
+		ServletConfig config = Mockito.mock(ServletConfig.class);
+		Mockito.when(config.getServletContext()).thenReturn(context);
+		
+		servlet = new ResourceServlet();
+		servlet.init(config);
+		body = new ByteArrayOutputStream();
+		FileResourceManager.getInstance().clear();
+	}
+
+	@After
+	public void tearDown() {
+		SysConfig.dropInstance();
+		FileResourceManager.getInstance().clear();
+		delete(rootDir);
+	}
+
+	@Test
+	public void testFingerprintedPathIsImmutable() throws Exception {
+		String path = "/" + FileResourceManager.getInstance().asFingerprintedPath("config/static/default/wahlzeit.css");
+		Assert.assertNotNull(FileResourceManager.getFingerprint(path));
+		Assert.assertEquals("/config/static/default/wahlzeit.css", FileResourceManager.removeFingerprint(path));
+
+		HttpServletResponse response = createResponse();
+		servlet.doGet(createRequest(path), response);
+		Mockito.verify(response).setHeader("Cache-Control", ResourceServlet.IMMUTABLE_CACHE_CONTROL);
+		Mockito.verify(response).setContentType("text/css");
+		Assert.assertArrayEquals(Files.readAllBytes(stylesheet.toPath()), body.toByteArray());
+
+		HttpServletRequest request = createRequest(path);
+		Mockito.when(request.getHeader("If-None-Match")).thenReturn(getETag(response));
+		response = createResponse();
+		servlet.doGet(request, response);
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		Assert.assertEquals(0, body.size());
+	}
+
+	@Test
+	public void testPathWithoutFingerprintIsNotImmutable() throws Exception {
+		HttpServletResponse response = createResponse();
+		servlet.doGet(createRequest("/config/static/default/wahlzeit.css"), response);
+		Mockito.verify(response, Mockito.never()).setStatus(Mockito.anyInt());
+		Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq("Cache-Control"), Mockito.anyString());
+	}
+
+	@Test
+	public void testRangeOfLargeFile() throws Exception {
+		HttpServletRequest request = createRequest("/data/photos/x14.jpg");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=10-19");
+		HttpServletResponse response = createResponse();
+		servlet.doGet(request, response);
+
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		Mockito.verify(response).setHeader("Content-Range", "bytes 10-19/100000");
+		Mockito.verify(response).setContentLengthLong(10L);
+		Assert.assertArrayEquals(Arrays.copyOfRange(Files.readAllBytes(photo.toPath()), 10, 20), body.toByteArray());
+		
+		request = createRequest("/data/photos/x14.jpg");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=-5");
+		response = createResponse();
+		servlet.doGet(request, response);
+		Mockito.verify(response).setHeader("Content-Range", "bytes 99995-99999/100000");
+		Assert.assertEquals(5, body.size());
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		HttpServletRequest request = createRequest("/data/photos/x14.jpg");
+		Mockito.when(request.getHeader("Range")).thenReturn("bytes=100000-");
+		HttpServletResponse response = createResponse();
+		servlet.doGet(request, response);
+		Mockito.verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		Mockito.verify(response).setHeader("Content-Range", "bytes */100000");
+	}
+
+	@Test
+	public void testHeadSendsNoBody() throws Exception {
+		HttpServletResponse response = createResponse();
+		servlet.doHead(createRequest("/data/photos/x14.jpg"), response);
+		Mockito.verify(response, Mockito.never()).setStatus(Mockito.anyInt());
+		Mockito.verify(response).setContentLengthLong(100000L);
+		Assert.assertEquals(0, body.size());
+	}
+
+	@Test
+	public void testLargeFileIsTransferred() throws Exception {
+		servlet.doGet(createRequest("/data/photos/x14.jpg"), createResponse());
+		Assert.assertArrayEquals(Files.readAllBytes(photo.toPath()), body.toByteArray());
+	}
+
+	@Test
+	public void testOtherFilesAreNotServed() throws Exception {
+		HttpServletResponse response = createResponse();
+		servlet.doGet(createRequest("/config/templates/secret.html"), response);
+		Mockito.verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+		
+		response = createResponse();
+		servlet.doGet(createRequest("/data/photos/../../config/templates/secret.html"), response);
+		Mockito.verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+	}
+
+	@Test
+	public void testCompressedSiblingIsSent() throws Exception {
+		GzipUtil.compressFile(stylesheet);
+		HttpServletRequest request = createRequest("/config/static/default/wahlzeit.css");
+		Mockito.when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+		HttpServletResponse response = createResponse();
+		servlet.doGet(request, response);
+
+		byte[] compressed = Files.readAllBytes(GzipUtil.getCompressedFile(stylesheet).toPath());
+		Mockito.verify(response).setHeader("Content-Encoding", "gzip");
+		Mockito.verify(response).setHeader("Vary", "Accept-Encoding");
+		Mockito.verify(response).setContentType("text/css");
+		Mockito.verify(response).setContentLengthLong(compressed.length);
+		Assert.assertArrayEquals(compressed, body.toByteArray());
+		
+		String etag = getETag(response);
+		Assert.assertTrue(etag.endsWith("-gz\""));
+		Mockito.when(request.getHeader("If-None-Match")).thenReturn(etag);
+		response = createResponse();
+		servlet.doGet(request, response);
+		Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		Mockito.verify(response).setHeader("Vary", "Accept-Encoding");
+		
+		request = createRequest("/config/static/default/wahlzeit.css");
+		Mockito.when(request.getHeader("If-None-Match")).thenReturn(etag);
+		response = createResponse();
+		servlet.doGet(request, response);
+		Mockito.verify(response, Mockito.never()).setStatus(Mockito.anyInt()); // identity has an ETag of its own
+		Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+		Assert.assertFalse(etag.equals(getETag(response)));
+	}
+
+	@Test
+	public void testLazyPhotoSizeIsCreated() throws Exception {
+		SysConfig.getInstance().setValue(SysConfig.LAZY_PHOTO_SIZES, "true");
+		PhotoDerivativeCache.getInstance().clear();
+		PhotoId id = PhotoId.getNextId();
+		File source = PhotoUtil.getSourceFile(id);
+		source.getParentFile().mkdirs();
+		ImageIO.write(new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB), "jpg", source);
+		
+		HttpServletResponse response = createResponse();
+		servlet.doGet(createRequest("/data/photos/" + id.asString() + "5.jpg"), response);
+		Mockito.verify(response, Mockito.never()).sendError(Mockito.anyInt());
+		Assert.assertEquals(840, ImageIO.read(new ByteArrayInputStream(body.toByteArray())).getWidth());
+		
+		response = createResponse();
+		servlet.doGet(createRequest("/data/photos/" + id.asString() + "0.jpg"), response);
+		Mockito.verify(response).sendError(HttpServletResponse.SC_NOT_FOUND); // thumbs are created on upload
+		PhotoDerivativeCache.getInstance().clear();
+	}
+
+	/**
+	 * Returns a GET request for path without any conditional or range headers
+	 */
+	protected HttpServletRequest createRequest(String path) {
+		HttpServletRequest result = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(result.getMethod()).thenReturn("GET");
+		Mockito.when(result.getServletPath()).thenReturn(path);
+		Mockito.when(result.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+		return result;
+	}
+
+	/**
+	 * Returns a response that writes its body to body
+	 */
+	protected HttpServletResponse createResponse() throws IOException {
+		body.reset();
+		HttpServletResponse result = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(result.getOutputStream()).thenReturn(new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+			public void write(byte[] bytes, int off, int len) {
+				body.write(bytes, off, len);
+			}
+			public boolean isReady() {
+				return true;
+			}
+			public void setWriteListener(WriteListener listener) {
+				// do nothing
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * 
+	 */
+	protected String getETag(HttpServletResponse response) {
+		ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+		Mockito.verify(response).setHeader(Mockito.eq("ETag"), etag.capture());
+		return etag.getValue();
+	}
+
+	/**
+	 * 
+	 */
+	protected void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+
+}
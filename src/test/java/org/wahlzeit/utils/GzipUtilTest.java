@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.utils;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the GzipUtil and GzipOutputStream classes.
+ */
+public class GzipUtilTest {
+
+	@Test
+	public void testAcceptsGzip() {
+		Assert.assertTrue(GzipUtil.acceptsGzip("gzip, deflate, br"));
+		Assert.assertTrue(GzipUtil.acceptsGzip("deflate;q=0.5, GZIP;q=0.8"));
+		Assert.assertTrue(GzipUtil.acceptsGzip("*"));
+		Assert.assertFalse(GzipUtil.acceptsGzip(null));
+		Assert.assertFalse(GzipUtil.acceptsGzip("identity"));
+		Assert.assertFalse(GzipUtil.acceptsGzip("gzip;q=0"));
+		Assert.assertFalse(GzipUtil.acceptsGzip("*, gzip;q=0.0"));
+	}
+
+	@Test
+	public void testIsCompressible() {
+		Assert.assertTrue(GzipUtil.isCompressibleContentType("text/html; charset=UTF-8"));
+		Assert.assertTrue(GzipUtil.isCompressibleContentType("application/javascript"));
+		Assert.assertFalse(GzipUtil.isCompressibleContentType("image/jpeg"));
+		Assert.assertFalse(GzipUtil.isCompressibleContentType(null));
+		Assert.assertTrue(GzipUtil.isCompressibleFileName("wahlzeit.CSS"));
+		Assert.assertFalse(GzipUtil.isCompressibleFileName("heading.gif"));
+	}
+
+	@Test
+	public void testGzipOutputStreamReusesDeflater() throws IOException {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			for (int i = 0; i < 2; i++) {
+				String text = "Wahlzeit " + i + " rates photos, photos, photos";
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				OutputStream out = new GzipOutputStream(bytes, deflater, 512);
+				out.write(text.getBytes(StandardCharsets.UTF_8));
+				out.close();
+				deflater.reset();
+	
+				Assert.assertEquals(text, gunzip(bytes.toByteArray()));
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Test
+	public void testCompressFiles() throws IOException {
+		File dir = Files.createTempDirectory("static").toFile();
+		File css = new File(dir, "wahlzeit.css");
+		File gif = new File(dir, "heading.gif");
+		StringBuffer text = new StringBuffer();
+		for (int i = 0; i < 100; i++) {
+			text.append("td.photo").append(i).append(" { margin: 0px; }\n");
+		}
+		Files.write(css.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(gif.toPath(), new byte[] { 'G', 'I', 'F' });
+
+		try {
+			Assert.assertEquals(1, GzipUtil.compressFiles(dir));
+			Assert.assertEquals(0, GzipUtil.compressFiles(dir)); // up to date
+			File compressed = GzipUtil.getCompressedFile(css);
+			Assert.assertTrue(compressed.length() < css.length());
+			Assert.assertEquals(text.toString(), gunzip(Files.readAllBytes(compressed.toPath())));
+			Assert.assertFalse(GzipUtil.getCompressedFile(gif).exists());
+		} finally {
+			GzipUtil.getCompressedFile(css).delete();
+			css.delete();
+			gif.delete();
+			dir.delete();
+		}
+	}
+
+	protected static String gunzip(byte[] bytes) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[512];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.lang.management.*;
+
+/**
+ * Measures heap allocation and time for making and rendering a page with a list of nested parts.
+ * Not a test case; run its main method by hand, e.g. before and after changing WebPart.
+ */
+public class WebPartBenchmark {
+
+	/**
+	 * 
+	 */
+	protected static final int PAGE_VALUES = 16;
+	protected static final int PARTS_PER_PAGE = 24;
+	protected static final int ROUNDS = 200000;
+
+	/**
+	 * 
+	 */
+	protected static final String[] PAGE_KEYS = new String[PAGE_VALUES];
+	protected static final WebPartKey[] PAGE_HANDLES = new WebPartKey[PAGE_VALUES];
+	static {
+		for (int i = 0; i < PAGE_VALUES; i++) {
+			PAGE_KEYS[i] = "p" + i;
+			PAGE_HANDLES[i] = WebPartKey.valueOf(PAGE_KEYS[i]);
+		}
+	}
+
+	protected static final WebPartKey LIST = WebPartKey.valueOf("list");
+	protected static final WebPartKey LINK = WebPartKey.valueOf("link");
+	protected static final WebPartKey THUMB = WebPartKey.valueOf("thumb");
+	protected static final WebPartKey CAPTION = WebPartKey.valueOf("caption");
+	protected static final WebPartKey PRAISE = WebPartKey.valueOf("praise");
+	protected static final WebPartKey ID = WebPartKey.valueOf("id");
+
+	/**
+	 * 
+	 */
+	public static void main(String[] argv) throws IOException {
+		WebPartTemplate page = new WebPartTemplate("en/pages/BenchmarkPage");
+		StringBuffer source = new StringBuffer();
+		for (int i = 0; i < PAGE_VALUES; i++) {
+			source.append("<div class=\"p").append(i).append("\">{$").append(PAGE_KEYS[i]).append("}</div>");
+		}
+		source.append("<ul>{$list}</ul>");
+		page.initialize(source.toString());
+
+		WebPartTemplate item = new WebPartTemplate("en/infos/BenchmarkItem");
+		item.initialize("<li><a href=\"{$link}\">{$thumb}</a><p>{$caption}</p><p>{$praise}</p><p>{$id}</p></li>");
+
+		OutputStream sink = new OutputStream() {
+			public void write(int b) { }
+			public void write(byte[] b, int off, int len) { }
+		};
+
+		for (int run = 0; run < 3; run++) {
+			measure("strings", page, item, sink, false);
+			measure("handles", page, item, sink, true);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	protected static void measure(String label, WebPartTemplate page, WebPartTemplate item, OutputStream sink, boolean useHandles) throws IOException {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long bytes = bean.getCurrentThreadAllocatedBytes();
+		long time = System.nanoTime();
+
+		for (int r = 0; r < ROUNDS; r++) {
+			WebPart result = new WebPart(page);
+			WritableList list = new WritableList();
+			if (useHandles) {
+				for (int i = 0; i < PAGE_VALUES; i++) {
+					result.addString(PAGE_HANDLES[i], "value");
+				}
+				for (int i = 0; i < PARTS_PER_PAGE; i++) {
+					WebPart part = new WebPart(item);
+					part.addString(LINK, "/x12.html");
+					part.addString(THUMB, "<img/>");
+					part.addString(CAPTION, "caption");
+					part.addString(PRAISE, "7.5");
+					part.addString(ID, "x12");
+					list.append(part);
+				}
+				result.addWritable(LIST, list);
+			} else {
+				for (int i = 0; i < PAGE_VALUES; i++) {
+					result.addString(PAGE_KEYS[i], "value");
+				}
+				for (int i = 0; i < PARTS_PER_PAGE; i++) {
+					WebPart part = new WebPart(item);
+					part.addString("link", "/x12.html");
+					part.addString("thumb", "<img/>");
+					part.addString("caption", "caption");
+					part.addString("praise", "7.5");
+					part.addString("id", "x12");
+					list.append(part);
+				}
+				result.addWritable("list", list);
+			}
+			result.writeOn(sink);
+		}
+
+		long bytesPerPage = (bean.getCurrentThreadAllocatedBytes() - bytes) / ROUNDS;
+		long nanosPerPage = (System.nanoTime() - time) / ROUNDS;
+		System.out.println(label + ": " + bytesPerPage + " bytes/page, " + nanosPerPage + " ns/page");
+	}
+
+}
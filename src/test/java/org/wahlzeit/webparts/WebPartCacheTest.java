@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the WebPartCache class.
+ */
+public class WebPartCacheTest {
+
+	protected WebPartCache cache;
+	protected WebPartTemplate template;
+
+	@Before
+	public void setUp() {
+		cache = new WebPartCache();
+		template = new WebPartTemplate("en/infos/CaptionInfo");
+		template.initialize("<p>{$caption}</p>");
+	}
+
+	@Test
+	public void testRenderedPartIsReturned() throws IOException {
+		WebPart part = new WebPart(template);
+		part.addString("caption", "Photo by Jane");
+		Writable fragment = cache.put(template, "x1@1", part);
+
+		Assert.assertSame(fragment, cache.get(template, "x1@1"));
+		Assert.assertEquals("<p>Photo by Jane</p>", asString(fragment));
+		Assert.assertNull(cache.get(template, "x1@2"));
+	}
+
+	@Test
+	public void testReloadedTemplateMisses() {
+		cache.put(template, "x1@1", new WebPart(template));
+
+		WebPartTemplate reloaded = new WebPartTemplate(template.getName());
+		reloaded.initialize("<div>{$caption}</div>");
+		Assert.assertNull(cache.get(reloaded, "x1@1"));
+	}
+
+	protected String asString(Writable writable) throws IOException {
+		StringWriter writer = new StringWriter();
+		writable.writeOn(writer);
+		return writer.toString();
+	}
+
+}
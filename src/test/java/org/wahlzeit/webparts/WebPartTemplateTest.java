@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Test cases for the WebPartTemplate class and rendering WebParts to an OutputStream.
+ */
+public class WebPartTemplateTest {
+
+	protected WebPartTemplate template;
+
+	@Before
+	public void setUp() {
+		template = new WebPartTemplate("de/infos/CaptionInfo");
+		template.initialize("<p>Gr\u00fc\u00dfe {$name}</p>{$part}<hr/>");
+	}
+
+	@Test
+	public void testSegmentsAreEncodedOnce() {
+		byte[][] segments = template.getSegments();
+		Assert.assertEquals(template.getKeys().length + 1, segments.length);
+		Assert.assertEquals("<p>Gr\u00fc\u00dfe ", new String(segments[0], StandardCharsets.UTF_8));
+		Assert.assertEquals("</p>", new String(segments[1], StandardCharsets.UTF_8));
+		Assert.assertEquals("<hr/>", new String(segments[2], StandardCharsets.UTF_8));
+		Assert.assertEquals(template.asString().getBytes(StandardCharsets.UTF_8).length, template.getSegmentsSize());
+	}
+
+	@Test
+	public void testTemplateWithoutKeys() throws IOException {
+		WebPartTemplate plain = new WebPartTemplate("en/infos/Empty");
+		plain.initialize("");
+		Assert.assertEquals(1, plain.getSegments().length);
+		Assert.assertEquals("", asBytes(new WebPart(plain)));
+	}
+
+	@Test
+	public void testStreamMatchesWriter() throws IOException {
+		WebPartTemplate inner = new WebPartTemplate("de/infos/InnerInfo");
+		inner.initialize("<b>{$value}</b>");
+		WebPart innerPart = new WebPart(inner);
+		innerPart.addString("value", "\u00d6lfarbe");
+
+		WebPart part = new WebPart(template);
+		part.addString("name", "J\u00fcrgen");
+		part.addWritable("part", new WritableList().append(innerPart).append(new WebPartCache.Fragment("\u20ac")));
+
+		StringWriter writer = new StringWriter();
+		part.writeOn(writer);
+		Assert.assertEquals("<p>Gr\u00fc\u00dfe J\u00fcrgen</p><b>\u00d6lfarbe</b>\u20ac<hr/>", writer.toString());
+		Assert.assertEquals(writer.toString(), asBytes(part));
+	}
+
+	@Test
+	public void testSpecializedTemplateKeepsOtherSlots() throws IOException {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("name", "Welt");
+		WebPartTemplate specialized = template.specialize(values);
+
+		Assert.assertArrayEquals(new String[] { "part" }, specialized.getKeys());
+		Assert.assertEquals(template.getName(), specialized.getName());
+		Assert.assertTrue(specialized.getVersion() != template.getVersion());
+
+		WebPart part = new WebPart(specialized);
+		part.addString("name", "ignored");
+		part.addString("part", "<i>1</i>");
+		Assert.assertEquals("<p>Gr\u00fc\u00dfe Welt</p><i>1</i><hr/>", asBytes(part));
+	}
+
+	@Test
+	public void testKeysShareValueIndexes() throws IOException {
+		WebPartTemplate twice = new WebPartTemplate("en/infos/TwiceInfo");
+		twice.initialize("{$id}-{$name}-{$id}");
+		Assert.assertEquals(2, twice.getNumberOfValues());
+		Assert.assertEquals(twice.getIndexOf(WebPartKey.valueOf("id")), twice.getSlotIndexes()[2]);
+		Assert.assertEquals(-1, twice.getIndexOf(WebPartKey.valueOf("unknown")));
+
+		WebPart part = new WebPart(twice);
+		part.addString(WebPartKey.valueOf("id"), "x1");
+		part.addString("name", "n");
+		part.addString("unknown", "dropped");
+		Assert.assertEquals("x1-n-x1", asBytes(part));
+		Assert.assertEquals("n", part.getValue(WebPartKey.valueOf("name")));
+		Assert.assertNull(part.getValue("unknown"));
+	}
+
+	protected String asBytes(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}